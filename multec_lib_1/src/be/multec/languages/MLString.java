@@ -64,6 +64,13 @@ public class MLString {
 		return string;
 	}
 	
+	/**
+	 * @return The MLStrings manager, or null when this string was disposed.
+	 */
+	public MLStrings getStrings() {
+		return strings;
+	}
+	
 	/**
 	 * @return The string-id that identifies the string in the MLStrings manager.
 	 */
@@ -0,0 +1,136 @@
+package be.multec.languages;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A concurrent set of weakly referenced MLString objects. The entries are hashed on the identity
+ * of their string, such that adding and removing a string takes constant time. The entries of the
+ * strings that were recycled by the GC are put in a reference queue, from which they are purged
+ * when strings are added or iterated. The iteration does not copy the entries and skips the
+ * recycled strings.
+ * 
+ * This class is thread-safe.
+ * 
+ * @author Wouter Van den Broeck
+ */
+final class MLStringRegistry implements Iterable<MLString> {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* A weak reference to a string, equal to the other references to the same string. */
+	private static final class Entry extends WeakReference<MLString> {
+		
+		final int hash;
+		
+		Entry(MLString string, ReferenceQueue<MLString> queue) {
+			super(string, queue);
+			hash = System.identityHashCode(string);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) return true;
+			if (!(obj instanceof Entry)) return false;
+			MLString string = get();
+			return string != null && string == ((Entry) obj).get();
+		}
+		
+	}
+	
+	/* The entries. */
+	private final Set<Entry> entries = Collections
+			.newSetFromMap(new ConcurrentHashMap<Entry, Boolean>());
+	
+	/* The queue in which the GC puts the entries of the recycled strings. */
+	private final ReferenceQueue<MLString> queue = new ReferenceQueue<MLString>();
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Adds the given string, unless it was already added.
+	 * 
+	 * @param string The string to add.
+	 */
+	void add(MLString string) {
+		purge();
+		entries.add(new Entry(string, queue));
+	}
+	
+	/**
+	 * Removes the given string.
+	 * 
+	 * @param string The string to remove.
+	 */
+	void remove(MLString string) {
+		entries.remove(new Entry(string, null));
+	}
+	
+	/**
+	 * @return The number of entries, including the entries of recycled strings that were not yet
+	 *         purged.
+	 */
+	int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Returns an iterator over the strings that were not recycled. The iterator reflects the
+	 * additions and removals made during the iteration, or not.
+	 * 
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<MLString> iterator() {
+		purge();
+		final Iterator<Entry> iterator = entries.iterator();
+		return new Iterator<MLString>() {
+			
+			/* The next string, or null when it is not yet looked up. */
+			private MLString next;
+			
+			@Override
+			public boolean hasNext() {
+				while (next == null && iterator.hasNext())
+					next = iterator.next().get(); // skip the recycled strings
+				return next != null;
+			}
+			
+			@Override
+			public MLString next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				MLString string = next;
+				next = null;
+				return string;
+			}
+			
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/* Removes the entries of the recycled strings. */
+	private void purge() {
+		Reference<? extends MLString> entry;
+		while ((entry = queue.poll()) != null)
+			entries.remove(entry);
+	}
+	
+}
@@ -0,0 +1,399 @@
+package be.multec.languages;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import processing.data.XML;
+
+/**
+ * A compiled, read-only table of multi-language strings. The table is compiled at build time from
+ * the XML-file that is otherwise loaded by the MLStrings(PApplet, Language[], String) constructor,
+ * e.g. with the following command:
+ * 
+ * <pre class="code">
+ * java be.multec.languages.MLStringTable strings.xml strings.mlst en ca es eu gl
+ * </pre>
+ * 
+ * At runtime the file is memory-mapped. The strings are looked up through a hash index of the
+ * ids, and are only decoded from their UTF-8 bytes when they are first used. A language is only
+ * loaded when one of its strings is first used, which in a memory-mapped file also means that its
+ * pages are only read by then.
+ * 
+ * The file contains (all integers are big-endian):
+ * <ul>
+ * <li>A header: the magic number, the version, the number of languages, the number of ids and the
+ * number of slots in the hash index.</li>
+ * <li>For each language: the offset and length of the code, and the offset of its value table.</li>
+ * <li>The hash index: for each slot the index of an id plus one, or 0 when the slot is empty.</li>
+ * <li>For each id: its hash code and the offset and length of its UTF-8 bytes.</li>
+ * <li>The UTF-8 bytes of the codes and the ids.</li>
+ * <li>For each language: the value table, with the offset and length of each value, followed by
+ * the UTF-8 bytes of the values.</li>
+ * </ul>
+ * 
+ * This class is thread-safe.
+ * 
+ * @see MLStrings#MLStrings(Language[], MLStringTable)
+ * @author Wouter Van den Broeck
+ */
+public class MLStringTable {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The magic number at the start of the file: 'MLST'. */
+	private static final int MAGIC = 0x4D4C5354;
+	
+	/* The version of the file format. */
+	private static final int VERSION = 1;
+	
+	/* The size of the header, of a language entry and of an id entry, in bytes. */
+	private static final int HEADER_SIZE = 20;
+	private static final int LANGUAGE_SIZE = 12;
+	private static final int ID_SIZE = 12;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/* The content of the table, only read with absolute methods. */
+	private final ByteBuffer buffer;
+	
+	private final int languageCount;
+	private final int idCount;
+	private final int slotCount;
+	
+	/* The offsets of the hash index and of the id entries. */
+	private final int slotsOffset;
+	private final int idsOffset;
+	
+	/* The codes of the languages, in lower case. */
+	private final String[] codes;
+	
+	/* The decoded values per language, created when the language is first used. */
+	private final AtomicReferenceArray<String[]> values;
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Memory-maps the given compiled table.
+	 * 
+	 * @param file The compiled table.
+	 * 
+	 * @throws Error when the file could not be read or is not a compiled table.
+	 */
+	public MLStringTable(File file) {
+		this(map(file));
+	}
+	
+	/**
+	 * @param buffer The content of a compiled table, e.g. read from a resource.
+	 * 
+	 * @throws Error when the buffer does not contain a compiled table.
+	 */
+	public MLStringTable(ByteBuffer buffer) {
+		this.buffer = buffer;
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new Error("The given data is not a compiled string table.");
+		if (buffer.getInt(4) != VERSION)
+			throw new Error("Unsupported string table version " + buffer.getInt(4) + ".");
+		languageCount = buffer.getInt(8);
+		idCount = buffer.getInt(12);
+		slotCount = buffer.getInt(16);
+		slotsOffset = HEADER_SIZE + languageCount * LANGUAGE_SIZE;
+		idsOffset = slotsOffset + slotCount * 4;
+		
+		codes = new String[languageCount];
+		for (int i = 0; i < languageCount; i++) {
+			int entry = HEADER_SIZE + i * LANGUAGE_SIZE;
+			codes[i] = decode(buffer.getInt(entry), buffer.getInt(entry + 4));
+		}
+		values = new AtomicReferenceArray<String[]>(languageCount);
+	}
+	
+	/* Maps the given file in memory. */
+	private static ByteBuffer map(File file) {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			// the mapping remains valid after the file is closed:
+			return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		catch (IOException e) {
+			throw new Error("Failed to map the string table '" + file + "'. " + e, e);
+		}
+		finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				}
+				catch (IOException e) { /* ignore */}
+			}
+		}
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param code The code of a language, e.g. 'EN'. The case is ignored.
+	 * @return The index of the language with the given code, or -1 when the table does not
+	 *         contain it.
+	 */
+	public int getLanguageIndex(String code) {
+		for (int i = 0; i < languageCount; i++) {
+			if (codes[i].equalsIgnoreCase(code)) return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the string with the given id for the language with the given index. The string is
+	 * decoded when it is first asked for.
+	 * 
+	 * @param language The index of the language.
+	 * @param id The id of the string.
+	 * @return The string, or null when the table does not contain the given id.
+	 */
+	public String getString(int language, String id) {
+		int index = indexOf(id);
+		if (index < 0) return null;
+		
+		String[] languageValues = values.get(language);
+		if (languageValues == null) {
+			values.compareAndSet(language, null, new String[idCount]); // load the language
+			languageValues = values.get(language);
+		}
+		String value = languageValues[index];
+		if (value == null) {
+			// Decoding the same value twice in concurrent calls is harmless:
+			int entry = buffer.getInt(HEADER_SIZE + language * LANGUAGE_SIZE + 8) + index * 8;
+			value = decode(buffer.getInt(entry), buffer.getInt(entry + 4));
+			languageValues[index] = value;
+		}
+		return value;
+	}
+	
+	/* Returns the index of the given id, or -1 when the table does not contain it. */
+	private int indexOf(String id) {
+		int hash = id.hashCode();
+		int mask = slotCount - 1;
+		for (int slot = spread(hash) & mask;; slot = (slot + 1) & mask) {
+			int index = buffer.getInt(slotsOffset + slot * 4) - 1;
+			if (index < 0) return -1; // empty slot
+			int entry = idsOffset + index * ID_SIZE;
+			if (buffer.getInt(entry) == hash
+					&& matches(buffer.getInt(entry + 4), buffer.getInt(entry + 8), id)) return index;
+		}
+	}
+	
+	/* Returns true when the given UTF-8 bytes encode the given id, without decoding ASCII ids. */
+	private boolean matches(int offset, int length, String id) {
+		int n = id.length();
+		if (length < n) return false;
+		for (int i = 0; i < n; i++) {
+			char c = id.charAt(i);
+			if (c >= 0x80) return id.equals(decode(offset, length));
+			if (buffer.get(offset + i) != c) return false;
+		}
+		return length == n;
+	}
+	
+	/* Decodes the given UTF-8 bytes. */
+	private String decode(int offset, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = buffer.get(offset + i);
+		return new String(bytes, UTF8);
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return The number of languages in this table.
+	 */
+	public int getLanguageCount() {
+		return languageCount;
+	}
+	
+	/**
+	 * @return The number of ids in this table.
+	 */
+	public int getIdCount() {
+		return idCount;
+	}
+	
+	/**
+	 * @return The number of languages of which a string was used.
+	 */
+	public int getLoadedLanguageCount() {
+		int count = 0;
+		for (int i = 0; i < languageCount; i++) {
+			if (values.get(i) != null) count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "MLStringTable[languages: " + languageCount + " (" + getLoadedLanguageCount()
+				+ " loaded), ids: " + idCount + ", bytes: " + buffer.limit() + "]";
+	}
+	
+	// *********************************************************************************************
+	// Compiler:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Compiles the given XML-file into a string table. The XML-file should have the format
+	 * described in MLStrings#MLStrings(PApplet, Language[], String).
+	 * 
+	 * @param xml The source-data.
+	 * @param codes The codes of the languages to include.
+	 * @param file The file to write the table to.
+	 * 
+	 * @throws Error when a string is missing for one of the languages or the file could not be
+	 *             written.
+	 */
+	public static void compile(XML xml, String[] codes, File file) {
+		XML[] stringEls = xml.getChildren("string");
+		int idCount = stringEls.length;
+		int languageCount = codes.length;
+		int slotCount = 1;
+		while (slotCount < idCount * 2)
+			slotCount <<= 1;
+		
+		// Collect the UTF-8 bytes of the ids and the values:
+		byte[][] ids = new byte[idCount][];
+		int[] hashes = new int[idCount];
+		byte[][][] languageValues = new byte[languageCount][idCount][];
+		for (int i = 0; i < idCount; i++) {
+			String id = stringEls[i].getString("id");
+			ids[i] = id.getBytes(UTF8);
+			hashes[i] = id.hashCode();
+			for (int j = 0; j < languageCount; j++) {
+				XML[] entries = stringEls[i].getChildren(codes[j].toLowerCase());
+				if (entries.length == 0) { throw new Error(
+						"There is no entry for the string with id " + id + " for the language ["
+								+ codes[j] + "]."); }
+				languageValues[j][i] = entries[0].getContent().getBytes(UTF8);
+			}
+		}
+		
+		// Fill the hash index:
+		int[] slots = new int[slotCount];
+		for (int i = 0; i < idCount; i++) {
+			int slot = spread(hashes[i]) & (slotCount - 1);
+			while (slots[slot] != 0)
+				slot = (slot + 1) & (slotCount - 1);
+			slots[slot] = i + 1;
+		}
+		
+		// Lay out the data after the fixed-size parts:
+		int offset = HEADER_SIZE + languageCount * LANGUAGE_SIZE + slotCount * 4 + idCount * ID_SIZE;
+		ArrayList<byte[]> blobs = new ArrayList<byte[]>();
+		int[] codeOffsets = new int[languageCount];
+		byte[][] codeBytes = new byte[languageCount][];
+		for (int j = 0; j < languageCount; j++) {
+			codeBytes[j] = codes[j].toLowerCase().getBytes(UTF8);
+			codeOffsets[j] = offset;
+			offset += codeBytes[j].length;
+			blobs.add(codeBytes[j]);
+		}
+		int[] idOffsets = new int[idCount];
+		for (int i = 0; i < idCount; i++) {
+			idOffsets[i] = offset;
+			offset += ids[i].length;
+			blobs.add(ids[i]);
+		}
+		int[] tableOffsets = new int[languageCount];
+		int[][] valueOffsets = new int[languageCount][idCount];
+		for (int j = 0; j < languageCount; j++) {
+			tableOffsets[j] = offset;
+			offset += idCount * 8;
+			for (int i = 0; i < idCount; i++) {
+				valueOffsets[j][i] = offset;
+				offset += languageValues[j][i].length;
+			}
+		}
+		
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new FileOutputStream(file));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(languageCount);
+			out.writeInt(idCount);
+			out.writeInt(slotCount);
+			for (int j = 0; j < languageCount; j++) {
+				out.writeInt(codeOffsets[j]);
+				out.writeInt(codeBytes[j].length);
+				out.writeInt(tableOffsets[j]);
+			}
+			for (int slot : slots)
+				out.writeInt(slot);
+			for (int i = 0; i < idCount; i++) {
+				out.writeInt(hashes[i]);
+				out.writeInt(idOffsets[i]);
+				out.writeInt(ids[i].length);
+			}
+			for (byte[] blob : blobs)
+				out.write(blob);
+			for (int j = 0; j < languageCount; j++) {
+				for (int i = 0; i < idCount; i++) {
+					out.writeInt(valueOffsets[j][i]);
+					out.writeInt(languageValues[j][i].length);
+				}
+				for (int i = 0; i < idCount; i++)
+					out.write(languageValues[j][i]);
+			}
+		}
+		catch (IOException e) {
+			throw new Error("Failed to write the string table '" + file + "'. " + e, e);
+		}
+		finally {
+			if (out != null) {
+				try {
+					out.close();
+				}
+				catch (IOException e) { /* ignore */}
+			}
+		}
+	}
+	
+	/**
+	 * Compiles an XML-file into a string table.
+	 * 
+	 * @param args The path of the XML-file, the path of the table and the codes of the languages.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: MLStringTable <xml-file> <table-file> <code>...");
+			System.exit(1);
+		}
+		String[] codes = new String[args.length - 2];
+		System.arraycopy(args, 2, codes, 0, codes.length);
+		compile(new XML(new File(args[0])), codes, new File(args[1]));
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Spreads the higher bits of the given hash code over the lower bits used for the slots. */
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+	
+}
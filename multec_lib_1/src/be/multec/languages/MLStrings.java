@@ -1,8 +1,12 @@
 package be.multec.languages;
 
-import java.lang.ref.WeakReference;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import processing.core.PApplet;
 import processing.data.XML;
@@ -23,14 +27,17 @@ public class MLStrings {
 	// ---------------------------------------------------------------------------------------------
 	
 	/* The currently selected language. */
-	private Language currentLanguage;
-	
-	/* A mapping from string identifiers and the strings for one language. */
-	private ConcurrentHashMap<String, String> currentStringMap;
+	private volatile Language currentLanguage;
 	
 	/* A mapping from language objects to maps that contain the strings for that language. */
 	private final ConcurrentHashMap<Language, ConcurrentHashMap<String, String>> languageMap = new ConcurrentHashMap<Language, ConcurrentHashMap<String, String>>();
 	
+	/* The compiled table that contains the strings, or null when the strings are in the maps. */
+	private MLStringTable table;
+	
+	/* A mapping from language objects to their index in the compiled table. */
+	private final ConcurrentHashMap<Language, Integer> tableLanguages = new ConcurrentHashMap<Language, Integer>();
+	
 	/* The handlers that want to be notified when the language is changed. */
 	private final CopyOnWriteArraySet<LanguageChangeHandler> handlers = new CopyOnWriteArraySet<LanguageChangeHandler>();
 	
@@ -39,7 +46,7 @@ public class MLStrings {
 	 * These MLString objects are referenced with weak references. The MLString objects which are no
 	 * longer in use and are recycled by the GC are gracefully removed from this collection.
 	 */
-	private final CopyOnWriteArraySet<WeakReference<MLString>> strings = new CopyOnWriteArraySet<WeakReference<MLString>>();
+	private final MLStringRegistry strings = new MLStringRegistry();
 	
 	// *********************************************************************************************
 	// Constructor:
@@ -95,6 +102,26 @@ public class MLStrings {
 		setCurrentLanguage(languages[0]);
 	}
 	
+	/**
+	 * This constructor looks up the strings in a compiled string table. Compared to loading the
+	 * xml-file, no DOM and no maps are built, and the strings are only decoded when they are used.
+	 * 
+	 * @param languages The languages for which strings should be provided.
+	 * @param table The compiled string table.
+	 * 
+	 * @see MLStringTable#compile(XML, String[], java.io.File)
+	 */
+	public MLStrings(Language[] languages, MLStringTable table) {
+		this.table = table;
+		for (Language lang : languages) {
+			int index = table.getLanguageIndex(lang.code);
+			if (index < 0) { throw new Error("The string table contains no strings for the language "
+					+ lang.label + " [" + lang.code + "]."); }
+			tableLanguages.put(lang, index);
+		}
+		setCurrentLanguage(languages[0]);
+	}
+	
 	// *********************************************************************************************
 	// Accessors:
 	// ---------------------------------------------------------------------------------------------
@@ -115,12 +142,73 @@ public class MLStrings {
 		if (currentLanguage == null) { throw new Error("The given language is null."); }
 		if (this.currentLanguage == currentLanguage) return;
 		
+		checkLanguage(currentLanguage);
 		this.currentLanguage = currentLanguage;
-		currentStringMap = languageMap.get(currentLanguage);
-		if (currentStringMap == null) { throw new Error(
-				"Could not find a strings-map for the currently selected language "
-						+ currentLanguage.label + " [" + currentLanguage.code + "]."); }
-		dispatchUpdate();
+		dispatchUpdate(null, null);
+	}
+	
+	/**
+	 * Sets the current language asynchronously, such that a language switch does not stall the
+	 * thread that draws the strings. The new strings of all multi-language strings and
+	 * language-change handlers are first resolved on the given resolve-executor. The switch is then
+	 * applied as a whole on the given apply-executor, which should run the task on the thread that
+	 * uses the strings (e.g. at the start of the next frame). The multi-language strings and the
+	 * handlers are thus notified on that thread. Nothing is changed when a string is missing for the
+	 * given language, or when the switch is cancelled before it is applied. When several switches
+	 * overlap, the last applied one wins.
+	 * 
+	 * @param language The new current language.
+	 * @param resolveExecutor The executor on which the new strings are resolved.
+	 * @param applyExecutor The executor on which the switch is applied.
+	 * @return A future that completes with the given language when the switch was applied, or
+	 *         fails when a string could not be resolved.
+	 * 
+	 * @see be.multec.sg.SGApp#setLanguageAsync(MLStrings, Language)
+	 */
+	public Future<Language> setCurrentLanguageAsync(final Language language,
+			Executor resolveExecutor, final Executor applyExecutor) {
+		if (language == null) { throw new Error("The given language is null."); }
+		checkLanguage(language);
+		final IdentityHashMap<MLString, String> resolvedStrings;
+		resolvedStrings = new IdentityHashMap<MLString, String>();
+		final IdentityHashMap<LanguageChangeHandler, String> resolvedHandlers;
+		resolvedHandlers = new IdentityHashMap<LanguageChangeHandler, String>();
+		final Error[] resolveError = new Error[1];
+		
+		final FutureTask<Language> applyTask = new FutureTask<Language>(new Callable<Language>() {
+			@Override
+			public Language call() {
+				if (resolveError[0] != null) throw resolveError[0];
+				currentLanguage = language;
+				dispatchUpdate(resolvedStrings, resolvedHandlers);
+				return language;
+			}
+		});
+		
+		resolveExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (MLString string : strings) {
+						String id = string.getStringId();
+						if (id != null) resolvedStrings.put(string, getString(language, id));
+					}
+					for (LanguageChangeHandler handler : handlers) {
+						resolvedHandlers.put(handler, getString(language, handler.stringId));
+					}
+				}
+				catch (Error e) {
+					resolveError[0] = e;
+				}
+				catch (RuntimeException e) {
+					resolveError[0] = new Error("Failed to resolve the strings for the language "
+							+ language.label + " [" + language.code + "]. " + e, e);
+				}
+				// the executors establish the happens-before relation with the apply task:
+				if (!applyTask.isCancelled()) applyExecutor.execute(applyTask);
+			}
+		});
+		return applyTask;
 	}
 	
 	// *********************************************************************************************
@@ -136,13 +224,36 @@ public class MLStrings {
 	 */
 	public String getString(String id) {
 		// System.out.println(">> Strings.getString(" + id + ")");
-		String string = currentStringMap.get(id);
+		return getString(currentLanguage, id);
+	}
+	
+	/**
+	 * Returns the string for the given string identifier and for the given language, which need
+	 * not be the currently set language.
+	 * 
+	 * @param language The language.
+	 * @param id The string identifier.
+	 * 
+	 * @return The string.
+	 */
+	public String getString(Language language, String id) {
+		String string = (table != null) ? table.getString(tableLanguages.get(language), id)
+				: languageMap.get(language).get(id);
 		if (string == null) { throw new Error("Could not find the string for id '" + id
-				+ "' for the currently selected language '" + currentLanguage.label + "' ("
-				+ currentLanguage.code + ")."); }
+				+ "' for the currently selected language '" + language.label + "' ("
+				+ language.code + ")."); }
 		return string;
 	}
 	
+	/* Throws an error when there are no strings for the given language. */
+	private void checkLanguage(Language language) {
+		boolean found = (table != null) ? tableLanguages.containsKey(language) : languageMap
+				.containsKey(language);
+		if (!found) { throw new Error(
+				"Could not find a strings-map for the currently selected language "
+						+ language.label + " [" + language.code + "]."); }
+	}
+	
 	// ---------------------------------------------------------------------------------------------
 	// MLString management:
 	
@@ -165,11 +276,7 @@ public class MLStrings {
 	 * @param string The multi-language string to set and update.
 	 */
 	public void addString(MLString string) {
-		for (WeakReference<MLString> stringRef : strings) {
-			if (stringRef.get() == null) strings.remove(stringRef); // remove empty references
-			else if (stringRef.get() == string) return;
-		}
-		strings.add(new WeakReference<MLString>(string));
+		strings.add(string);
 	}
 	
 	/**
@@ -178,12 +285,7 @@ public class MLStrings {
 	 * @param mlString
 	 */
 	public void removeString(MLString mlString) {
-		for (WeakReference<MLString> stringRef : strings) {
-			if (stringRef.get() == null || stringRef.get() == mlString) {
-				// Remove all references that contain the given mlString and all empty references:
-				strings.remove(stringRef);
-			}
-		}
+		strings.remove(mlString);
 	}
 	
 	// ---------------------------------------------------------------------------------------------
@@ -210,15 +312,23 @@ public class MLStrings {
 	
 	// ---------------------------------------------------------------------------------------------
 	
-	/* Notify the update-handlers that the lanugage was changed. */
-	private void dispatchUpdate() {
-		for (WeakReference<MLString> stringRef : strings) {
-			MLString string = stringRef.get();
-			string.updateString(getString(string.getStringId()));
+	/*
+	 * Notify the update-handlers that the lanugage was changed. The strings are taken from the
+	 * given maps of resolved strings when given, and resolved otherwise (e.g. for the strings that
+	 * were added after the resolution).
+	 */
+	private void dispatchUpdate(IdentityHashMap<MLString, String> resolvedStrings,
+			IdentityHashMap<LanguageChangeHandler, String> resolvedHandlers) {
+		for (MLString string : strings) {
+			String id = string.getStringId();
+			if (id == null) continue; // disposed during the iteration
+			String value = resolvedStrings == null ? null : resolvedStrings.get(string);
+			string.updateString(value != null ? value : getString(id));
 		}
 		
 		for (LanguageChangeHandler handler : handlers) {
-			handler.update(getString(handler.stringId));
+			String value = resolvedHandlers == null ? null : resolvedHandlers.get(handler);
+			handler.update(value != null ? value : getString(handler.stringId));
 		}
 	}
 	
@@ -4,9 +4,11 @@ import java.awt.Color;
 import java.awt.Rectangle;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -21,9 +23,17 @@ import processing.core.PMatrix3D;
 import processing.core.PVector;
 import processing.event.KeyEvent;
 import processing.event.MouseEvent;
+import be.multec.languages.Language;
+import be.multec.languages.MLStrings;
+import be.multec.sg.SGTweenEngine.Easing;
+import be.multec.sg.SGTweenEngine.Property;
+import be.multec.sg.nodes.SGAutoCachePolicy;
+import be.multec.sg.nodes.SGLabel;
 import be.multec.sg.nodes.SGNode;
 import be.multec.sg.nodes.SGStage;
 import be.multec.sg.nodes.controllers.INodeController;
+import be.multec.sg.nodes.controllers.IThreadSafeNodeController;
+import be.multec.sg.utils.SGDirtyRegions;
 
 /**
  * Base class for scene-graph applets. These specialized Processing-applets provide a scene-graph
@@ -165,6 +175,12 @@ public class SGApp extends PApplet {
 			stage.dispose(true);
 			stage = null;
 		}
+		if (scheduler != null) scheduler.dispose();
+		if (tweenEngine != null) tweenEngine.dispose();
+		if (tileRenderer != null) tileRenderer.dispose();
+		if (updatePool != null) updatePool.shutdown();
+		if (surfacePool != null) surfacePool.clear();
+		if (labelAtlas != null) labelAtlas.dispose();
 		
 		if (loggerFH != null) {
 			try {
@@ -224,21 +240,24 @@ public class SGApp extends PApplet {
 		
 		if (stage == null) return; // do not continue when the stage is not yet ready, or gone.
 		
+		// The timestamps of the phases, only taken when profiling:
+		SGFrameStats stats = frameStats;
+		long scheduledStart = stats != null ? System.nanoTime() : 0;
+		
+		// Apply the commands posted from other threads:
+		applyPostedCommands();
+		
+		// Dispatch the coalesced mouse move, if any:
+		dispatchPendingMouseMove();
+		
 		// Flag the mouse vector as dirty when the mouse moved since the previous frame:
 		if (mouseX != pmouseX || mouseY != pmouseY) stageMouseVectorDirty = true;
 		
-		// Apply scheduled updates that are due:
-		if (dueUpdates != null) {
-			// println("# apply scheduled updates");
-			DueUpdate[] updates;
-			synchronized (dueUpdatesLock) {
-				updates = dueUpdates;
-				dueUpdates = null;
-			}
-			for (DueUpdate update : updates) {
-				update.apply();
-			}
-		}
+		// Apply scheduled updates that are due and advance the tweens:
+		frameTime = clockMillis();
+		if (scheduler != null) scheduler.applyDue(frameTime);
+		if (tweenEngine != null && tweenEngine.size() > 0) tweenEngine.advance(frameTime);
+		long updateStart = stats != null ? System.nanoTime() : 0;
 		
 		// Trigger update traversal when needed:
 		if (updateActive) throw new Error("The updateActive is already active [in " + name + "].");
@@ -247,41 +266,81 @@ public class SGApp extends PApplet {
 			stage.updateNode();
 			updateActive = false;
 		}
+		long drawStart = stats != null ? System.nanoTime() : 0;
 		
 		// draw traversal:
 		if (drawActive) throw new Error("The redraw is already active [in " + name + "].");
 		if (DEBUG_MODE) stage.checkTree();
 		// println("+ DRAW - START TRAVERSAL for [" + name + "]");
+		boolean drawn = false;
 		if (redrawPending) {
 			drawActive = true;
 			redrawPending = false;
-			if (backgroundColor != null) background(backgroundColor.getRGB());
-			stage.drawNode(this.g);
+			culledNodes = 0;
+			if (dirtyRegionsActive() && width == dirtyRegionsWidth && height == dirtyRegionsHeight)
+				drawDirtyRegions();
+			else drawAll();
+			if (autoCachePolicy != null) autoCachePolicy.frameDrawn();
 			if (redrawAgain) {
 				redrawAgain = false;
 				redrawPending = true;
 			}
 			drawActive = false;
+			drawn = true;
 		}
 		// println("+ DRAW - END TRAVERSAL for [" + name + "] - updatePending: "
 		// + stage.updatePending() + ", redrawPending: " + redrawPending);
+		long enqueuedStart = stats != null ? System.nanoTime() : 0;
 		
 		applyEnqueuedUpdates();
 		
-		if (!stage.updatePending() && !redrawPending) noLoop();
+		if (stats != null) {
+			stats.frameDone(updateStart - scheduledStart, drawStart - updateStart, enqueuedStart
+					- drawStart, System.nanoTime() - enqueuedStart, drawn ? repaintedPixels : 0);
+			if (showFrameStats && drawn && repaintedPixels > 0) drawFrameStatsOverlay(stats);
+		}
+		
+		if (!stage.updatePending() && !redrawPending && !tweensActive()) {
+			noLoop();
+			// a command might have been posted after it was drained, but before noLoop():
+			if (!postedCommands.isEmpty()) loop();
+		}
 	}
 	
-	// ---------------------------------------------------------------------------------------------
+	/* Draws the complete stage. */
+	private void drawAll() {
+		// Redraws requested from now on are collected as damage for the next frame:
+		fullRedrawPending = false;
+		dirtyRegionsWidth = width;
+		dirtyRegionsHeight = height;
+		synchronized (damagedNodesLock) {
+			damagedNodes.clear();
+		}
+		dirtyRegionOutlines.clear(); // erased by the complete repaint
+		
+		if (backgroundColor != null) background(backgroundColor.getRGB());
+		// In the dirty-region mode, culling against the stage also memoizes the composite bounds
+		// from which the damage of the following frames is captured:
+		if (viewportCulling || dirtyRegionsEnabled) {
+			viewportRect.setBounds(0, 0, width, height);
+			drawCullRect = viewportRect;
+		}
+		if (tileRenderer != null) stage.drawNodeTiled(this.g, tileRenderer);
+		else stage.drawNode(this.g);
+		drawCullRect = null;
+		repaintedPixels = (long) width * height;
+	}
 	
-	/* Synchronization lock used for thread-safe adding and applying node update requests. */
-	private Object updateQueueLock = new Object();
+	// ---------------------------------------------------------------------------------------------
 	
 	/*
-	 * Two collections used for efficiently enqueueing deferred update requests added through the
-	 * applyEnqueuedUpdates method.
+	 * The nodes for which an update was requested while the update traversal was active, or from
+	 * another thread. These requests are applied after the draw traversal.
 	 */
-	private List<SGNode> updateQueue = new ArrayList<SGNode>();
-	private List<SGNode> updateQueueAlt = new ArrayList<SGNode>();
+	private final SGPostQueue<SGNode> updateQueue = new SGPostQueue<SGNode>();
+	
+	/* The batch of enqueued update requests that is being applied, reused between frames. */
+	private final List<SGNode> updateBatch = new ArrayList<SGNode>();
 	
 	/**
 	 * System method that enqueues nodes for which a update was requested while the update traversal
@@ -291,50 +350,575 @@ public class SGApp extends PApplet {
 	 * @param node
 	 */
 	public void enqueueUpdate(SGNode node) {
-		synchronized (updateQueueLock) {
-			updateQueue.add(node);
-		}
+		updateQueue.add(node);
 	}
 	
 	/*
-	 * System method that applied the deferred update requests enqueued through the
-	 * applyEnqueuedUpdates method.
+	 * System method that applies the deferred update requests enqueued through the enqueueUpdate
+	 * method.
 	 */
 	private void applyEnqueuedUpdates() {
-		synchronized (updateQueueLock) {
-			if (updateQueue.size() == 0) return;
-			// if (SGNode.traceUpdate)
-			// println("* update - applying enqueued updates for [" + name + "]");
-			List<SGNode> queue = updateQueue;
-			updateQueue = updateQueueAlt;
-			for (SGNode node : queue)
-				node.invalidateNode();
-			queue.clear();
-			updateQueueAlt = queue;
+		if (updateQueue.drainTo(updateBatch) == 0) return;
+		for (SGNode node : updateBatch)
+			node.invalidateNode();
+		updateBatch.clear();
+	}
+	
+	// *********************************************************************************************
+	// Parallel update:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * The minimal number of children a container should have before its children are updated in
+	 * parallel, when the parallel update mode is enabled.
+	 */
+	public static int PARALLEL_UPDATE_THRESHOLD = 64;
+	
+	/* True when the parallel update mode is enabled. */
+	private boolean parallelUpdate = false;
+	
+	/* The pool on which subtrees are updated and tiles are drawn in parallel, created lazily. */
+	private ForkJoinPool updatePool;
+	
+	/**
+	 * Enables or disables the parallel update mode. In this mode, the child-subtrees of containers
+	 * with at least PARALLEL_UPDATE_THRESHOLD children are updated in parallel on a ForkJoinPool,
+	 * when all the controllers in such a subtree implement IThreadSafeNodeController. The bounds of
+	 * these subtrees are validated afterwards on the animation thread, bottom-up and in the order
+	 * of the children, such that the result does not depend on the scheduling of the threads.
+	 * Invalidations that are requested during the parallel pass are enqueued and applied after the
+	 * draw traversal, as for the sequential update traversal.
+	 * 
+	 * @param enabled True when the parallel update mode should be enabled.
+	 * 
+	 * @default false
+	 * @see IThreadSafeNodeController
+	 */
+	public void setParallelUpdate(boolean enabled) {
+		parallelUpdate = enabled;
+	}
+	
+	/**
+	 * @return True when the parallel update mode is enabled.
+	 */
+	public boolean parallelUpdateEnabled() {
+		return parallelUpdate;
+	}
+	
+	/**
+	 * System method that returns the pool on which subtrees are updated and tiles are drawn in
+	 * parallel, and on which the strings of asynchronous language switches are resolved. This
+	 * method should only be called from SGNode and SGTileRenderer.
+	 * 
+	 * @return The pool.
+	 */
+	public ForkJoinPool getUpdatePool() {
+		synchronized (this) {
+			if (updatePool == null) updatePool = new ForkJoinPool();
+			return updatePool;
 		}
 	}
 	
 	// *********************************************************************************************
-	// Delayed controller application:
+	// Parallel tile drawing:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The renderer of the parallel tile drawing mode, or null when the mode is disabled. */
+	private SGTileRenderer tileRenderer;
+	
+	/**
+	 * Enables the parallel tile drawing mode with the given number of tiles, or disables it when
+	 * the number is smaller than 2. In this mode, the window is split into horizontal tiles when
+	 * the whole stage is redrawn. The child-nodes of the stage in whose subtrees all nodes declare
+	 * their draw() method thread-safe are drawn on an offscreen surface per tile, concurrently on
+	 * the pool of the parallel update mode, skipping the descendants outside each tile. The tiles
+	 * are then copied onto the window. The other child-nodes of the stage are drawn on the
+	 * animation thread in between, such that the drawing order is preserved. Cached nodes are not
+	 * drawn on the tiles.
+	 * 
+	 * This mode is only supported for the JAVA2D renderer. It is not used when the dirty regions
+	 * are repainted, and the nodes drawn on the tiles are not sampled by the frame profiler.
+	 * 
+	 * @param tiles The number of tiles, e.g. the number of processor cores.
+	 * 
+	 * @default 0
+	 * @see SGNode#setDrawThreadSafe(boolean)
+	 */
+	public void setTileDrawing(int tiles) {
+		if (tiles < 2) tiles = 0;
+		if (tiles == getDrawTileCount()) return;
+		if (tiles > 0 && !isJAVA2D())
+			throw new Error("The tile drawing mode is only supported for the JAVA2D renderer.");
+		if (tileRenderer != null) tileRenderer.dispose();
+		tileRenderer = tiles > 0 ? new SGTileRenderer(this, tiles) : null;
+		redrawAll();
+	}
+	
+	/**
+	 * @return The number of tiles in the parallel tile drawing mode, or 0 when it is disabled.
+	 */
+	public int getDrawTileCount() {
+		return tileRenderer != null ? tileRenderer.getTileCount() : 0;
+	}
+	
+	/**
+	 * @return The renderer of the parallel tile drawing mode, or null when it is disabled.
+	 */
+	public SGTileRenderer getTileRenderer() {
+		return tileRenderer;
+	}
+	
+	// *********************************************************************************************
+	// Dirty-region redraw:
 	// ---------------------------------------------------------------------------------------------
 	
-	/* Timer for scheduled controllers. */
-	private Timer scheduledUpdateTimer = new Timer();
+	/**
+	 * The maximum number of separate dirty regions that are repainted in one frame. Regions are
+	 * merged when there are more.
+	 */
+	public static int MAX_DIRTY_REGIONS = 8;
+	
+	/**
+	 * The whole stage is repainted when the dirty regions cover more than this fraction of the
+	 * stage.
+	 */
+	public static float DIRTY_REGIONS_MAX_COVERAGE = .6f;
+	
+	/* True when only the damaged regions of the stage should be repainted. */
+	private boolean dirtyRegionsEnabled = false;
+	
+	/* True when the next redraw should repaint the complete stage. */
+	private boolean fullRedrawPending = true;
+	
+	/* The size of the stage when it was completely repainted for the last time. */
+	private int dirtyRegionsWidth = 0;
+	private int dirtyRegionsHeight = 0;
+	
+	/* Synchronization lock used for thread-safe registration of damaged nodes. */
+	private Object damagedNodesLock = new Object();
+	
+	/* The nodes for which a redraw was requested since the previous frame. */
+	private List<SGNode> damagedNodes = new ArrayList<SGNode>();
+	
+	/* The dirty regions repainted in the current frame. */
+	private SGDirtyRegions dirtyRegions;
+	
+	/* The area of the stage, used to clip the dirty regions. */
+	private Rectangle stageRect = new Rectangle();
+	
+	/* Rectangle used to collect the current bounds of the damaged nodes. */
+	private final Rectangle damageRect = new Rectangle();
+	
+	/* The number of pixels repainted in the last frame. */
+	private long repaintedPixels = 0;
+	
+	/* True when the repainted regions should be outlined. */
+	private boolean showDirtyRegions = false;
+	
+	/* The outlined regions from the previous frame that need to be erased in the next frame. */
+	private List<Rectangle> dirtyRegionOutlines = new ArrayList<Rectangle>();
 	
 	/*
-	 * Synchronization lock used when adding DueUpdate objects that are ready to be applied in the
-	 * dueUpdates collection, and removing them when they are applied.
+	 * The rectangle in the coordinate system of the stage outside of which nodes do not need to be
+	 * drawn. Null when all nodes need to be drawn.
+	 */
+	private Rectangle drawCullRect = null;
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Enables or disables the dirty-region redraw mode. In this mode, only the regions covered by
+	 * the nodes that requested a redraw -both before and after their modification- are repainted.
+	 * The graphics are clipped to these regions and only the nodes that intersect with them are
+	 * drawn.
+	 * 
+	 * This mode relies on the renderer retaining the drawn content between frames, as the JAVA2D
+	 * renderer does.
+	 * 
+	 * @param enabled True when only the damaged regions should be repainted.
+	 * 
+	 * @default false
+	 */
+	public void setDirtyRegionsEnabled(boolean enabled) {
+		if (dirtyRegionsEnabled == enabled) return;
+		dirtyRegionsEnabled = enabled;
+		fullRedrawPending = true;
+		redrawSG();
+	}
+	
+	/**
+	 * @return True when the dirty-region redraw mode is enabled.
+	 */
+	public boolean dirtyRegionsEnabled() {
+		return dirtyRegionsEnabled;
+	}
+	
+	/**
+	 * @return True when the nodes should register themselves as damaged when they request a
+	 *         redraw. This is not the case when the whole stage will be repainted anyway.
+	 */
+	public boolean dirtyRegionsActive() {
+		return dirtyRegionsEnabled && !fullRedrawPending;
+	}
+	
+	/**
+	 * Requests that the whole stage is repainted in the next frame, also when the dirty-region
+	 * redraw mode is enabled.
 	 */
-	private Object dueUpdatesLock = new Object();
+	public void redrawAll() {
+		fullRedrawPending = true;
+		redrawSG();
+	}
+	
+	/**
+	 * @param show True when the regions repainted in the dirty-region redraw mode should be
+	 *            outlined. The outlines remain visible until the next repaint.
+	 */
+	public void showDirtyRegions(boolean show) {
+		if (showDirtyRegions == show) return;
+		showDirtyRegions = show;
+		redrawAll();
+	}
+	
+	/**
+	 * @return The number of pixels repainted in the last frame in which the stage was redrawn.
+	 */
+	public long getRepaintedPixels() {
+		return repaintedPixels;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * System method that registers a node for which a redraw was requested in the dirty-region
+	 * redraw mode. This method should only be called from SGNode.
+	 * 
+	 * @param node
+	 */
+	public void addDamagedNode(SGNode node) {
+		synchronized (damagedNodesLock) {
+			damagedNodes.add(node);
+		}
+	}
+	
+	/**
+	 * System method that returns the rectangle in the coordinate system of the stage outside of
+	 * which nodes do not need to be drawn. This method should only be called from SGNode.
+	 * 
+	 * @return The rectangle, or null when all nodes need to be drawn.
+	 */
+	public Rectangle getDrawCullRect() {
+		return drawCullRect;
+	}
+	
+	/**
+	 * System method that sets the rectangle in the coordinate system of the stage outside of which
+	 * nodes do not need to be drawn. This method should only be called from SGNode.
+	 * 
+	 * @param rect The rectangle, or null when all nodes need to be drawn.
+	 */
+	public void setDrawCullRect(Rectangle rect) {
+		drawCullRect = rect;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Repaints the dirty regions. */
+	private void drawDirtyRegions() {
+		if (dirtyRegions == null) dirtyRegions = new SGDirtyRegions(MAX_DIRTY_REGIONS);
+		dirtyRegions.clear();
+		stageRect.setBounds(0, 0, width, height);
+		dirtyRegions.setClip(stageRect);
+		
+		synchronized (damagedNodesLock) {
+			for (SGNode node : damagedNodes)
+				node.collectDamage(dirtyRegions, damageRect);
+			damagedNodes.clear();
+		}
+		if (dirtyRegions.isEmpty()) {
+			repaintedPixels = 0;
+			return;
+		}
+		
+		// Erase the outlines drawn in the previous frame:
+		for (Rectangle outline : dirtyRegionOutlines)
+			dirtyRegions.add(outline);
+		dirtyRegionOutlines.clear();
+		
+		long area = dirtyRegions.getArea();
+		if (area > DIRTY_REGIONS_MAX_COVERAGE * width * height) {
+			drawAll();
+			return;
+		}
+		
+		int imageMode = g.imageMode; // restored after the regions are drawn
+		for (int i = 0; i < dirtyRegions.size(); i++) {
+			Rectangle region = dirtyRegions.get(i);
+			g.imageMode(CORNER); // the clip rectangle is interpreted according to the image mode
+			g.clip(region.x, region.y, region.width, region.height);
+			if (backgroundColor != null) {
+				g.pushStyle();
+				g.noStroke();
+				g.fill(backgroundColor.getRGB());
+				g.rectMode(CORNER);
+				g.rect(region.x, region.y, region.width, region.height);
+				g.popStyle();
+			}
+			drawCullRect = region;
+			stage.drawNode(g);
+			drawCullRect = null;
+			g.noClip();
+		}
+		g.imageMode(imageMode);
+		repaintedPixels = area;
+		
+		if (showDirtyRegions) {
+			g.pushStyle();
+			g.noFill();
+			g.stroke(0xFFFF0000);
+			g.strokeWeight(1);
+			g.rectMode(CORNER);
+			for (int i = 0; i < dirtyRegions.size(); i++) {
+				Rectangle region = dirtyRegions.get(i);
+				g.rect(region.x + .5f, region.y + .5f, region.width - 1, region.height - 1);
+				dirtyRegionOutlines.add(new Rectangle(region));
+			}
+			g.popStyle();
+		}
+	}
+	
+	// *********************************************************************************************
+	// Viewport culling:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* True when the nodes outside the viewport should not be drawn. */
+	private boolean viewportCulling = false;
 	
-	/* Collection of controllers scheduled for delayed application, wrapped in a DueUpdate objects. */
-	private DueUpdate[] dueUpdates;
+	/* The viewport, used as the cull rectangle when the whole stage is repainted. */
+	private Rectangle viewportRect = new Rectangle();
+	
+	/* The number of nodes that were culled in the last frame in which the stage was redrawn. */
+	private int culledNodes = 0;
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Enables or disables the viewport culling. When enabled, the child-nodes whose composite
+	 * bounds, mapped to the coordinate system of the stage, do not intersect with the window are
+	 * skipped in the draw traversal, together with their descendants. This relies on the nodes not
+	 * drawing outside of their bounds. In the dirty-region redraw mode, the nodes outside the
+	 * repainted regions are always culled.
+	 * 
+	 * @param enabled True when the nodes outside the viewport should not be drawn.
+	 * 
+	 * @default false
+	 */
+	public void setViewportCulling(boolean enabled) {
+		if (viewportCulling == enabled) return;
+		viewportCulling = enabled;
+		redrawAll();
+	}
+	
+	/**
+	 * @return True when the viewport culling is enabled.
+	 */
+	public boolean viewportCullingEnabled() {
+		return viewportCulling;
+	}
+	
+	/**
+	 * Returns the number of nodes that were skipped in the last frame in which the stage was
+	 * redrawn, because they were outside the viewport or outside the repainted regions. The
+	 * descendants of these nodes are not counted.
+	 * 
+	 * @return The number of culled nodes.
+	 */
+	public int getCulledNodes() {
+		return culledNodes;
+	}
+	
+	/**
+	 * System method that registers that a node was culled in the draw traversal. This method should
+	 * only be called from SGNode.
+	 */
+	public void nodeCulled() {
+		culledNodes++;
+	}
+	
+	// *********************************************************************************************
+	// Commands posted from other threads:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The commands posted from other threads. */
+	private final SGPostQueue<Runnable> postedCommands = new SGPostQueue<Runnable>();
+	
+	/* The batch of posted commands that is being applied, reused between frames. */
+	private final List<Runnable> commandBatch = new ArrayList<Runnable>();
+	
+	/**
+	 * The maximum time in milliseconds spent per frame on measuring the labels in the new language,
+	 * before a language switch with setLanguageAsync() is applied.
+	 */
+	public static int LANGUAGE_WARMUP_MILLIS = 4;
+	
+	/* Posts the commands it executes. */
+	private final Executor postExecutor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			post(command);
+		}
+	};
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Posts a command that modifies the scene-graph. The scene-graph is not thread-safe, so threads
+	 * other than the animation thread, e.g. data feeds, should not modify nodes directly, but post
+	 * the modifications with this method. The posted commands are applied on the animation thread,
+	 * in the order in which they were posted, at the start of the next frame, before the scheduled
+	 * controllers and the update traversal. The draw loop is resumed when it was stopped.
+	 * 
+	 * This method can be called from any thread. It does not block.
+	 * 
+	 * @param command The command to apply on the animation thread.
+	 */
+	public void post(Runnable command) {
+		if (command == null) throw new Error("The posted command should not be null.");
+		postedCommands.add(command);
+		loop();
+	}
+	
+	/**
+	 * @return An executor that posts the commands it executes.
+	 * 
+	 * @see SGApp#post(Runnable)
+	 */
+	public Executor getPostExecutor() {
+		return postExecutor;
+	}
+	
+	/**
+	 * Switches the given multi-language strings to the given language, after resolving and
+	 * measuring the new strings over several frames. The new strings are resolved on the update
+	 * pool. The labels that use the strings are then measured in the new language on the animation
+	 * thread, for at most LANGUAGE_WARMUP_MILLIS per frame, such that their layouts are cached.
+	 * Finally the switch is applied as a whole at the start of a frame, such that no frame shows a
+	 * mix of both languages. The labels then find their layouts in the cache when they are measured
+	 * in the update traversal of that frame.
+	 * 
+	 * Known limitation: the frame in which the switch is applied still redraws all the labels that
+	 * changed, with their new glyphs. It costs about as much as a redrawAll() of those labels, so
+	 * it stalls when many labels are visible.
+	 * 
+	 * This method can be called from any thread. It does not block.
+	 * 
+	 * @param strings The multi-language strings.
+	 * @param language The new current language.
+	 * @return A future that completes when the switch was applied.
+	 * 
+	 * @see MLStrings#setCurrentLanguageAsync(Language, Executor, Executor)
+	 */
+	public Future<Language> setLanguageAsync(final MLStrings strings, final Language language) {
+		return strings.setCurrentLanguageAsync(language, getUpdatePool(), new Executor() {
+			@Override
+			public void execute(Runnable applyTask) {
+				post(new LanguageWarmup(strings, language, applyTask));
+			}
+		});
+	}
+	
+	/*
+	 * Measures the labels that use the given strings in the given language, a batch per frame, and
+	 * then applies the language switch.
+	 */
+	private final class LanguageWarmup implements Runnable {
+		
+		private final MLStrings strings;
+		private final Language language;
+		private final Runnable applyTask;
+		
+		/* The labels to measure, collected in the first frame. */
+		private List<SGLabel> labels;
+		
+		/* The index of the next label to measure. */
+		private int next = 0;
+		
+		/* True when a label failed to be measured. */
+		private boolean failed = false;
+		
+		LanguageWarmup(MLStrings strings, Language language, Runnable applyTask) {
+			this.strings = strings;
+			this.language = language;
+			this.applyTask = applyTask;
+		}
+		
+		@Override
+		public void run() {
+			if (applyTask instanceof Future && ((Future<?>) applyTask).isCancelled()) return;
+			if (labels == null) {
+				labels = new ArrayList<SGLabel>();
+				collectLabels(stage, labels);
+			}
+			long deadline = System.nanoTime() + LANGUAGE_WARMUP_MILLIS * 1000000L;
+			while (next < labels.size() && System.nanoTime() < deadline) {
+				SGLabel label = labels.get(next++);
+				try {
+					label.prepareLanguage(strings, language);
+				}
+				catch (Error e) {
+					// The label is measured in the switch frame instead. A missing string is also
+					// reported by the apply task. Only the first failure is logged:
+					if (!failed) logger.log(Level.WARNING, "Failed to measure " + label
+							+ " in the language " + language.code + " before the switch. " + e, e);
+					failed = true;
+				}
+			}
+			if (next < labels.size()) post(this); // continue in the next frame
+			else applyTask.run();
+		}
+		
+		/* Adds the labels in the subtree of the given node to the given list. */
+		private void collectLabels(SGNode node, List<SGLabel> labels) {
+			if (node instanceof SGLabel) labels.add((SGLabel) node);
+			for (SGNode child : node.getChildren())
+				collectLabels(child, labels);
+		}
+		
+	}
+	
+	/*
+	 * Applies the commands that were posted before this call. Commands posted by these commands are
+	 * applied in the next frame. A failing command is logged and does not prevent the application
+	 * of the other commands.
+	 */
+	private void applyPostedCommands() {
+		if (postedCommands.drainTo(commandBatch) == 0) return;
+		for (int i = 0, n = commandBatch.size(); i < n; i++) {
+			try {
+				commandBatch.get(i).run();
+			}
+			catch (RuntimeException e) {
+				logger.log(Level.SEVERE, "A posted command failed. " + e, e);
+			}
+		}
+		commandBatch.clear();
+	}
+	
+	// *********************************************************************************************
+	// Delayed controller application:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The scheduler for delayed controllers, created lazily. */
+	private SGScheduler scheduler;
+	
+	/* The clock time at the start of the current frame. */
+	private long frameTime = 0;
 	
 	// ---------------------------------------------------------------------------------------------
 	
 	/**
 	 * Utility method for registering a node controller that needs to be applied after a certain
-	 * delay.
+	 * delay. The controller is applied at the start of the first frame at or after the deadline.
 	 * 
 	 * TODO: rename to delayController
 	 * 
@@ -342,50 +926,131 @@ public class SGApp extends PApplet {
 	 * @param target The node on which the controller needs to be applied.
 	 * @param controller The controller that needs to be applied on the given node after the given
 	 *            delay.
+	 * @return The handle with which the scheduled controller can be cancelled.
+	 * 
+	 * @see SGApp#cancelScheduledUpdate(long)
 	 */
-	public void scheduleUpdate(int delay, final SGNode target, final INodeController controller) {
-		// println(">> SGApp.scheduleUpdate() - target: " + target.name);
-		final DueUpdate dueUpdate = new DueUpdate(target, controller);
-		TimerTask task = new TimerTask() {
-			@Override
-			public void run() {
-				// println(">> SGApp.scheduleUpdate >> task.run() " + target.name);
-				synchronized (dueUpdatesLock) {
-					if (dueUpdates == null) {
-						dueUpdates = new DueUpdate[] { dueUpdate };
-						stage.invalidateNode();
-						loop();
-					}
-					else {
-						DueUpdate[] na = new DueUpdate[dueUpdates.length + 1];
-						System.arraycopy(dueUpdates, 0, na, 0, dueUpdates.length);
-						na[dueUpdates.length] = dueUpdate;
-						dueUpdates = na;
-					}
-				}
-			}
-		};
-		scheduledUpdateTimer.schedule(task, delay);
+	public long scheduleUpdate(int delay, SGNode target, INodeController controller) {
+		return getScheduler().schedule(delay, 0, target, controller);
+	}
+	
+	/**
+	 * Utility method for registering a node controller that needs to be applied repeatedly, first
+	 * after a certain delay and then each time after the given interval.
+	 * 
+	 * @param delay The delay in milliseconds.
+	 * @param interval The interval in milliseconds.
+	 * @param target The node on which the controller needs to be applied.
+	 * @param controller The controller that needs to be applied on the given node.
+	 * @return The handle with which the scheduled controller can be cancelled.
+	 * 
+	 * @see SGApp#cancelScheduledUpdate(long)
+	 */
+	public long scheduleUpdate(int delay, int interval, SGNode target, INodeController controller) {
+		if (interval <= 0) throw new Error("The interval should be larger than 0.");
+		return getScheduler().schedule(delay, interval, target, controller);
 	}
 	
 	/**
-	 * A system class that wraps a controller scheduled for delayed application and the node on
-	 * which it needs to be applied.
+	 * Cancels a scheduled controller.
+	 * 
+	 * @param handle The handle returned by scheduleUpdate().
+	 * @return False when the controller was already applied or cancelled.
 	 */
-	private class DueUpdate {
-		private SGNode target;
-		private INodeController controller;
-		
-		public DueUpdate(SGNode target, INodeController controller) {
-			this.target = target;
-			this.controller = controller;
-		}
-		
-		public void apply() {
-			controller.apply(target);
+	public boolean cancelScheduledUpdate(long handle) {
+		if (scheduler == null) return false;
+		return scheduler.cancel(handle);
+	}
+	
+	/**
+	 * @return The scheduler for delayed controllers.
+	 */
+	public SGScheduler getScheduler() {
+		synchronized (this) {
+			if (scheduler == null) scheduler = new SGScheduler(this);
+			return scheduler;
 		}
 	}
 	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Returns the current time of the clock that is used for scheduling. The default implementation
+	 * returns a monotonic system time. Override this method to run the app on a different clock.
+	 * 
+	 * @return The current time in milliseconds.
+	 */
+	public long clockMillis() {
+		return System.nanoTime() / 1000000;
+	}
+	
+	/**
+	 * @return The clock time at the start of the current frame.
+	 * 
+	 * @see SGApp#clockMillis()
+	 */
+	public long getFrameTime() {
+		return frameTime;
+	}
+	
+	/**
+	 * System method that resumes the draw loop when it was stopped. This method should only be
+	 * called from SGScheduler.
+	 */
+	public void wakeUp() {
+		loop();
+	}
+	
+	// *********************************************************************************************
+	// Tweens:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The tween engine, created lazily. */
+	private SGTweenEngine tweenEngine;
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Tweens the given property of the given node from its current value to the given value. This
+	 * method should be called from the animation thread.
+	 * 
+	 * @param target The node to animate.
+	 * @param property The property to animate.
+	 * @param to The end value.
+	 * @param duration The duration in milliseconds.
+	 * @param easing The easing function.
+	 * @return The handle with which the tween can be cancelled.
+	 * 
+	 * @see SGTweenEngine#tween(SGNode, Property, float, int, Easing)
+	 */
+	public long tween(SGNode target, Property property, float to, int duration, Easing easing) {
+		return getTweenEngine().tween(target, property, to, duration, easing);
+	}
+	
+	/**
+	 * Cancels a tween.
+	 * 
+	 * @param handle The handle returned by tween().
+	 * @return False when the tween was already completed or cancelled.
+	 */
+	public boolean cancelTween(long handle) {
+		if (tweenEngine == null) return false;
+		return tweenEngine.cancel(handle);
+	}
+	
+	/**
+	 * @return The engine that tweens the nodes of this app.
+	 */
+	public SGTweenEngine getTweenEngine() {
+		if (tweenEngine == null) tweenEngine = new SGTweenEngine(this);
+		return tweenEngine;
+	}
+	
+	/* Returns true when tweens are active, in which case the draw loop should not be stopped. */
+	private boolean tweensActive() {
+		return tweenEngine != null && tweenEngine.size() > 0;
+	}
+	
 	// *********************************************************************************************
 	// Mouse functionality:
 	// ---------------------------------------------------------------------------------------------
@@ -410,6 +1075,42 @@ public class SGApp extends PApplet {
 	 */
 	private PMatrix stageMouseMatrix;
 	
+	/* True when the move and drag events are coalesced per frame. */
+	private boolean mouseMoveCoalescing = false;
+	
+	/* The latest move or drag event that was not yet dispatched, or null. */
+	private MouseEvent pendingMouseMove = null;
+	
+	/* Synchronization lock for the pendingMouseMove property. */
+	private final Object pendingMouseMoveLock = new Object();
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	
+	/**
+	 * Enables or disables the coalescing of mouse move and drag events. When enabled, only the
+	 * latest move or drag event received between two frames is dispatched in the scene-graph, at
+	 * the start of the next frame. This avoids multiple hit-test traversals per frame with
+	 * high-rate mice and touch overlays. Press, release and click events are not coalesced. A
+	 * pending move is dispatched before such an event, such that all events are still dispatched
+	 * in order.
+	 * 
+	 * @param enabled True to coalesce the mouse move and drag events.
+	 * 
+	 * @default false
+	 */
+	public void setMouseMoveCoalescing(boolean enabled) {
+		if (mouseMoveCoalescing == enabled) return;
+		mouseMoveCoalescing = enabled;
+		if (!enabled) dispatchPendingMouseMove();
+	}
+	
+	/**
+	 * @return True when the mouse move and drag events are coalesced per frame.
+	 */
+	public boolean mouseMoveCoalescingEnabled() {
+		return mouseMoveCoalescing;
+	}
+	
 	/**
 	 * @return The mouse position in the stage.
 	 */
@@ -450,6 +1151,17 @@ public class SGApp extends PApplet {
 		
 		if ((x != mouseVector.x) || (y != mouseVector.y)) stageMouseVectorDirty = true;
 		
+		if (action == MouseEvent.MOVE || action == MouseEvent.DRAG) {
+			if (mouseMoveCoalescing) {
+				synchronized (pendingMouseMoveLock) {
+					pendingMouseMove = event;
+				}
+				loop(); // the move is dispatched at the start of the next frame
+				return;
+			}
+		}
+		else dispatchPendingMouseMove(); // keep the events in order
+		
 		switch (action) {
 			case MouseEvent.ENTER:
 				// TODO: dispatch enter event
@@ -494,6 +1206,17 @@ public class SGApp extends PApplet {
 		}
 	}
 	
+	/* Dispatches the coalesced move or drag event, if any. */
+	private void dispatchPendingMouseMove() {
+		MouseEvent event;
+		synchronized (pendingMouseMoveLock) {
+			event = pendingMouseMove;
+			pendingMouseMove = null;
+		}
+		if (event == null || stage == null || !stage.wantsSysMouseEvents()) return;
+		stage.processMouseMoved(event, event.getAction() == MouseEvent.DRAG);
+	}
+	
 	// *********************************************************************************************
 	// Keyboard functionality:
 	// ---------------------------------------------------------------------------------------------
@@ -546,6 +1269,18 @@ public class SGApp extends PApplet {
 		return stage.addNode(child, x, y);
 	}
 	
+	/**
+	 * Adds the given child-nodes in the stage of this app as a single batch.
+	 * 
+	 * @param nodes The nodes to add.
+	 * @throws RuntimeException when one of the given nodes is already in the scene-graph
+	 * 
+	 * @see SGNode#addNodes(Collection)
+	 */
+	public void addNodes(Collection<? extends SGNode> nodes) {
+		stage.addNodes(nodes);
+	}
+	
 	// ---------------------------------------------------------------------------------------------
 	
 	/** Removes the given node from the stage of this app. */
@@ -558,6 +1293,11 @@ public class SGApp extends PApplet {
 		stage.removeNode(index);
 	}
 	
+	/** Removes the given nodes from the stage of this app as a single batch. */
+	public void removeNodes(Collection<? extends SGNode> nodes) {
+		stage.removeNodes(nodes);
+	}
+	
 	/** Removes all child-nodes from this container. */
 	public void removeAllNodes() {
 		stage.removeAllNodes();
@@ -572,6 +1312,160 @@ public class SGApp extends PApplet {
 		return stage;
 	}
 	
+	/* The auto-cache policy, or null when auto-caching is disabled. */
+	private SGAutoCachePolicy autoCachePolicy;
+	
+	/**
+	 * Enables or disables the auto-caching policy. When enabled, the bitmap cache is automatically
+	 * enabled for container nodes with stable and expensive content, and disabled again when their
+	 * content turns out to be volatile. The decisions are logged with the logger of this class.
+	 * 
+	 * @param enabled True when auto-caching should be enabled.
+	 * 
+	 * @default false
+	 * @see SGAutoCachePolicy
+	 */
+	public void setAutoCaching(boolean enabled) {
+		if (enabled == (autoCachePolicy != null)) return;
+		if (enabled) autoCachePolicy = new SGAutoCachePolicy();
+		else {
+			autoCachePolicy.deactivate();
+			autoCachePolicy = null;
+		}
+		redrawSG();
+	}
+	
+	/**
+	 * @return True when the auto-caching policy is enabled.
+	 */
+	public boolean autoCachingEnabled() {
+		return autoCachePolicy != null;
+	}
+	
+	/**
+	 * @return The auto-cache policy, or null when auto-caching is disabled.
+	 */
+	public SGAutoCachePolicy getAutoCachePolicy() {
+		return autoCachePolicy;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	// Frame profiling:
+	
+	/* The frame statistics, or null when frame profiling is disabled. */
+	private SGFrameStats frameStats;
+	
+	/* True when the frame statistics should be shown in an overlay. */
+	private boolean showFrameStats = false;
+	
+	/* The position and size of the frame statistics overlay. */
+	private static final int FRAME_STATS_X = 4, FRAME_STATS_Y = 4;
+	private static final int FRAME_STATS_WIDTH = 220, FRAME_STATS_LINE_HEIGHT = 14;
+	
+	/**
+	 * Enables or disables the frame profiler. When enabled, the time spent in each phase of the
+	 * frames is measured, and the cost of individual nodes is sampled.
+	 * 
+	 * @param enabled True when the frames should be profiled.
+	 * 
+	 * @default false
+	 * @see SGFrameStats
+	 */
+	public void setFrameProfiling(boolean enabled) {
+		if (enabled == (frameStats != null)) return;
+		frameStats = enabled ? new SGFrameStats() : null;
+		if (!enabled && showFrameStats) redrawAll();
+	}
+	
+	/**
+	 * @return True when the frame profiler is enabled.
+	 */
+	public boolean frameProfilingEnabled() {
+		return frameStats != null;
+	}
+	
+	/**
+	 * @return The frame statistics, or null when the frame profiler is disabled.
+	 */
+	public SGFrameStats getFrameStats() {
+		return frameStats;
+	}
+	
+	/**
+	 * @param show True when the frame statistics should be shown in an overlay in the top-left
+	 *            corner of the window. The overlay is refreshed each time the stage is redrawn.
+	 *            The frame profiler needs to be enabled for the overlay to be shown.
+	 */
+	public void showFrameStats(boolean show) {
+		if (showFrameStats == show) return;
+		showFrameStats = show;
+		redrawAll();
+	}
+	
+	/* Draws the frame statistics overlay on top of the stage. */
+	private void drawFrameStatsOverlay(SGFrameStats stats) {
+		SGFrameStats.Phase[] phases = SGFrameStats.Phase.values();
+		int height = (phases.length + 1) * FRAME_STATS_LINE_HEIGHT + 6;
+		g.pushStyle();
+		g.noStroke();
+		g.fill(0, 180);
+		g.rectMode(CORNER);
+		g.rect(FRAME_STATS_X, FRAME_STATS_Y, FRAME_STATS_WIDTH, height);
+		g.fill(255);
+		g.textSize(11);
+		g.textAlign(LEFT, TOP);
+		int x = FRAME_STATS_X + 6, y = FRAME_STATS_Y + 3;
+		g.text("ms", x, y);
+		g.text("p50", x + 80, y);
+		g.text("p95", x + 125, y);
+		g.text("p99", x + 170, y);
+		for (SGFrameStats.Phase phase : phases) {
+			y += FRAME_STATS_LINE_HEIGHT;
+			g.text(phase.name().toLowerCase(), x, y);
+			g.text(nf(stats.getPercentile(phase, 50), 1, 2), x + 80, y);
+			g.text(nf(stats.getPercentile(phase, 95), 1, 2), x + 125, y);
+			g.text(nf(stats.getPercentile(phase, 99), 1, 2), x + 170, y);
+		}
+		g.popStyle();
+		
+		// In the dirty-region redraw mode, the overlay is erased in the next repaint:
+		dirtyRegionOutlines.add(new Rectangle(FRAME_STATS_X, FRAME_STATS_Y, FRAME_STATS_WIDTH,
+				height));
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The pool of offscreen surfaces used for the bitmap caches. */
+	private SGSurfacePool surfacePool;
+	
+	/**
+	 * @return The pool of offscreen surfaces that is used for the bitmap caches of the nodes in
+	 *         this app. Use it to configure the byte budget and to inspect the statistics.
+	 */
+	public SGSurfacePool getSurfacePool() {
+		if (surfacePool == null) surfacePool = new SGSurfacePool(this, SGSurfacePool.DEFAULT_BUDGET);
+		return surfacePool;
+	}
+	
+	/* The atlas in which the labels in sprite mode are pre-rendered. */
+	private SGLabelAtlas labelAtlas;
+	
+	/**
+	 * @return The atlas in which the labels in sprite mode are pre-rendered. Use it to configure
+	 *         the maximum number of pages and to inspect the statistics.
+	 */
+	public SGLabelAtlas getLabelAtlas() {
+		if (labelAtlas == null) labelAtlas = new SGLabelAtlas(this, SGLabelAtlas.DEFAULT_MAX_PAGES);
+		return labelAtlas;
+	}
+	
+	/**
+	 * @return The cache of images, fonts and shapes that is shared by all applications.
+	 */
+	public SGAssets getAssets() {
+		return SGAssets.getShared();
+	}
+	
 	/**
 	 * @return True when the update traversal is active.
 	 */
@@ -596,7 +1490,7 @@ public class SGApp extends PApplet {
 	/* @see java.awt.Component#setBackground(java.awt.Color) */
 	public void setBackground(Color color) {
 		backgroundColor = color;
-		stage.redraw(); // "SGApp.setBackground()");
+		redrawAll();
 	}
 	
 	// *********************************************************************************************
@@ -0,0 +1,412 @@
+package be.multec.sg;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import processing.core.PApplet;
+import processing.core.PFont;
+import processing.core.PImage;
+import processing.core.PShape;
+
+/**
+ * A cache of images, fonts and shapes that is shared by all scene-graph applications in the JVM,
+ * e.g. by several windows that show the same content on different displays. The assets are keyed
+ * by their type, path and parameters.
+ * 
+ * Each asset is loaded only once, also when several threads ask for it at the same time: the first
+ * thread loads it while the others wait for the result. The cached assets are evicted in
+ * least-recently-used order when their estimated total size exceeds the byte budget. Evicted
+ * assets remain valid for the nodes that use them, they are only loaded again when they are asked
+ * for later on.
+ * 
+ * Note that the assets are shared, so they should not be modified. The paths are resolved by the
+ * application that loads the asset first, so use absolute paths or paths in the data folder of
+ * sketches that share the same sketch path.
+ * 
+ * This class is thread-safe.
+ * 
+ * @see SGApp#getAssets()
+ * @author Wouter Van den Broeck
+ */
+public class SGAssets {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/** The default maximum number of bytes held by the cached assets. */
+	public static long DEFAULT_BUDGET = 256L * 1024 * 1024;
+	
+	/* The estimated number of bytes per shape element, since the shapes are not rasterized. */
+	private static final int BYTES_PER_SHAPE_ELEMENT = 512;
+	
+	/* The shared instance. */
+	private static final SGAssets shared = new SGAssets(DEFAULT_BUDGET);
+	
+	/* The maximum number of bytes held by the cached assets. */
+	private long budget;
+	
+	/* The entries, ordered from least to most recently used. Guarded by the instance lock. */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16,
+			.75f, true);
+	
+	/* A cached asset, or an asset that is being loaded. */
+	private static final class Entry {
+		
+		final FutureTask<Object> task;
+		
+		/* The estimated size, or -1 while the asset is being loaded. */
+		long bytes = -1;
+		
+		Entry(Callable<Object> loader) {
+			task = new FutureTask<Object>(loader);
+		}
+		
+	}
+	
+	/* The identifiers of the applications, used in the keys of the created fonts. */
+	private final WeakHashMap<PApplet, Integer> appIds = new WeakHashMap<PApplet, Integer>();
+	private int appCount = 0;
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Statistics:
+	
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long bytesHeld = 0;
+	private long loadNanos = 0;
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Use this constructor for a private cache. Use getShared() to obtain the cache that is shared
+	 * by all applications.
+	 * 
+	 * @param budget The maximum number of bytes held by the cached assets.
+	 */
+	public SGAssets(long budget) {
+		this.budget = budget;
+	}
+	
+	/**
+	 * @return The cache that is shared by all applications in the JVM.
+	 */
+	public static SGAssets getShared() {
+		return shared;
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Returns the image with the given path, loading it when it is not cached.
+	 * 
+	 * @param app The application that loads the image when needed.
+	 * @param path The path of the image.
+	 * @return The image.
+	 * 
+	 * @throws Error when the image could not be loaded.
+	 */
+	public PImage getImage(final PApplet app, final String path) {
+		return (PImage) get("image:" + path, new Callable<Object>() {
+			@Override
+			public Object call() {
+				return checkLoaded(app.loadImage(path), path);
+			}
+		});
+	}
+	
+	/**
+	 * Returns the font with the given path (a .vlw file), loading it when it is not cached.
+	 * 
+	 * @param app The application that loads the font when needed.
+	 * @param path The path of the font.
+	 * @return The font.
+	 * 
+	 * @throws Error when the font could not be loaded.
+	 */
+	public PFont getFont(final PApplet app, final String path) {
+		return (PFont) get("font:" + path, new Callable<Object>() {
+			@Override
+			public Object call() {
+				return checkLoaded(app.loadFont(path), path);
+			}
+		});
+	}
+	
+	/**
+	 * Returns the font with the given name and size, creating it when it is not cached. The glyphs
+	 * of such fonts are created when they are first used, which is not thread-safe. These fonts
+	 * are therefore not shared between applications, but each application gets its own instance.
+	 * 
+	 * @param app The application that creates the font when needed.
+	 * @param name The name of an installed font or the path of a .ttf or .otf file.
+	 * @param size The font size.
+	 * @return The font.
+	 * 
+	 * @throws Error when the font could not be created.
+	 * 
+	 * @see PApplet#createFont(String, float)
+	 */
+	public PFont getFont(final PApplet app, final String name, final float size) {
+		String key = "font:" + name + "@" + size + "#" + getAppId(app);
+		return (PFont) get(key, new Callable<Object>() {
+			@Override
+			public Object call() {
+				return checkLoaded(app.createFont(name, size), name);
+			}
+		});
+	}
+	
+	/**
+	 * Returns the shape with the given path (e.g. an SVG-file), loading it when it is not cached.
+	 * 
+	 * @param app The application that loads the shape when needed.
+	 * @param path The path of the shape.
+	 * @return The shape.
+	 * 
+	 * @throws Error when the shape could not be loaded.
+	 */
+	public PShape getShape(final PApplet app, final String path) {
+		return (PShape) get("shape:" + path, new Callable<Object>() {
+			@Override
+			public Object call() {
+				return checkLoaded(app.loadShape(path), path);
+			}
+		});
+	}
+	
+	/**
+	 * Returns the shape with the given path with its styles disabled, such that it is drawn with
+	 * the styles of the canvas, loading it when it is not cached. This is a separate instance from
+	 * the one returned by getShape(), since the styles of a shared shape should not be toggled.
+	 * 
+	 * @param app The application that loads the shape when needed.
+	 * @param path The path of the shape.
+	 * @return The shape.
+	 * 
+	 * @throws Error when the shape could not be loaded.
+	 */
+	public PShape getUnstyledShape(final PApplet app, final String path) {
+		return (PShape) get("unstyledShape:" + path, new Callable<Object>() {
+			@Override
+			public Object call() {
+				PShape shape = (PShape) checkLoaded(app.loadShape(path), path);
+				shape.disableStyle();
+				return shape;
+			}
+		});
+	}
+	
+	/**
+	 * Removes the asset with the given key from the cache, e.g. when the file changed.
+	 * 
+	 * @param key The key, which is the type ('image', 'font', 'shape' or 'unstyledShape') and the
+	 *            path, separated by a colon, e.g. 'image:logo.png'.
+	 */
+	public synchronized void remove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry != null && entry.bytes > 0) bytesHeld -= entry.bytes;
+	}
+	
+	/** Removes all assets from the cache. */
+	public synchronized void clear() {
+		// the entries that are being loaded are discarded when they complete:
+		entries.clear();
+		bytesHeld = 0;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return The maximum number of bytes held by the cached assets.
+	 */
+	public synchronized long getBudget() {
+		return budget;
+	}
+	
+	/**
+	 * @param budget The maximum number of bytes held by the cached assets.
+	 * 
+	 * @default DEFAULT_BUDGET
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return The number of requests for assets that were cached or being loaded.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return The number of requests for assets that had to be loaded.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return The number of assets that were evicted from the cache.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+	
+	/**
+	 * @return The (estimated) number of bytes held by the cached assets.
+	 */
+	public synchronized long getBytesHeld() {
+		return bytesHeld;
+	}
+	
+	/**
+	 * @return The total time spent loading assets, in milliseconds.
+	 */
+	public synchronized long getLoadMillis() {
+		return loadNanos / 1000000;
+	}
+	
+	/**
+	 * @return The number of cached assets, including the assets that are being loaded.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/** Resets the hits, misses and evictions counters and the load time. */
+	public synchronized void resetStats() {
+		hits = misses = evictions = loadNanos = 0;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return "SGAssets[hits: " + hits + ", misses: " + misses + ", evictions: " + evictions
+				+ ", assets: " + entries.size() + " (" + (bytesHeld >> 10) + " KB), loading: "
+				+ getLoadMillis() + " ms]";
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/*
+	 * Returns the asset with the given key. When the asset is not cached, it is loaded on the
+	 * calling thread with the given loader, while other threads that ask for it wait.
+	 */
+	private Object get(String key, Callable<Object> loader) {
+		Entry entry;
+		boolean load = false;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry(loader);
+				entries.put(key, entry);
+				load = true;
+				misses++;
+			}
+			else hits++;
+		}
+		
+		long start = load ? System.nanoTime() : 0;
+		if (load) entry.task.run(); // outside the lock, such that other assets can be loaded
+		Object asset;
+		try {
+			asset = entry.task.get();
+		}
+		catch (ExecutionException e) {
+			synchronized (this) {
+				if (entries.get(key) == entry) entries.remove(key); // retry on the next request
+			}
+			throw new Error("Failed to load the asset '" + key + "'. " + e.getCause(), e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Error("Interrupted while waiting for the asset '" + key + "'.", e);
+		}
+		
+		if (load) {
+			synchronized (this) {
+				loadNanos += System.nanoTime() - start;
+				// the entry might have been removed while it was loaded:
+				if (entries.get(key) == entry) {
+					entry.bytes = estimateBytes(asset);
+					bytesHeld += entry.bytes;
+					evict();
+				}
+			}
+		}
+		return asset;
+	}
+	
+	/* Returns the identifier of the given application. */
+	private synchronized int getAppId(PApplet app) {
+		Integer id = appIds.get(app);
+		if (id == null) {
+			id = ++appCount;
+			appIds.put(app, id);
+		}
+		return id;
+	}
+	
+	/* Evicts the least recently used assets until the budget is respected. */
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (bytesHeld > budget && iterator.hasNext()) {
+			Entry entry = iterator.next().getValue();
+			if (entry.bytes < 0) continue; // still being loaded
+			iterator.remove();
+			bytesHeld -= entry.bytes;
+			evictions++;
+		}
+	}
+	
+	/* Throws an error when the given asset is null, which is how Processing reports failures. */
+	private static Object checkLoaded(Object asset, String path) {
+		if (asset == null) throw new Error("The asset '" + path + "' could not be loaded.");
+		return asset;
+	}
+	
+	/* Returns the estimated number of bytes held by the given asset. */
+	private static long estimateBytes(Object asset) {
+		if (asset instanceof PImage) {
+			PImage image = (PImage) asset;
+			return (long) image.width * image.height * 4;
+		}
+		if (asset instanceof PFont) {
+			PFont font = (PFont) asset;
+			long bytes = 0;
+			for (int i = 0, n = font.getGlyphCount(); i < n; i++) {
+				PFont.Glyph glyph = font.getGlyph(i);
+				if (glyph != null) bytes += (long) glyph.width * glyph.height * 4;
+			}
+			return Math.max(bytes, (long) font.getSize() * font.getSize() * 4);
+		}
+		if (asset instanceof PShape) return countElements((PShape) asset) * BYTES_PER_SHAPE_ELEMENT;
+		return 0;
+	}
+	
+	/* Returns the number of elements in the given shape tree. */
+	private static long countElements(PShape shape) {
+		long count = 1;
+		for (int i = 0, n = shape.getChildCount(); i < n; i++)
+			count += countElements(shape.getChild(i));
+		return count;
+	}
+	
+}
@@ -0,0 +1,367 @@
+package be.multec.sg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.logging.Level;
+
+import be.multec.sg.nodes.SGNode;
+import be.multec.sg.utils.SGRollingHistogram;
+
+/**
+ * Frame profiler for an SGApp. The time spent in each phase of the frames is measured with
+ * nanosecond timers and kept in rolling histograms, from which the median and tail percentiles
+ * can be read. In addition, the cost of the draw() method and of the controller of individual
+ * nodes is sampled every NODE_SAMPLE_INTERVAL frames.
+ * 
+ * When the application runs on a JVM with Flight Recorder support (Java 11 or later), each
+ * profiled frame is also emitted as a JFR event (named be.multec.sg.Frame), such that the frames
+ * can be analyzed offline in a JFR recording. The event class is in the src_jfr source folder,
+ * the only part of the library that needs a JDK 11 or later to compile. It is a source folder of
+ * the project next to src, so the project is built with a JDK 11 or later. When the library is
+ * compiled without that folder, e.g. for an older JVM, no events are emitted and a warning is
+ * logged once.
+ * 
+ * @see SGApp#setFrameProfiling(boolean)
+ * @author Wouter Van den Broeck
+ */
+public class SGFrameStats {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/** The phases of a frame. */
+	public enum Phase {
+		/**
+		 * The application of the commands posted from other threads, the dispatch of the coalesced
+		 * mouse move and the application of the scheduled controllers that are due.
+		 */
+		SCHEDULED,
+		/** The update traversal. */
+		UPDATE,
+		/** The draw traversal. */
+		DRAW,
+		/** The application of the update requests that were enqueued during the frame. */
+		ENQUEUED,
+		/** The complete frame. */
+		FRAME
+	}
+	
+	/** The number of most recent frames kept in the histograms. */
+	public static int WINDOW = 240;
+	
+	/** The per-node costs are sampled once every this many frames. */
+	public static int NODE_SAMPLE_INTERVAL = 30;
+	
+	/** False when no JFR events should be emitted. */
+	public static boolean EMIT_JFR_EVENTS = true;
+	
+	/* The histograms, per phase. */
+	private final SGRollingHistogram[] histograms;
+	
+	/* The number of profiled frames. */
+	private long frameCount = 0;
+	
+	/* True when the per-node costs are sampled in the current frame. */
+	private volatile boolean samplingNodes = false;
+	
+	/* The number of frames since the per-node costs were last sampled. */
+	private int framesSinceSample = 0;
+	
+	/* The costs of the nodes sampled in the current window. */
+	private IdentityHashMap<SGNode, NodeCost> nodeCosts = new IdentityHashMap<SGNode, NodeCost>();
+	
+	/* The costs of the nodes sampled in the previous window, sorted from high to low. */
+	private List<NodeCost> lastNodeCosts = Collections.emptyList();
+	
+	/* Emits the JFR events, or null when they cannot be emitted. */
+	private static FrameEventEmitter jfrEmitter = null;
+	
+	/* True when the JFR emitter was looked up. */
+	private static boolean jfrEmitterLoaded = false;
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * The sampled costs of a node, accumulated over a window.
+	 */
+	public static class NodeCost {
+		
+		private final SGNode node;
+		private long drawNanos = 0;
+		private int drawSamples = 0;
+		private long updateNanos = 0;
+		private int updateSamples = 0;
+		
+		NodeCost(SGNode node) {
+			this.node = node;
+		}
+		
+		/**
+		 * @return The node.
+		 */
+		public SGNode getNode() {
+			return node;
+		}
+		
+		/**
+		 * @return The mean time in milliseconds spent in the draw() method of the node, or in
+		 *         replaying its recorded draw commands.
+		 */
+		public float getDrawMillis() {
+			return drawSamples == 0 ? 0 : drawNanos / 1e6f / drawSamples;
+		}
+		
+		/**
+		 * @return The mean time in milliseconds spent in the controller of the node.
+		 */
+		public float getUpdateMillis() {
+			return updateSamples == 0 ? 0 : updateNanos / 1e6f / updateSamples;
+		}
+		
+		/**
+		 * @return The number of samples.
+		 */
+		public int getSamples() {
+			return Math.max(drawSamples, updateSamples);
+		}
+		
+		/* @return The total sampled time in nanoseconds. */
+		long getTotalNanos() {
+			return drawNanos + updateNanos;
+		}
+		
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return node + " - draw: " + getDrawMillis() + " ms, update: " + getUpdateMillis()
+					+ " ms (" + getSamples() + " samples)";
+		}
+		
+	}
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	public SGFrameStats() {
+		Phase[] phases = Phase.values();
+		histograms = new SGRollingHistogram[phases.length];
+		for (int i = 0; i < phases.length; i++)
+			histograms[i] = new SGRollingHistogram(WINDOW);
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param phase A phase.
+	 * @return The histogram with the durations of the given phase in the recent frames, in
+	 *         nanoseconds.
+	 */
+	public SGRollingHistogram getHistogram(Phase phase) {
+		return histograms[phase.ordinal()];
+	}
+	
+	/**
+	 * @param phase A phase.
+	 * @param percentile The percentile, between 0 and 100.
+	 * @return The given percentile of the duration of the given phase in the recent frames, in
+	 *         milliseconds.
+	 */
+	public float getPercentile(Phase phase, float percentile) {
+		return histograms[phase.ordinal()].getPercentile(percentile) / 1e6f;
+	}
+	
+	/**
+	 * @return The number of profiled frames.
+	 */
+	public synchronized long getFrameCount() {
+		return frameCount;
+	}
+	
+	/**
+	 * Returns the sampled costs of the nodes in the last completed window of WINDOW frames, sorted
+	 * from high to low. The draw cost is the time spent in the draw() method of a node, excluding
+	 * its children. The update cost is the time spent in the controller of a node.
+	 * 
+	 * @return The node costs.
+	 */
+	public synchronized List<NodeCost> getNodeCosts() {
+		return lastNodeCosts;
+	}
+	
+	/** Removes all samples. */
+	public synchronized void reset() {
+		for (SGRollingHistogram histogram : histograms)
+			histogram.clear();
+		frameCount = 0;
+		framesSinceSample = 0;
+		nodeCosts.clear();
+		lastNodeCosts = Collections.emptyList();
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("SGFrameStats[");
+		for (Phase phase : Phase.values()) {
+			if (phase.ordinal() > 0) sb.append(", ");
+			sb.append(phase.name().toLowerCase() + ": " + getPercentile(phase, 50) + "/"
+					+ getPercentile(phase, 95) + "/" + getPercentile(phase, 99));
+		}
+		return sb.append(" ms (p50/p95/p99)]").toString();
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	// System methods:
+	
+	/**
+	 * System method that registers the durations of the phases of a frame. This method should only
+	 * be called from SGApp.
+	 * 
+	 * @param scheduled The time spent applying the posted commands and the due scheduled
+	 *        controllers, in nanoseconds.
+	 * @param update The time spent in the update traversal, in nanoseconds.
+	 * @param draw The time spent in the draw traversal, in nanoseconds.
+	 * @param enqueued The time spent applying the enqueued update requests, in nanoseconds.
+	 * @param repaintedPixels The number of repainted pixels.
+	 */
+	public void frameDone(long scheduled, long update, long draw, long enqueued,
+			long repaintedPixels) {
+		long frame = scheduled + update + draw + enqueued;
+		histograms[Phase.SCHEDULED.ordinal()].add(scheduled);
+		histograms[Phase.UPDATE.ordinal()].add(update);
+		histograms[Phase.DRAW.ordinal()].add(draw);
+		histograms[Phase.ENQUEUED.ordinal()].add(enqueued);
+		histograms[Phase.FRAME.ordinal()].add(frame);
+		
+		synchronized (this) {
+			frameCount++;
+			if (frameCount % WINDOW == 0) closeWindow();
+			samplingNodes = ++framesSinceSample >= NODE_SAMPLE_INTERVAL;
+			if (samplingNodes) framesSinceSample = 0;
+		}
+		
+		if (EMIT_JFR_EVENTS) {
+			FrameEventEmitter emitter = getJfrEmitter();
+			if (emitter != null) emitter.emit(frameCount, scheduled, update, draw, enqueued,
+					repaintedPixels);
+		}
+	}
+	
+	/**
+	 * System method that tells if the per-node costs are sampled in the current frame. This method
+	 * should only be called from SGNode.
+	 * 
+	 * @return True when the per-node costs should be sampled.
+	 */
+	public boolean isSamplingNodes() {
+		return samplingNodes;
+	}
+	
+	/**
+	 * System method that adds a sample of the time spent drawing the given node. This method
+	 * should only be called from SGNode.
+	 * 
+	 * @param node The node.
+	 * @param nanos The time spent in nanoseconds.
+	 */
+	public synchronized void addDrawSample(SGNode node, long nanos) {
+		NodeCost cost = getNodeCost(node);
+		cost.drawNanos += nanos;
+		cost.drawSamples++;
+	}
+	
+	/**
+	 * System method that adds a sample of the time spent in the controller of the given node. This
+	 * method should only be called from SGNode. It can be called from the update worker threads.
+	 * 
+	 * @param node The node.
+	 * @param nanos The time spent in nanoseconds.
+	 */
+	public synchronized void addUpdateSample(SGNode node, long nanos) {
+		NodeCost cost = getNodeCost(node);
+		cost.updateNanos += nanos;
+		cost.updateSamples++;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* @return The cost record for the given node in the current window. */
+	private NodeCost getNodeCost(SGNode node) {
+		NodeCost cost = nodeCosts.get(node);
+		if (cost == null) {
+			cost = new NodeCost(node);
+			nodeCosts.put(node, cost);
+		}
+		return cost;
+	}
+	
+	/* Publishes the node costs of the current window and starts a new window. */
+	private void closeWindow() {
+		List<NodeCost> costs = new ArrayList<NodeCost>(nodeCosts.values());
+		Collections.sort(costs, new Comparator<NodeCost>() {
+			@Override
+			public int compare(NodeCost c1, NodeCost c2) {
+				long t1 = c1.getTotalNanos(), t2 = c2.getTotalNanos();
+				return t1 > t2 ? -1 : (t1 < t2 ? 1 : 0);
+			}
+		});
+		lastNodeCosts = Collections.unmodifiableList(costs);
+		nodeCosts = new IdentityHashMap<SGNode, NodeCost>();
+	}
+	
+	/*
+	 * @return The emitter of the JFR events, or null when the JVM does not provide the jdk.jfr API
+	 * or the event class (from the src_jfr source folder) is not on the classpath. The reason is
+	 * logged when the emitter is looked up.
+	 */
+	private static synchronized FrameEventEmitter getJfrEmitter() {
+		if (!jfrEmitterLoaded) {
+			jfrEmitterLoaded = true;
+			try {
+				Class.forName("jdk.jfr.Event");
+			}
+			catch (ClassNotFoundException e) {
+				SGApp.logger.log(Level.WARNING, "No frame events are emitted, the JVM does not "
+						+ "provide the jdk.jfr API.");
+				return null;
+			}
+			try {
+				jfrEmitter = (FrameEventEmitter) Class.forName("be.multec.sg.SGFrameEvent$Emitter")
+						.getDeclaredConstructor().newInstance();
+			}
+			catch (Throwable e) {
+				SGApp.logger.log(Level.WARNING, "No frame events are emitted, the event class "
+						+ "could not be loaded. Is the src_jfr source folder compiled? " + e);
+			}
+		}
+		return jfrEmitter;
+	}
+	
+	// *********************************************************************************************
+	// Classes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * System interface through which the frames are emitted as JFR events. It is implemented in
+	 * the src_jfr source folder, which requires a JDK 11 or later.
+	 */
+	interface FrameEventEmitter {
+		
+		/* Emits an event with the given values, when the event is enabled in a recording. */
+		void emit(long frame, long scheduled, long update, long draw, long enqueued,
+				long repaintedPixels);
+		
+	}
+	
+}
@@ -0,0 +1,436 @@
+package be.multec.sg;
+
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PGraphicsJava2D;
+
+/**
+ * A texture atlas in which labels are pre-rendered as sprites, for the JAVA2D renderer. The
+ * sprites are packed in a bounded number of square pages, on shelves: horizontal strips with a
+ * fixed height in which the sprites are placed next to each other. A sprite is placed on the
+ * lowest shelf it fits on, or on a new shelf when none fits. The space of released sprites is
+ * reused by later sprites on the same shelf, and a shelf is emptied completely when its last
+ * sprite is released. When all pages are full, no region is allocated and the label is drawn
+ * directly.
+ * 
+ * This class should only be used on the animation thread.
+ * 
+ * @see SGApp#getLabelAtlas()
+ * @author Wouter Van den Broeck
+ */
+public class SGLabelAtlas {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/** The width and height of the pages. */
+	public static int PAGE_SIZE = 1024;
+	
+	/** The default maximum number of pages. */
+	public static int DEFAULT_MAX_PAGES = 4;
+	
+	/* The shelf heights are rounded up to a multiple of this value. */
+	private static final int SHELF_ROUNDING = 4;
+	
+	/* The app for which the pages are created. */
+	private final SGApp app;
+	
+	/* The maximum number of pages. */
+	private int maxPages;
+	
+	/* The pages, created when needed. */
+	private final ArrayList<Page> pages = new ArrayList<Page>();
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Statistics:
+	
+	private int regions = 0;
+	private long usedArea = 0;
+	private long allocations = 0;
+	private long failures = 0;
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param app The app for which the pages are created.
+	 * @param maxPages The maximum number of pages.
+	 */
+	public SGLabelAtlas(SGApp app, int maxPages) {
+		this.app = app;
+		this.maxPages = maxPages;
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Allocates a region of the given size. Release the region when it is no longer used.
+	 * 
+	 * @param width The width of the region.
+	 * @param height The height of the region.
+	 * @return The region, or null when there is no room left in the atlas.
+	 */
+	public Region allocate(int width, int height) {
+		if (width <= 0 || height <= 0 || width > PAGE_SIZE || height > PAGE_SIZE) {
+			failures++;
+			return null;
+		}
+		int shelfHeight = Math.min((height + SHELF_ROUNDING - 1) / SHELF_ROUNDING * SHELF_ROUNDING,
+				PAGE_SIZE);
+		
+		// Look for the lowest existing shelf with room for the region, that does not waste more
+		// than a third of its height:
+		Shelf best = null;
+		for (Page page : pages) {
+			for (Shelf shelf : page.shelves) {
+				if (shelf.height < shelfHeight || shelf.height * 2 > shelfHeight * 3) continue;
+				if (best != null && shelf.height >= best.height) continue;
+				if (shelf.hasRoom(width)) best = shelf;
+			}
+		}
+		
+		// Open a new shelf otherwise:
+		if (best == null) {
+			for (Page page : pages) {
+				if (PAGE_SIZE - page.top >= shelfHeight) {
+					best = page.addShelf(shelfHeight);
+					break;
+				}
+			}
+		}
+		if (best == null && pages.size() < maxPages) {
+			Page page = new Page(app.createGraphics(PAGE_SIZE, PAGE_SIZE, PConstants.JAVA2D));
+			pages.add(page);
+			best = page.addShelf(shelfHeight);
+		}
+		if (best == null) {
+			failures++;
+			return null;
+		}
+		
+		Region region = new Region(best, best.take(width), best.y, width, height);
+		regions++;
+		usedArea += (long) width * height;
+		allocations++;
+		return region;
+	}
+	
+	/**
+	 * Returns the given region to the atlas. Do not use the region after it was released.
+	 * 
+	 * @param region A region obtained with allocate().
+	 */
+	public void release(Region region) {
+		if (region.released) throw new Error("The region was already released.");
+		region.released = true;
+		regions--;
+		usedArea -= (long) region.width * region.height;
+		region.shelf.give(region.x, region.width);
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Starts drawing in the given region. The region is cleared and the origin of the returned
+	 * canvas is moved to the top-left corner of the region, outside of which nothing is drawn.
+	 * Call endDraw() when done.
+	 * 
+	 * @param region The region.
+	 * @return The canvas on which to draw.
+	 */
+	public PGraphics beginDraw(Region region) {
+		PGraphics surface = region.shelf.page.surface;
+		surface.beginDraw();
+		
+		// Clear the region, which the PGraphics API only supports for the whole surface:
+		Graphics2D g2 = ((PGraphicsJava2D) surface).g2;
+		Composite composite = g2.getComposite();
+		g2.setComposite(AlphaComposite.Clear);
+		g2.fillRect(region.x, region.y, region.width, region.height);
+		g2.setComposite(composite);
+		
+		surface.imageMode(PConstants.CORNER); // the clip rectangle depends on the image mode
+		surface.clip(region.x, region.y, region.width, region.height);
+		surface.pushMatrix();
+		surface.translate(region.x, region.y);
+		return surface;
+	}
+	
+	/**
+	 * Ends drawing in the given region.
+	 * 
+	 * @param region The region passed to beginDraw().
+	 */
+	public void endDraw(Region region) {
+		PGraphics surface = region.shelf.page.surface;
+		surface.popMatrix();
+		surface.noClip();
+		surface.endDraw();
+	}
+	
+	/**
+	 * Copies the content of the given region onto the given canvas, in the current transformation
+	 * of the canvas. An opaque region is copied without blending when the transformation is a
+	 * translation over whole pixels, which is several times faster than blending it.
+	 * 
+	 * @param g The canvas, which should be a JAVA2D canvas.
+	 * @param region The region.
+	 * @param x The x-coordinate at which the region is drawn.
+	 * @param y The y-coordinate at which the region is drawn.
+	 * @param opaque True when all the pixels in the region are opaque.
+	 */
+	public void draw(PGraphics g, Region region, int x, int y, boolean opaque) {
+		Graphics2D g2 = ((PGraphicsJava2D) g).g2;
+		Composite composite = null;
+		if (opaque) {
+			AffineTransform t = g2.getTransform();
+			if ((t.getType() & ~AffineTransform.TYPE_TRANSLATION) == 0
+					&& t.getTranslateX() == Math.rint(t.getTranslateX())
+					&& t.getTranslateY() == Math.rint(t.getTranslateY())) {
+				composite = g2.getComposite();
+				g2.setComposite(AlphaComposite.Src);
+			}
+		}
+		// The page image is drawn directly, because PGraphics.copy() would first copy the whole page
+		// into a new image through getNative():
+		g2.drawImage(region.shelf.page.surface.image, x, y, x + region.width, y + region.height,
+				region.x, region.y, region.x + region.width, region.y + region.height, null);
+		if (composite != null) g2.setComposite(composite);
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return The maximum number of pages.
+	 */
+	public int getMaxPages() {
+		return maxPages;
+	}
+	
+	/**
+	 * Sets the maximum number of pages. Existing pages are kept when the new maximum is lower.
+	 * 
+	 * @param maxPages The maximum number of pages.
+	 * 
+	 * @default DEFAULT_MAX_PAGES
+	 */
+	public void setMaxPages(int maxPages) {
+		this.maxPages = maxPages;
+	}
+	
+	/**
+	 * @return The number of pages.
+	 */
+	public int getPageCount() {
+		return pages.size();
+	}
+	
+	/**
+	 * @return The number of allocated regions.
+	 */
+	public int getRegionCount() {
+		return regions;
+	}
+	
+	/**
+	 * @return The fraction of the area of the pages that is covered by allocated regions.
+	 */
+	public float getOccupancy() {
+		return pages.isEmpty() ? 0 : (float) usedArea / pages.size() / PAGE_SIZE / PAGE_SIZE;
+	}
+	
+	/**
+	 * @return The number of allocations that succeeded.
+	 */
+	public long getAllocations() {
+		return allocations;
+	}
+	
+	/**
+	 * @return The number of allocations that failed because the atlas was full or the region was
+	 *         larger than a page.
+	 */
+	public long getFailures() {
+		return failures;
+	}
+	
+	/**
+	 * Releases the pages. The regions can no longer be used.
+	 */
+	public void dispose() {
+		for (Page page : pages)
+			page.surface.dispose();
+		pages.clear();
+		regions = 0;
+		usedArea = 0;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SGLabelAtlas[pages: " + pages.size() + "/" + maxPages + ", regions: " + regions
+				+ ", occupancy: " + Math.round(getOccupancy() * 100) + "%, failures: " + failures
+				+ "]";
+	}
+	
+	// *********************************************************************************************
+	// Classes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * A rectangular region in a page of the atlas.
+	 */
+	public static final class Region {
+		
+		/* The shelf on which this region was allocated. */
+		private final Shelf shelf;
+		
+		/* The bounds of this region in its page. */
+		private final int x, y, width, height;
+		
+		/* True when this region was released. */
+		private boolean released = false;
+		
+		private Region(Shelf shelf, int x, int y, int width, int height) {
+			this.shelf = shelf;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+		
+		/**
+		 * @return The width of this region.
+		 */
+		public int getWidth() {
+			return width;
+		}
+		
+		/**
+		 * @return The height of this region.
+		 */
+		public int getHeight() {
+			return height;
+		}
+		
+	}
+	
+	/* A page of the atlas. */
+	private static final class Page {
+		
+		final PGraphics surface;
+		
+		/* The shelves, from top to bottom. */
+		final ArrayList<Shelf> shelves = new ArrayList<Shelf>();
+		
+		/* The y-coordinate below the lowest shelf. */
+		int top = 0;
+		
+		Page(PGraphics surface) {
+			this.surface = surface;
+		}
+		
+		Shelf addShelf(int height) {
+			Shelf shelf = new Shelf(this, top, height);
+			shelves.add(shelf);
+			top += height;
+			return shelf;
+		}
+		
+		/* Removes the empty shelves at the bottom, such that their height can be reused. */
+		void trimShelves() {
+			while (!shelves.isEmpty() && shelves.get(shelves.size() - 1).used == 0) {
+				Shelf shelf = shelves.remove(shelves.size() - 1);
+				top = shelf.y;
+			}
+		}
+		
+	}
+	
+	/* A horizontal strip of a page in which regions are placed next to each other. */
+	private static final class Shelf {
+		
+		final Page page;
+		final int y, height;
+		
+		/* The x-coordinate after the rightmost region. */
+		int end = 0;
+		
+		/* The number of regions on this shelf. */
+		int used = 0;
+		
+		/* The released spans left of the end, as pairs of the x-coordinate and the width. */
+		final ArrayList<int[]> spans = new ArrayList<int[]>();
+		
+		Shelf(Page page, int y, int height) {
+			this.page = page;
+			this.y = y;
+			this.height = height;
+		}
+		
+		boolean hasRoom(int width) {
+			if (PAGE_SIZE - end >= width) return true;
+			for (int[] span : spans) {
+				if (span[1] >= width) return true;
+			}
+			return false;
+		}
+		
+		/* Takes a span of the given width, which should fit, and returns its x-coordinate. */
+		int take(int width) {
+			used++;
+			for (int i = 0; i < spans.size(); i++) {
+				int[] span = spans.get(i);
+				if (span[1] < width) continue;
+				int x = span[0];
+				span[0] += width;
+				span[1] -= width;
+				if (span[1] == 0) spans.remove(i);
+				return x;
+			}
+			int x = end;
+			end += width;
+			return x;
+		}
+		
+		/* Gives back the span with the given x-coordinate and width. */
+		void give(int x, int width) {
+			used--;
+			if (used == 0) {
+				end = 0;
+				spans.clear();
+				page.trimShelves();
+				return;
+			}
+			spans.add(new int[] { x, width });
+			// Move the end to the left over the released spans that touch it:
+			boolean merged = true;
+			while (merged) {
+				merged = false;
+				for (int i = 0; i < spans.size(); i++) {
+					int[] span = spans.get(i);
+					if (span[0] + span[1] == end) {
+						end = span[0];
+						spans.remove(i);
+						merged = true;
+						break;
+					}
+				}
+			}
+		}
+		
+	}
+	
+}
@@ -0,0 +1,388 @@
+package be.multec.sg;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.imageio.ImageIO;
+
+import processing.core.PGraphics;
+
+/**
+ * Base class for scene-graph applications that render into an offscreen buffer instead of a
+ * window, e.g. to generate stills or video frames on a render server. The application is not
+ * driven by the Processing animation thread. Instead, each call of renderFrame() advances the clock
+ * of the application by exactly one frame period and then performs the update and draw traversals.
+ * The clockMillis() and millis() methods return this virtual time, such that the scheduled
+ * controllers and the animations give the same result in each run, regardless of how long the
+ * rendering takes.
+ * 
+ * <h2>Usage</h2>
+ * 
+ * <pre>
+ * {@code
+ * public class Signage extends SGOffscreenApp {
+ * 
+ *   public static void main(String[] args) {
+ *     Signage app = new Signage();
+ *     app.start(1920, 1080, 25, new Color(0xFFFFFF));
+ *     app.renderFrames(250, new File("frames"), "signage_", FrameFormat.PNG);
+ *     app.awaitEncoding();
+ *     app.dispose();
+ *   }
+ * 
+ *   @Override
+ *   public void setup() {
+ *     addNode(new SGLabel(this, "Hello world"), 50, 70);
+ *   }
+ * }
+ * }
+ * </pre>
+ * 
+ * The rendered frames are encoded and written to file by a pool of background threads, while the
+ * next frames are rendered. The number of frames that are waiting to be encoded is limited, such
+ * that the memory use remains bounded when the encoding is slower than the rendering.
+ * 
+ * Note that a Processing applet is an AWT component, which cannot be constructed when the JVM runs
+ * in headless mode. No window is opened though, so on a server without a physical display it
+ * suffices to provide a virtual frame buffer, e.g. by running the JVM with xvfb-run.
+ * 
+ * @author Wouter Van den Broeck
+ */
+@SuppressWarnings("serial")
+public class SGOffscreenApp extends SGApp {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/** The file formats in which frames can be written. */
+	public static enum FrameFormat {
+		/** PNG images, with the extension '.png'. */
+		PNG,
+		/**
+		 * Raw frames, with the extension '.raw'. The pixels are written row by row as 32-bit ARGB
+		 * values in big-endian order, without a header.
+		 */
+		RAW
+	}
+	
+	/** The number of digits of the frame numbers in the names of the written files. */
+	public static int FRAME_NUMBER_DIGITS = 6;
+	
+	/* True when the application was started. */
+	private boolean started = false;
+	
+	/* The duration of a frame in milliseconds. */
+	private double frameMillis;
+	
+	/* The current virtual time, which is 0 when the application is started. */
+	private long virtualTime = 0;
+	
+	/* The number of frames rendered since the application was started. */
+	private long renderedFrames = 0;
+	
+	// ---------------------------------------------------------------------------------------------
+	// Encoding:
+	
+	/* The number of threads in the encoder pool. */
+	private int encoderThreads = Runtime.getRuntime().availableProcessors();
+	
+	/* The pool that encodes and writes the frames, created lazily. */
+	private ExecutorService encoderPool;
+	
+	/* The pixel buffers that are available for frames that are waiting to be encoded. */
+	private BlockingQueue<int[]> freeBuffers;
+	
+	/* The number of pixel buffers, which limits the number of frames waiting to be encoded. */
+	private int bufferCount;
+	
+	/* The first failure that occurred while encoding a frame, or null when none occurred. */
+	private volatile Throwable encodingFailure = null;
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/** Basic constructor. */
+	public SGOffscreenApp() {
+		super();
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Waits until the pending frames are encoded, and then disposes this application.
+	 * 
+	 * @see be.multec.sg.SGApp#dispose()
+	 */
+	@Override
+	public void dispose() {
+		if (encoderPool != null) {
+			encoderPool.shutdown();
+			try {
+				encoderPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			encoderPool = null;
+		}
+		super.dispose();
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Sets the number of threads that encode and write the frames. Use this method before the first
+	 * frame is written.
+	 * 
+	 * @param threads The number of threads.
+	 * 
+	 * @default The number of available processors.
+	 */
+	public void setEncoderThreads(int threads) {
+		if (encoderPool != null) throw new Error("The encoder pool was already started.");
+		if (threads < 1) throw new Error("The number of encoder threads should be at least 1.");
+		encoderThreads = threads;
+	}
+	
+	/**
+	 * Starts the application. This method creates the offscreen buffer, in which the content is
+	 * rendered, and calls the setup() method.
+	 * 
+	 * @param width The width of the rendered frames.
+	 * @param height The height of the rendered frames.
+	 * @param framesPerSecond The frame rate, which determines how far the clock of the application
+	 *        is advanced for each rendered frame.
+	 * @param bgColor The background color of the frames.
+	 */
+	public void start(int width, int height, float framesPerSecond, Color bgColor) {
+		if (started) throw new Error("The offscreen application [" + name
+				+ "] was already started.");
+		if (framesPerSecond <= 0) throw new Error("The frame rate should be positive.");
+		started = true;
+		
+		this.width = width;
+		this.height = height;
+		frameRate = framesPerSecond;
+		frameMillis = 1000.0 / framesPerSecond;
+		setBackground(bgColor);
+		
+		g = createGraphics(width, height);
+		g.beginDraw();
+		setup();
+		g.endDraw();
+	}
+	
+	/**
+	 * Advances the clock by one frame period and renders the next frame. The content of the
+	 * returned buffer remains valid until the next frame is rendered.
+	 * 
+	 * @return The offscreen buffer in which the frame was rendered.
+	 */
+	public PGraphics renderFrame() {
+		if (!started) throw new Error("The offscreen application [" + name
+				+ "] was not started.");
+		
+		renderedFrames++;
+		virtualTime = Math.round(renderedFrames * frameMillis);
+		frameCount++;
+		
+		g.beginDraw();
+		draw();
+		g.endDraw();
+		return g;
+	}
+	
+	/**
+	 * Copies the pixels of the last rendered frame in the given array, as ARGB values row by row.
+	 * 
+	 * @param target The array in which to copy the pixels, or null to create a new array.
+	 * @return The array with the pixels.
+	 */
+	public int[] getPixels(int[] target) {
+		if (target == null) target = new int[width * height];
+		else if (target.length < width * height) throw new Error(
+				"The target array should contain at least " + width * height + " elements.");
+		g.loadPixels();
+		System.arraycopy(g.pixels, 0, target, 0, width * height);
+		return target;
+	}
+	
+	/**
+	 * Renders the given number of frames and writes them as numbered files in the given directory.
+	 * The files are named with the given prefix followed by the frame number, padded with zeros to
+	 * FRAME_NUMBER_DIGITS digits. The frames are encoded in the background. This method returns when
+	 * the last frame was rendered, call awaitEncoding() to wait until all frames are written.
+	 * 
+	 * @param count The number of frames to render.
+	 * @param dir The directory in which the files are written. It is created when needed.
+	 * @param prefix The prefix of the file names.
+	 * @param format The file format.
+	 */
+	public void renderFrames(int count, File dir, String prefix, FrameFormat format) {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new Error("Failed to create the directory '" + dir + "'.");
+		String extension = format == FrameFormat.PNG ? ".png" : ".raw";
+		for (int i = 0; i < count; i++) {
+			renderFrame();
+			String number = nf((int) renderedFrames, FRAME_NUMBER_DIGITS);
+			writeFrame(new File(dir, prefix + number + extension), format);
+		}
+	}
+	
+	/**
+	 * Writes the last rendered frame to the given file. The frame is encoded in the background.
+	 * This method blocks while the maximum number of frames are waiting to be encoded.
+	 * 
+	 * @param file The file to write.
+	 * @param format The file format.
+	 */
+	public void writeFrame(final File file, final FrameFormat format) {
+		checkEncodingFailure();
+		if (encoderPool == null) startEncoderPool();
+		
+		final int[] buffer;
+		try {
+			buffer = freeBuffers.take();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Error("Interrupted while waiting for a free frame buffer.", e);
+		}
+		final int w = width, h = height;
+		getPixels(buffer);
+		
+		encoderPool.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (encodingFailure == null) encode(buffer, w, h, file, format);
+				}
+				catch (Throwable e) {
+					if (encodingFailure == null) encodingFailure = e;
+					logger.log(Level.SEVERE, "Failed to write the frame '" + file + "'. " + e, e);
+				}
+				finally {
+					freeBuffers.add(buffer);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Waits until all frames that were passed to writeFrame() are written.
+	 * 
+	 * @throws Error When writing one of the frames failed.
+	 */
+	public void awaitEncoding() {
+		if (encoderPool == null) return;
+		// All buffers are free again when all frames are written:
+		int[][] buffers = new int[bufferCount][];
+		try {
+			for (int i = 0; i < bufferCount; i++)
+				buffers[i] = freeBuffers.take();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Error("Interrupted while waiting for the encoding to complete.", e);
+		}
+		finally {
+			for (int[] buffer : buffers)
+				if (buffer != null) freeBuffers.add(buffer);
+		}
+		checkEncodingFailure();
+	}
+	
+	/**
+	 * @return The number of frames rendered since the application was started.
+	 */
+	public long getRenderedFrames() {
+		return renderedFrames;
+	}
+	
+	/**
+	 * Returns the virtual time of the application, which starts at 0 and is advanced by one frame
+	 * period for each rendered frame.
+	 * 
+	 * @see be.multec.sg.SGApp#clockMillis()
+	 */
+	@Override
+	public long clockMillis() {
+		return virtualTime;
+	}
+	
+	/**
+	 * Returns the number of milliseconds of virtual time since the application was started.
+	 * 
+	 * @see processing.core.PApplet#millis()
+	 */
+	@Override
+	public int millis() {
+		return (int) virtualTime;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Creates the encoder pool and the pixel buffers for the frames waiting to be encoded. */
+	private void startEncoderPool() {
+		bufferCount = 2 * encoderThreads;
+		freeBuffers = new ArrayBlockingQueue<int[]>(bufferCount);
+		for (int i = 0; i < bufferCount; i++)
+			freeBuffers.add(new int[width * height]);
+		
+		encoderPool = Executors.newFixedThreadPool(encoderThreads, new ThreadFactory() {
+			private int count = 0;
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-encoder-" + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/* Throws an error when the encoding of a frame failed. */
+	private void checkEncodingFailure() {
+		Throwable failure = encodingFailure;
+		if (failure != null) throw new Error("Failed to write a frame. " + failure, failure);
+	}
+	
+	/* Encodes the given pixels and writes them to the given file. */
+	private static void encode(int[] pixels, int width, int height, File file, FrameFormat format)
+			throws IOException {
+		if (format == FrameFormat.PNG) {
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			image.setRGB(0, 0, width, height, pixels, 0, width);
+			if (!ImageIO.write(image, "png", file))
+				throw new IOException("No PNG writer is available.");
+		}
+		else {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file), 1 << 16));
+			try {
+				for (int i = 0, n = width * height; i < n; i++)
+					out.writeInt(pixels[i]);
+			}
+			finally {
+				out.close();
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,90 @@
+package be.multec.sg;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free multi-producer single-consumer queue. Any thread can add items, while a single
+ * thread (the animation thread) removes all items at once. The items are kept in a linked stack
+ * of which the head is updated with compare-and-set. The consumer detaches the complete stack with
+ * a single atomic swap and reverses it, such that the items are drained in the order in which they
+ * were added. Items added while a batch is being applied are left for the next drain.
+ * 
+ * @author Wouter Van den Broeck
+ */
+final class SGPostQueue<E> {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* A node in the linked stack. */
+	private static final class Node<E> {
+		
+		final E item;
+		Node<E> next;
+		
+		Node(E item) {
+			this.item = item;
+		}
+		
+	}
+	
+	/* The most recently added node, or null when the queue is empty. */
+	private final AtomicReference<Node<E>> head = new AtomicReference<Node<E>>();
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Adds the given item. This method can be called from any thread.
+	 * 
+	 * @param item The item to add.
+	 */
+	void add(E item) {
+		Node<E> node = new Node<E>(item);
+		Node<E> next;
+		do {
+			next = head.get();
+			node.next = next;
+		}
+		while (!head.compareAndSet(next, node));
+	}
+	
+	/**
+	 * @return True when the queue contains no items.
+	 */
+	boolean isEmpty() {
+		return head.get() == null;
+	}
+	
+	/**
+	 * Removes all items and adds them to the given list, in the order in which they were added.
+	 * This method should only be called from the consumer thread.
+	 * 
+	 * @param target The list to which the items are added.
+	 * @return The number of items that were removed.
+	 */
+	int drainTo(List<? super E> target) {
+		Node<E> node = head.getAndSet(null);
+		if (node == null) return 0;
+		
+		// reverse the stack:
+		Node<E> reversed = null;
+		while (node != null) {
+			Node<E> next = node.next;
+			node.next = reversed;
+			reversed = node;
+			node = next;
+		}
+		
+		int count = 0;
+		for (node = reversed; node != null; node = node.next) {
+			target.add(node.item);
+			count++;
+		}
+		return count;
+	}
+	
+}
@@ -0,0 +1,350 @@
+package be.multec.sg;
+
+import java.util.Arrays;
+
+import be.multec.sg.nodes.SGNode;
+import be.multec.sg.nodes.controllers.INodeController;
+
+/**
+ * Schedules node controllers for delayed, and optionally repeated, application. The scheduled
+ * controllers are kept in a binary min-heap ordered by their deadline. The draw loop of the app
+ * drains the controllers that are due at the start of each frame.
+ * 
+ * The entries are stored in parallel arrays that only grow, such that scheduling a controller does
+ * not allocate any objects. Each scheduled controller is identified by a handle that can be used to
+ * cancel it. A single daemon thread wakes the draw loop when the earliest deadline is reached, such
+ * that the app can idle (in noLoop mode) while waiting for the next scheduled controller.
+ * 
+ * This class is thread-safe.
+ * 
+ * @see SGApp#scheduleUpdate(int, SGNode, INodeController)
+ * @author Wouter Van den Broeck
+ */
+public class SGScheduler {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The initial capacity of the arrays. */
+	private static final int INITIAL_CAPACITY = 64;
+	
+	/* The app for which the controllers are scheduled. */
+	private final SGApp app;
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Entries, stored per slot:
+	
+	/* The nodes on which the controllers are applied. */
+	private SGNode[] targets = new SGNode[INITIAL_CAPACITY];
+	
+	/* The scheduled controllers. */
+	private INodeController[] controllers = new INodeController[INITIAL_CAPACITY];
+	
+	/* The deadlines, in app clock time. */
+	private long[] deadlines = new long[INITIAL_CAPACITY];
+	
+	/* The repeat intervals in milliseconds, or 0 for controllers that are applied only once. */
+	private int[] intervals = new int[INITIAL_CAPACITY];
+	
+	/* The generation of each slot, incremented each time the slot is freed. */
+	private int[] generations = new int[INITIAL_CAPACITY];
+	
+	/* The position of each slot in the heap, or -1 when the slot is free. */
+	private int[] heapPositions = new int[INITIAL_CAPACITY];
+	
+	/* The stack of free slots. */
+	private int[] freeSlots = new int[INITIAL_CAPACITY];
+	private int freeCount = 0;
+	
+	/* The number of slots that were ever used. */
+	private int slotCount = 0;
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	
+	/* The heap of slots, ordered by deadline. */
+	private int[] heap = new int[INITIAL_CAPACITY];
+	
+	/* The number of slots in the heap. */
+	private int size = 0;
+	
+	/* The due entries that are being applied, reused between frames. */
+	private SGNode[] dueTargets = new SGNode[INITIAL_CAPACITY];
+	private INodeController[] dueControllers = new INodeController[INITIAL_CAPACITY];
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	
+	/* The thread that wakes the draw loop, created lazily. */
+	private Thread wakeThread = null;
+	
+	/* True when the draw loop was woken and the due entries were not yet drained. */
+	private boolean wakeRequested = false;
+	
+	/* True when this scheduler was disposed. */
+	private boolean disposed = false;
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param app The app for which the controllers are scheduled.
+	 */
+	public SGScheduler(SGApp app) {
+		this.app = app;
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Schedules a controller for delayed application.
+	 * 
+	 * @param delay The delay in milliseconds.
+	 * @param interval The repeat interval in milliseconds, or 0 when the controller should only be
+	 *            applied once.
+	 * @param target The node on which the controller needs to be applied.
+	 * @param controller The controller to apply.
+	 * @return The handle with which the scheduled controller can be cancelled.
+	 */
+	public synchronized long schedule(int delay, int interval, SGNode target,
+			INodeController controller) {
+		if (disposed) throw new Error("The scheduler was disposed.");
+		if (interval < 0) throw new Error("The interval should not be negative.");
+		
+		int slot;
+		if (freeCount > 0) slot = freeSlots[--freeCount];
+		else {
+			if (slotCount == targets.length) grow();
+			slot = slotCount++;
+			generations[slot] = 1;
+		}
+		targets[slot] = target;
+		controllers[slot] = controller;
+		deadlines[slot] = app.clockMillis() + Math.max(0, delay);
+		intervals[slot] = interval;
+		
+		heap[size] = slot;
+		heapPositions[slot] = size;
+		siftUp(size++);
+		
+		if (heap[0] == slot) {
+			// this is the earliest deadline:
+			if (wakeThread == null) startWakeThread();
+			else notifyAll();
+		}
+		return ((long) generations[slot] << 32) | slot;
+	}
+	
+	/**
+	 * Cancels a scheduled controller.
+	 * 
+	 * @param handle The handle returned by schedule().
+	 * @return False when the given controller was already applied or cancelled.
+	 */
+	public synchronized boolean cancel(long handle) {
+		int slot = (int) handle;
+		int generation = (int) (handle >>> 32);
+		if (slot < 0 || slot >= slotCount) return false;
+		if (generations[slot] != generation || heapPositions[slot] < 0) return false;
+		removeAt(heapPositions[slot]);
+		freeSlot(slot);
+		return true;
+	}
+	
+	/**
+	 * Cancels all scheduled controllers.
+	 */
+	public synchronized void cancelAll() {
+		while (size > 0) {
+			int slot = heap[--size];
+			heapPositions[slot] = -1;
+			freeSlot(slot);
+		}
+	}
+	
+	/**
+	 * @return The number of scheduled controllers.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+	
+	/**
+	 * System method that applies the controllers that are due at the given time. Repeating
+	 * controllers are rescheduled. This method should only be called from SGApp.
+	 * 
+	 * @param time The current frame time, in app clock time.
+	 */
+	public void applyDue(long time) {
+		int count = 0;
+		synchronized (this) {
+			wakeRequested = false;
+			while (size > 0 && deadlines[heap[0]] <= time) {
+				int slot = heap[0];
+				if (count == dueTargets.length) growDue();
+				dueTargets[count] = targets[slot];
+				dueControllers[count] = controllers[slot];
+				count++;
+				if (intervals[slot] > 0) {
+					// reschedule, without trying to catch up when the app lagged behind:
+					deadlines[slot] += intervals[slot];
+					if (deadlines[slot] <= time) deadlines[slot] = time + intervals[slot];
+					siftDown(0);
+				}
+				else {
+					removeAt(0);
+					freeSlot(slot);
+				}
+			}
+			if (size > 0) notifyAll(); // let the wake thread wait for the next deadline
+		}
+		for (int i = 0; i < count; i++) {
+			dueControllers[i].apply(dueTargets[i]);
+			dueTargets[i] = null;
+			dueControllers[i] = null;
+		}
+	}
+	
+	/**
+	 * System method that cancels all scheduled controllers and stops the wake thread. This method
+	 * should only be called from SGApp.
+	 */
+	public synchronized void dispose() {
+		cancelAll();
+		disposed = true;
+		notifyAll();
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	// Wake thread:
+	
+	/* Starts the thread that wakes the draw loop when the earliest deadline is reached. */
+	private void startWakeThread() {
+		wakeThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (waitForDeadline())
+					app.wakeUp();
+			}
+		}, "SGScheduler wake thread");
+		wakeThread.setDaemon(true);
+		wakeThread.start();
+	}
+	
+	/*
+	 * Waits until the earliest deadline is reached and the draw loop needs to be woken.
+	 * 
+	 * @return False when the scheduler was disposed.
+	 */
+	private synchronized boolean waitForDeadline() {
+		try {
+			while (!disposed) {
+				if (size == 0 || wakeRequested) wait();
+				else {
+					long delay = deadlines[heap[0]] - app.clockMillis();
+					if (delay > 0) wait(delay);
+					else {
+						wakeRequested = true;
+						return true;
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) { /* stop */}
+		return false;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	// Heap operations:
+	
+	private void siftUp(int pos) {
+		int slot = heap[pos];
+		long deadline = deadlines[slot];
+		while (pos > 0) {
+			int parentPos = (pos - 1) >>> 1;
+			int parentSlot = heap[parentPos];
+			if (deadlines[parentSlot] <= deadline) break;
+			heap[pos] = parentSlot;
+			heapPositions[parentSlot] = pos;
+			pos = parentPos;
+		}
+		heap[pos] = slot;
+		heapPositions[slot] = pos;
+	}
+	
+	private void siftDown(int pos) {
+		int slot = heap[pos];
+		long deadline = deadlines[slot];
+		int half = size >>> 1;
+		while (pos < half) {
+			int childPos = 2 * pos + 1;
+			int childSlot = heap[childPos];
+			int rightPos = childPos + 1;
+			if (rightPos < size && deadlines[heap[rightPos]] < deadlines[childSlot]) {
+				childPos = rightPos;
+				childSlot = heap[rightPos];
+			}
+			if (deadline <= deadlines[childSlot]) break;
+			heap[pos] = childSlot;
+			heapPositions[childSlot] = pos;
+			pos = childPos;
+		}
+		heap[pos] = slot;
+		heapPositions[slot] = pos;
+	}
+	
+	/* Removes the slot at the given position from the heap. */
+	private void removeAt(int pos) {
+		int slot = heap[pos];
+		heapPositions[slot] = -1;
+		size--;
+		if (pos == size) return;
+		int moved = heap[size];
+		heap[pos] = moved;
+		heapPositions[moved] = pos;
+		siftDown(pos);
+		if (heapPositions[moved] == pos) siftUp(pos);
+	}
+	
+	/* Frees the given slot, which should no longer be in the heap. */
+	private void freeSlot(int slot) {
+		targets[slot] = null;
+		controllers[slot] = null;
+		generations[slot]++;
+		if (generations[slot] == 0) generations[slot] = 1; // never generate a zero handle
+		freeSlots[freeCount++] = slot;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Doubles the capacity of the slot arrays. */
+	private void grow() {
+		int capacity = targets.length * 2;
+		SGNode[] newTargets = new SGNode[capacity];
+		System.arraycopy(targets, 0, newTargets, 0, slotCount);
+		targets = newTargets;
+		INodeController[] newControllers = new INodeController[capacity];
+		System.arraycopy(controllers, 0, newControllers, 0, slotCount);
+		controllers = newControllers;
+		deadlines = Arrays.copyOf(deadlines, capacity);
+		intervals = Arrays.copyOf(intervals, capacity);
+		generations = Arrays.copyOf(generations, capacity);
+		heapPositions = Arrays.copyOf(heapPositions, capacity);
+		freeSlots = Arrays.copyOf(freeSlots, capacity);
+		heap = Arrays.copyOf(heap, capacity);
+	}
+	
+	/* Doubles the capacity of the due arrays. */
+	private void growDue() {
+		int capacity = dueTargets.length * 2;
+		SGNode[] newTargets = new SGNode[capacity];
+		System.arraycopy(dueTargets, 0, newTargets, 0, dueTargets.length);
+		dueTargets = newTargets;
+		INodeController[] newControllers = new INodeController[capacity];
+		System.arraycopy(dueControllers, 0, newControllers, 0, dueControllers.length);
+		dueControllers = newControllers;
+	}
+	
+}
@@ -0,0 +1,230 @@
+package be.multec.sg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import processing.core.PGraphics;
+
+/**
+ * A pool of offscreen surfaces, used for the bitmap caches of the nodes. Surfaces that are no
+ * longer used by a node are kept in the pool to be reused by other nodes, instead of being
+ * recreated over and over again. This avoids the churn of large images when the bounds of cached
+ * nodes change.
+ * 
+ * The requested sizes are rounded up to bucket sizes, such that a surface can be reused for
+ * similar sizes. The idle surfaces are evicted in least-recently-used order when the total size of
+ * the idle surfaces exceeds the byte budget.
+ * 
+ * @see SGApp#getSurfacePool()
+ * @author Wouter Van den Broeck
+ */
+public class SGSurfacePool {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/** The default maximum number of bytes held by the idle surfaces in the pool. */
+	public static long DEFAULT_BUDGET = 128L * 1024 * 1024;
+	
+	/* The smallest bucket size. */
+	private static final int MIN_BUCKET_SIZE = 64;
+	
+	/* The number of bytes per pixel. */
+	private static final int BYTES_PER_PIXEL = 4;
+	
+	/* The app for which the surfaces are created. */
+	private final SGApp app;
+	
+	/* The maximum number of bytes held by the idle surfaces in the pool. */
+	private long budget;
+	
+	/* The idle surfaces, per bucket. */
+	private HashMap<Long, ArrayList<PGraphics>> buckets = new HashMap<Long, ArrayList<PGraphics>>();
+	
+	/* The idle surfaces, ordered from least to most recently released. */
+	private LinkedHashMap<PGraphics, Long> idle = new LinkedHashMap<PGraphics, Long>();
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Statistics:
+	
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long bytesHeld = 0;
+	private long bytesInUse = 0;
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param app The app for which the surfaces are created.
+	 * @param budget The maximum number of bytes held by the idle surfaces in the pool.
+	 */
+	public SGSurfacePool(SGApp app, long budget) {
+		this.app = app;
+		this.budget = budget;
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Returns a surface that is at least as large as the given size. The content of the returned
+	 * surface is undefined, so clear it before drawing on it. Release the surface when it is no
+	 * longer used.
+	 * 
+	 * @param width The minimal width.
+	 * @param height The minimal height.
+	 * @return A surface.
+	 */
+	public synchronized PGraphics acquire(int width, int height) {
+		int bw = bucketSize(width);
+		int bh = bucketSize(height);
+		long bytes = (long) bw * bh * BYTES_PER_PIXEL;
+		bytesInUse += bytes;
+		
+		ArrayList<PGraphics> bucket = buckets.get(bucketKey(bw, bh));
+		if (bucket != null && !bucket.isEmpty()) {
+			PGraphics surface = bucket.remove(bucket.size() - 1);
+			idle.remove(surface);
+			bytesHeld -= bytes;
+			hits++;
+			return surface;
+		}
+		misses++;
+		return app.createGraphics(bw, bh);
+	}
+	
+	/**
+	 * Returns the given surface to the pool. Do not use the surface after it was released.
+	 * 
+	 * @param surface A surface obtained with acquire().
+	 */
+	public synchronized void release(PGraphics surface) {
+		if (idle.containsKey(surface)) throw new Error("The surface was already released.");
+		long key = bucketKey(surface.width, surface.height);
+		long bytes = (long) surface.width * surface.height * BYTES_PER_PIXEL;
+		bytesInUse -= bytes;
+		
+		ArrayList<PGraphics> bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList<PGraphics>();
+			buckets.put(key, bucket);
+		}
+		bucket.add(surface);
+		idle.put(surface, key);
+		bytesHeld += bytes;
+		evict();
+	}
+	
+	/** Removes all idle surfaces from the pool. */
+	public synchronized void clear() {
+		buckets.clear();
+		idle.clear();
+		bytesHeld = 0;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return The maximum number of bytes held by the idle surfaces in the pool.
+	 */
+	public synchronized long getBudget() {
+		return budget;
+	}
+	
+	/**
+	 * @param budget The maximum number of bytes held by the idle surfaces in the pool.
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return The number of acquired surfaces that were reused from the pool.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return The number of acquired surfaces that had to be created.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return The number of idle surfaces that were evicted from the pool.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+	
+	/**
+	 * @return The (estimated) number of bytes held by the idle surfaces in the pool.
+	 */
+	public synchronized long getBytesHeld() {
+		return bytesHeld;
+	}
+	
+	/**
+	 * @return The (estimated) number of bytes held by the acquired surfaces.
+	 */
+	public synchronized long getBytesInUse() {
+		return bytesInUse;
+	}
+	
+	/** Resets the hits, misses and evictions counters. */
+	public synchronized void resetStats() {
+		hits = misses = evictions = 0;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return "SGSurfacePool[hits: " + hits + ", misses: " + misses + ", evictions: " + evictions
+				+ ", idle: " + idle.size() + " (" + (bytesHeld >> 10) + " KB), in use: "
+				+ (bytesInUse >> 10) + " KB]";
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Evicts the least recently released surfaces until the budget is respected. */
+	private void evict() {
+		Iterator<PGraphics> iterator = idle.keySet().iterator();
+		while (bytesHeld > budget && iterator.hasNext()) {
+			PGraphics surface = iterator.next();
+			iterator.remove();
+			buckets.get(bucketKey(surface.width, surface.height)).remove(surface);
+			bytesHeld -= (long) surface.width * surface.height * BYTES_PER_PIXEL;
+			evictions++;
+		}
+	}
+	
+	/*
+	 * Rounds the given size up to a bucket size. The bucket sizes are multiples of a step that
+	 * increases with the size, such that at most about a quarter of the surface is wasted.
+	 */
+	private static int bucketSize(int size) {
+		if (size <= MIN_BUCKET_SIZE) return MIN_BUCKET_SIZE;
+		int step = Math.max(MIN_BUCKET_SIZE / 4, Integer.highestOneBit(size - 1) / 4);
+		return ((size + step - 1) / step) * step;
+	}
+	
+	/* @return The key for the bucket with the given size. */
+	private static long bucketKey(int width, int height) {
+		return ((long) width << 32) | height;
+	}
+	
+}
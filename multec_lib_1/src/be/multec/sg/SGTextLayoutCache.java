@@ -0,0 +1,473 @@
+package be.multec.sg;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PFont;
+import processing.core.PGraphics;
+
+/**
+ * A cache of measured and wrapped texts, shared by all labels. A layout is keyed by the font, the
+ * text size, the leading, the width of the text box and the text. It holds the width of each line
+ * and the offsets at which the text is broken into lines, computed as PGraphics.text() does for a
+ * text box. Relayouts and redraws of labels thus reuse the measured lines instead of measuring
+ * every character again. The least recently used layouts are evicted when the capacity is
+ * exceeded.
+ * 
+ * This class is thread-safe.
+ * 
+ * @author Wouter Van den Broeck
+ */
+public class SGTextLayoutCache {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/** The default maximum number of cached layouts. */
+	public static int DEFAULT_CAPACITY = 2048;
+	
+	/* The shared instance. */
+	private static final SGTextLayoutCache shared = new SGTextLayoutCache(DEFAULT_CAPACITY);
+	
+	/* The maximum number of cached layouts. */
+	private int capacity;
+	
+	/* The layouts, ordered from least to most recently used. Guarded by the instance lock. */
+	private final LinkedHashMap<Key, Layout> layouts = new LinkedHashMap<Key, Layout>(64, .75f,
+			true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Layout> eldest) {
+			if (size() <= capacity) return false;
+			evictions++;
+			return true;
+		}
+	};
+	
+	/* The key used to look up layouts, reused to avoid allocations. Guarded by the instance lock. */
+	private final Key probe = new Key();
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Statistics:
+	
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Use this constructor for a private cache. Use getShared() to obtain the cache that is shared
+	 * by all labels.
+	 * 
+	 * @param capacity The maximum number of cached layouts.
+	 */
+	public SGTextLayoutCache(int capacity) {
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * @return The cache that is shared by all labels.
+	 */
+	public static SGTextLayoutCache getShared() {
+		return shared;
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Returns the layout of the given text in a box of the given width, for the current font, text
+	 * size and leading of the given canvas. The text is measured on the given canvas when the
+	 * layout is not cached.
+	 * 
+	 * @param g The canvas, on which the font and the text size are set.
+	 * @param text The text.
+	 * @param boxWidth The width of the text box, or Float.POSITIVE_INFINITY to only break the text
+	 *            at the newlines.
+	 * @return The layout.
+	 */
+	public Layout getLayout(PGraphics g, String text, float boxWidth) {
+		PFont font = g.textFont;
+		if (font == null) throw new Error("No font is set on the canvas.");
+		float size = g.textSize, leading = g.textLeading;
+		synchronized (this) {
+			Layout layout = layouts.get(probe.set(font, size, leading, boxWidth, text));
+			probe.font = null; // do not retain the font and the text
+			probe.text = null;
+			if (layout != null) {
+				hits++;
+				return layout;
+			}
+			misses++;
+		}
+		
+		// Measure outside the lock, the canvas belongs to the caller:
+		Layout layout = new Layout(g, text, boxWidth);
+		synchronized (this) {
+			layouts.put(new Key().set(font, size, leading, boxWidth, text), layout);
+		}
+		return layout;
+	}
+	
+	/** Removes all layouts from the cache. */
+	public synchronized void clear() {
+		layouts.clear();
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return The maximum number of cached layouts.
+	 */
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * @param capacity The maximum number of cached layouts.
+	 * 
+	 * @default DEFAULT_CAPACITY
+	 */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+		Iterator<Key> iterator = layouts.keySet().iterator();
+		while (layouts.size() > capacity && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+			evictions++;
+		}
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return The number of requests for layouts that were cached.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return The number of requests for layouts that had to be computed.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return The fraction of the requests for layouts that were cached, or 0 when there were no
+	 *         requests.
+	 */
+	public synchronized float getHitRate() {
+		long requests = hits + misses;
+		return requests == 0 ? 0 : (float) hits / requests;
+	}
+	
+	/**
+	 * @return The number of layouts that were evicted from the cache.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+	
+	/**
+	 * @return The number of cached layouts.
+	 */
+	public synchronized int size() {
+		return layouts.size();
+	}
+	
+	/** Resets the hits, misses and evictions counters. */
+	public synchronized void resetStats() {
+		hits = misses = evictions = 0;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return "SGTextLayoutCache[hits: " + hits + ", misses: " + misses + ", hit rate: "
+				+ Math.round(getHitRate() * 100) + "%, evictions: " + evictions + ", layouts: "
+				+ layouts.size() + "]";
+	}
+	
+	// *********************************************************************************************
+	// Classes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * The measured and wrapped lines of a text. Layouts are immutable.
+	 */
+	public static final class Layout {
+		
+		/* The characters of the text. */
+		private final char[] chars;
+		
+		/* The number of lines. */
+		private int lineCount = 0;
+		
+		/* The offsets of the first character and after the last character of each line. */
+		private int[] lineStarts = new int[4];
+		private int[] lineStops = new int[4];
+		
+		/* The width of each line. */
+		private float[] lineWidths;
+		
+		/*
+		 * The characters of each line. PGraphics.text(char[], int, int, float, float) does not
+		 * handle a start offset after a newline, so each line gets its own array.
+		 */
+		private char[][] lines;
+		
+		/* The width of the widest line. */
+		private float width = 0;
+		
+		/* The height of the lines. */
+		private final float height;
+		
+		/*
+		 * Measures the given text and breaks it into lines that fit in the given width, as
+		 * PGraphics.text(String, float, float, float, float) does.
+		 */
+		private Layout(PGraphics g, String text, float boxWidth) {
+			int length = text.length();
+			chars = new char[length + 1];
+			text.getChars(0, length, chars, 0);
+			chars[length++] = '\n'; // a fake newline to simplify the computations
+			
+			float spaceWidth = g.textWidth(' ');
+			int sentenceStart = 0;
+			for (int i = 0; i < length; i++) {
+				if (chars[i] == '\n') {
+					if (boxWidth == Float.POSITIVE_INFINITY) addLine(sentenceStart, i);
+					else if (!breakSentence(g, sentenceStart, i, boxWidth, spaceWidth)) break;
+					sentenceStart = i + 1;
+				}
+			}
+			
+			lineWidths = new float[lineCount];
+			lines = new char[lineCount][];
+			for (int i = 0; i < lineCount; i++) {
+				lines[i] = Arrays.copyOfRange(chars, lineStarts[i], lineStops[i]);
+				lineWidths[i] = measure(g, lineStarts[i], lineStops[i]);
+				width = Math.max(width, lineWidths[i]);
+			}
+			height = g.textAscent() + g.textDescent() + g.textLeading * Math.max(lineCount - 1, 0);
+		}
+		
+		/*
+		 * Breaks the sentence between the given offsets into lines, as PGraphics.textSentence()
+		 * does.
+		 * 
+		 * @return False when not a single character fits in the box.
+		 */
+		private boolean breakSentence(PGraphics g, int start, int stop, float boxWidth,
+				float spaceWidth)
+		{
+			float runningX = 0;
+			int lineStart = start;
+			int wordStart = start;
+			int index = start;
+			while (index <= stop) {
+				if (chars[index] == ' ' || index == stop) { // the end of a word or of the sentence
+					float wordWidth = measure(g, wordStart, index);
+					if (runningX + wordWidth > boxWidth) {
+						if (runningX != 0) {
+							// the word does not fit, break before it:
+							index = wordStart;
+							addLine(lineStart, index);
+							while (index < stop && chars[index] == ' ')
+								index++;
+						}
+						else {
+							// the first word on the line does not fit, break it:
+							do {
+								index--;
+								if (index == wordStart) return false;
+								wordWidth = measure(g, wordStart, index);
+							}
+							while (wordWidth > boxWidth);
+							addLine(lineStart, index);
+						}
+						lineStart = index;
+						wordStart = index;
+						runningX = 0;
+					}
+					else if (index == stop) {
+						addLine(lineStart, index);
+						index++;
+					}
+					else {
+						runningX += wordWidth + spaceWidth;
+						wordStart = index + 1;
+						index++;
+					}
+				}
+				else index++;
+			}
+			return true;
+		}
+		
+		/* Adds a line with the given offsets. */
+		private void addLine(int start, int stop) {
+			if (lineCount == lineStarts.length) {
+				lineStarts = PApplet.expand(lineStarts);
+				lineStops = PApplet.expand(lineStops);
+			}
+			lineStarts[lineCount] = start;
+			lineStops[lineCount] = stop;
+			lineCount++;
+		}
+		
+		/* Returns the width of the characters between the given offsets. */
+		private float measure(PGraphics g, int start, int stop) {
+			return start == stop ? 0 : g.textWidth(new String(chars, start, stop - start));
+		}
+		
+		// -----------------------------------------------------------------------------------------
+		
+		/**
+		 * @return The width of the widest line.
+		 */
+		public float getWidth() {
+			return width;
+		}
+		
+		/**
+		 * @return The height of the lines, from the ascent of the first line to the descent of the
+		 *         last line.
+		 */
+		public float getHeight() {
+			return height;
+		}
+		
+		/**
+		 * @return The number of lines.
+		 */
+		public int getLineCount() {
+			return lineCount;
+		}
+		
+		/**
+		 * @param line The index of a line.
+		 * @return The offset of the first character of the line in the text.
+		 */
+		public int getLineStart(int line) {
+			return lineStarts[line];
+		}
+		
+		/**
+		 * @param line The index of a line.
+		 * @return The offset after the last character of the line in the text.
+		 */
+		public int getLineStop(int line) {
+			return lineStops[line];
+		}
+		
+		/**
+		 * @param line The index of a line.
+		 * @return The width of the line.
+		 */
+		public float getLineWidth(int line) {
+			return lineWidths[line];
+		}
+		
+		/**
+		 * Draws the lines in the given box, as PGraphics.text(String, float, float, float, float)
+		 * does in the CORNER rect mode, according to the current text alignment of the given
+		 * canvas. The lines that do not fit in the box are not drawn. The font, text size and
+		 * leading of the canvas should be the ones with which this layout was computed.
+		 * 
+		 * @param g The canvas on which to draw.
+		 * @param x The x-coordinate of the box.
+		 * @param y The y-coordinate of the box.
+		 * @param boxWidth The width of the box.
+		 * @param boxHeight The height of the box.
+		 */
+		public void draw(PGraphics g, float x, float y, float boxWidth, float boxHeight) {
+			int align = g.textAlign, alignY = g.textAlignY;
+			float ascent = g.textAscent(), descent = g.textDescent(), leading = g.textLeading;
+			
+			float lineX = x;
+			if (align == PConstants.CENTER) lineX += boxWidth / 2f;
+			else if (align == PConstants.RIGHT) lineX += boxWidth;
+			
+			int fitCount = 1 + PApplet.floor((boxHeight - ascent - descent) / leading);
+			int count = Math.min(lineCount, fitCount);
+			float lineY;
+			if (alignY == PConstants.CENTER)
+				lineY = y + ascent + (boxHeight - ascent - leading * (count - 1)) / 2;
+			else if (alignY == PConstants.BOTTOM)
+				lineY = y + boxHeight - descent - leading * (count - 1);
+			else lineY = y + ascent;
+			
+			// The lines are aligned here, with the measured widths:
+			g.textAlign(PConstants.LEFT, PConstants.BASELINE);
+			for (int i = 0; i < count; i++) {
+				float lx = lineX;
+				if (align == PConstants.CENTER) lx -= lineWidths[i] / 2f;
+				else if (align == PConstants.RIGHT) lx -= lineWidths[i];
+				g.text(lines[i], 0, lines[i].length, lx, lineY);
+				lineY += leading;
+			}
+			g.textAlign(align, alignY);
+		}
+		
+	}
+	
+	/*
+	 * The key of a layout. The font is compared by identity.
+	 */
+	private static final class Key {
+		
+		PFont font;
+		float size;
+		float leading;
+		float boxWidth;
+		String text;
+		int hash;
+		
+		Key set(PFont font, float size, float leading, float boxWidth, String text) {
+			this.font = font;
+			this.size = size;
+			this.leading = leading;
+			this.boxWidth = boxWidth;
+			this.text = text;
+			int h = System.identityHashCode(font);
+			h = 31 * h + Float.floatToIntBits(size);
+			h = 31 * h + Float.floatToIntBits(leading);
+			h = 31 * h + Float.floatToIntBits(boxWidth);
+			hash = 31 * h + text.hashCode();
+			return this;
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return hash == other.hash && font == other.font
+					&& Float.floatToIntBits(size) == Float.floatToIntBits(other.size)
+					&& Float.floatToIntBits(leading) == Float.floatToIntBits(other.leading)
+					&& Float.floatToIntBits(boxWidth) == Float.floatToIntBits(other.boxWidth)
+					&& text.equals(other.text);
+		}
+		
+	}
+	
+}
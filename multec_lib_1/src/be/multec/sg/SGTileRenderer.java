@@ -0,0 +1,218 @@
+package be.multec.sg;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import processing.core.PGraphics;
+import processing.core.PGraphicsJava2D;
+import processing.core.PMatrix2D;
+import be.multec.sg.nodes.SGNode;
+
+/**
+ * Draws runs of child-nodes of the stage in parallel, in the parallel tile drawing mode. The
+ * window is split into horizontal tiles, each with its own offscreen JAVA2D surface. The nodes are
+ * drawn on all tiles concurrently, on the pool of the app, skipping the descendants outside each
+ * tile. The tiles are then copied onto the window.
+ * 
+ * @see SGApp#setTileDrawing(int)
+ * @author Wouter Van den Broeck
+ */
+public class SGTileRenderer {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The app whose stage is drawn. */
+	private final SGApp app;
+	
+	/* The number of tiles. */
+	private final int tileCount;
+	
+	/* The offscreen surfaces of the tiles, created lazily for the current size of the window. */
+	private PGraphics[] tiles;
+	
+	/* The bounds of the tiles, in the coordinate system of the window. */
+	private Rectangle[] tileRects;
+	
+	/* True for the tiles on which a node was drawn in the current run. */
+	private boolean[] tilesDrawn;
+	
+	/* The tasks that draw the tiles, one per tile. */
+	private List<Callable<Object>> tasks;
+	
+	/* The size of the window for which the tiles were created. */
+	private int width = 0, height = 0;
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// The current run:
+	
+	private SGNode runParent;
+	private int runFrom, runTo;
+	private PMatrix2D runMatrix;
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Statistics:
+	
+	private long runs = 0;
+	private long tilesCopied = 0;
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param app The app whose stage is drawn.
+	 * @param tileCount The number of tiles.
+	 */
+	public SGTileRenderer(SGApp app, int tileCount) {
+		if (tileCount < 1) throw new Error("The number of tiles should be positive.");
+		this.app = app;
+		this.tileCount = tileCount;
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * System method that draws the given range of child-nodes of the given parent on the tiles, in
+	 * parallel, and copies the tiles onto the given canvas. The child-nodes should have been
+	 * prepared to be drawn on the tiles. This method should only be called from SGNode.
+	 * 
+	 * @param g The canvas of the window.
+	 * @param parent The parent of the child-nodes.
+	 * @param from The index of the first child-node to draw.
+	 * @param to The index after the last child-node to draw.
+	 * @param matrix The global transformation matrix of the parent.
+	 */
+	public void drawChildren(PGraphics g, SGNode parent, int from, int to, PMatrix2D matrix) {
+		validateTiles();
+		runParent = parent;
+		runFrom = from;
+		runTo = to;
+		runMatrix = matrix;
+		try {
+			for (Future<Object> future : app.getUpdatePool().invokeAll(tasks))
+				future.get();
+		}
+		catch (ExecutionException e) {
+			throw new Error("Failed to draw a tile [in " + app + "]. " + e.getCause(), e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Error("Interrupted while drawing the tiles [in " + app + "].", e);
+		}
+		finally {
+			runParent = null;
+			runMatrix = null;
+		}
+		runs++;
+		
+		// Copy the tiles in the coordinate system of the window. The tile images are drawn directly,
+		// because PGraphics.copy() would first copy each tile into a new image through getNative():
+		g.pushMatrix();
+		g.resetMatrix();
+		Graphics2D g2 = ((PGraphicsJava2D) g).g2;
+		for (int i = 0; i < tileCount; i++) {
+			if (!tilesDrawn[i]) continue; // nothing was drawn on this tile
+			Rectangle r = tileRects[i];
+			g2.drawImage(tiles[i].image, r.x, r.y, r.x + r.width, r.y + r.height, 0, 0, r.width,
+					r.height, null);
+			tilesCopied++;
+		}
+		g.popMatrix();
+	}
+	
+	/* Draws the current run on the tile with the given index. */
+	private void drawTile(int index) {
+		PGraphics tile = tiles[index];
+		Rectangle r = tileRects[index];
+		tile.beginDraw();
+		tile.clear();
+		tile.translate(-r.x, -r.y);
+		tile.applyMatrix(runMatrix);
+		tilesDrawn[index] = runParent.drawChildrenTile(tile, r, runFrom, runTo);
+		tile.endDraw();
+	}
+	
+	/* (Re)creates the tiles when the size of the window changed. */
+	private void validateTiles() {
+		if (tiles != null && width == app.width && height == app.height) return;
+		dispose();
+		width = app.width;
+		height = app.height;
+		int tileHeight = (height + tileCount - 1) / tileCount;
+		tiles = new PGraphics[tileCount];
+		tileRects = new Rectangle[tileCount];
+		tilesDrawn = new boolean[tileCount];
+		tasks = new ArrayList<Callable<Object>>(tileCount);
+		for (int i = 0; i < tileCount; i++) {
+			int y = Math.min(i * tileHeight, height);
+			int h = Math.max(Math.min(tileHeight, height - y), 1);
+			tiles[i] = app.createGraphics(Math.max(width, 1), h);
+			tileRects[i] = new Rectangle(0, y, width, h);
+			final int index = i;
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() {
+					drawTile(index);
+					return null;
+				}
+			});
+		}
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return The number of tiles.
+	 */
+	public int getTileCount() {
+		return tileCount;
+	}
+	
+	/**
+	 * @return The number of runs of child-nodes that were drawn on the tiles.
+	 */
+	public long getRuns() {
+		return runs;
+	}
+	
+	/**
+	 * @return The number of tiles that were copied onto the window.
+	 */
+	public long getTilesCopied() {
+		return tilesCopied;
+	}
+	
+	/**
+	 * Releases the tiles. They are created again when needed.
+	 */
+	public void dispose() {
+		if (tiles != null) {
+			for (PGraphics tile : tiles)
+				tile.dispose();
+		}
+		tiles = null;
+		tileRects = null;
+		tilesDrawn = null;
+		tasks = null;
+		width = height = 0;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SGTileRenderer[tiles: " + tileCount + ", runs: " + runs + ", copied: " + tilesCopied
+				+ "]";
+	}
+	
+}
@@ -0,0 +1,487 @@
+package be.multec.sg;
+
+import java.util.Arrays;
+
+import be.multec.sg.nodes.SGNode;
+import be.multec.sg.nodes.controllers.INodeController;
+
+/**
+ * Animates the position, rotation and scale of nodes. Instead of a controller per animated node,
+ * the engine keeps all tweens in parallel arrays of primitives, and advances them in a single loop
+ * at the start of each frame, before the update traversal. The tweened values are first collected
+ * per node, and then written back with a single setTransformation() call per node, such that the
+ * transformation of each node is invalidated only once per frame. Nodes that are not tweened are
+ * not visited, and no node stays pending for an update because of a finished tween.
+ * 
+ * The tweens are stored densely: a finished or cancelled tween is replaced by the last tween, such
+ * that the loop only visits active tweens. Freed slots are reused and the arrays only grow, so
+ * tweening does not allocate any objects once the arrays are large enough. Each tween is
+ * identified by a handle that can be used to cancel it. Starting a tween on a property that is
+ * already tweened replaces the earlier tween.
+ * 
+ * This class is not thread-safe. Use it from the animation thread, e.g. in setup(), in a
+ * controller or in an event handler.
+ * 
+ * @see SGApp#getTweenEngine()
+ * @author Wouter Van den Broeck
+ */
+public class SGTweenEngine {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/** The node properties that can be tweened. */
+	public static enum Property {
+		/** The horizontal position. */
+		X,
+		/** The vertical position. */
+		Y,
+		/** The rotation in radians. */
+		ROTATION,
+		/** The scale. */
+		SCALE
+	}
+	
+	/** The easing functions, which map the linear progress of a tween on the eased progress. */
+	public static enum Easing {
+		LINEAR, QUAD_IN, QUAD_OUT, QUAD_IN_OUT, CUBIC_IN, CUBIC_OUT, CUBIC_IN_OUT, SINE_IN_OUT
+	}
+	
+	/* The initial capacity of the arrays. */
+	private static final int INITIAL_CAPACITY = 64;
+	
+	/* The number of properties that can be tweened per node. */
+	private static final int PROPERTIES = 4;
+	
+	/* The app in which the nodes are tweened. */
+	private final SGApp app;
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Tweens, stored densely in the range [0, count):
+	
+	/* The groups of the tweened nodes. */
+	private int[] tweenGroups = new int[INITIAL_CAPACITY];
+	
+	/* The ordinals of the tweened properties. */
+	private int[] properties = new int[INITIAL_CAPACITY];
+	
+	/* The start and end values. */
+	private float[] fromValues = new float[INITIAL_CAPACITY];
+	private float[] toValues = new float[INITIAL_CAPACITY];
+	
+	/* The start times, in app clock time. */
+	private long[] startTimes = new long[INITIAL_CAPACITY];
+	
+	/* The durations in milliseconds. */
+	private int[] durations = new int[INITIAL_CAPACITY];
+	
+	/* The easing functions. */
+	private Easing[] easings = new Easing[INITIAL_CAPACITY];
+	
+	/* The controllers applied on the nodes when the tweens complete, or null. */
+	private INodeController[] completions = new INodeController[INITIAL_CAPACITY];
+	
+	/* The slots of the tweens. */
+	private int[] tweenSlots = new int[INITIAL_CAPACITY];
+	
+	/* The number of active tweens. */
+	private int count = 0;
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Slots, which identify the tweens for the handles:
+	
+	/* The index of the tween of each slot, or -1 when the slot is free. */
+	private int[] slotIndices = new int[INITIAL_CAPACITY];
+	
+	/* The generation of each slot, incremented each time the slot is freed. */
+	private int[] generations = new int[INITIAL_CAPACITY];
+	
+	/* The stack of free slots. */
+	private int[] freeSlots = new int[INITIAL_CAPACITY];
+	private int freeCount = 0;
+	
+	/* The number of slots that were ever used. */
+	private int slotCount = 0;
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Groups, one per tweened node, stored densely in the range [0, groupCount):
+	
+	/* The tweened nodes. */
+	private SGNode[] groupNodes = new SGNode[INITIAL_CAPACITY];
+	
+	/* The values tweened in the current frame, PROPERTIES per group. */
+	private float[] groupValues = new float[INITIAL_CAPACITY * PROPERTIES];
+	
+	/* The bit masks of the properties tweened in the current frame. */
+	private int[] groupMasks = new int[INITIAL_CAPACITY];
+	
+	/* The slots of the tweens of each property, or -1, PROPERTIES per group. */
+	private int[] groupTweens = new int[INITIAL_CAPACITY * PROPERTIES];
+	
+	/* The number of tweens per group. */
+	private int[] groupCounts = new int[INITIAL_CAPACITY];
+	
+	/* The number of groups. */
+	private int groupCount = 0;
+	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	
+	/* The completed tweens of which the controllers are applied, reused between frames. */
+	private SGNode[] doneTargets = new SGNode[INITIAL_CAPACITY];
+	private INodeController[] doneControllers = new INodeController[INITIAL_CAPACITY];
+	
+	/* True when this engine was disposed. */
+	private boolean disposed = false;
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param app The app in which the nodes are tweened.
+	 */
+	public SGTweenEngine(SGApp app) {
+		this.app = app;
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Tweens the given property of the given node from its current value to the given value,
+	 * starting immediately.
+	 * 
+	 * @param target The node to animate.
+	 * @param property The property to animate.
+	 * @param to The end value.
+	 * @param duration The duration in milliseconds.
+	 * @param easing The easing function.
+	 * @return The handle with which the tween can be cancelled.
+	 */
+	public long tween(SGNode target, Property property, float to, int duration, Easing easing) {
+		return tween(target, property, getValue(target, property.ordinal()), to, 0, duration,
+				easing, null);
+	}
+	
+	/**
+	 * Tweens the given property of the given node between the given values. The property is not
+	 * modified until the tween starts.
+	 * 
+	 * @param target The node to animate.
+	 * @param property The property to animate.
+	 * @param from The start value.
+	 * @param to The end value.
+	 * @param delay The delay in milliseconds after which the tween starts.
+	 * @param duration The duration in milliseconds.
+	 * @param easing The easing function, or null for linear tweening.
+	 * @param onComplete The controller that is applied on the node when the tween completes, or
+	 *            null. It is not applied when the tween is cancelled or replaced.
+	 * @return The handle with which the tween can be cancelled.
+	 */
+	public long tween(SGNode target, Property property, float from, float to, int delay,
+			int duration, Easing easing, INodeController onComplete) {
+		if (disposed) throw new Error("The tween engine was disposed.");
+		if (target.isDisposed()) throw new Error("Cannot tween the disposed node " + target + ".");
+		if (duration < 0) throw new Error("The duration should not be negative.");
+		if (easing == null) easing = Easing.LINEAR;
+		
+		// replace the current tween of the property:
+		int p = property.ordinal();
+		int group = target.getTweenGroup();
+		if (group >= 0 && groupTweens[group * PROPERTIES + p] >= 0)
+			removeTween(slotIndices[groupTweens[group * PROPERTIES + p]]);
+		if (group < 0) group = addGroup(target);
+		
+		int slot;
+		if (freeCount > 0) slot = freeSlots[--freeCount];
+		else {
+			if (slotCount == slotIndices.length) growSlots();
+			slot = slotCount++;
+			generations[slot] = 1;
+		}
+		if (count == tweenSlots.length) growTweens();
+		int i = count++;
+		tweenGroups[i] = group;
+		properties[i] = p;
+		fromValues[i] = from;
+		toValues[i] = to;
+		startTimes[i] = app.clockMillis() + Math.max(0, delay);
+		durations[i] = duration;
+		easings[i] = easing;
+		completions[i] = onComplete;
+		tweenSlots[i] = slot;
+		slotIndices[slot] = i;
+		groupTweens[group * PROPERTIES + p] = slot;
+		groupCounts[group]++;
+		
+		app.wakeUp();
+		return ((long) generations[slot] << 32) | slot;
+	}
+	
+	/**
+	 * Cancels a tween. The property keeps its current value.
+	 * 
+	 * @param handle The handle returned by tween().
+	 * @return False when the tween was already completed or cancelled.
+	 */
+	public boolean cancel(long handle) {
+		int slot = (int) handle;
+		int generation = (int) (handle >>> 32);
+		if (slot < 0 || slot >= slotCount) return false;
+		if (generations[slot] != generation || slotIndices[slot] < 0) return false;
+		removeTween(slotIndices[slot]);
+		return true;
+	}
+	
+	/**
+	 * Cancels all tweens of the given node.
+	 * 
+	 * @param target The node.
+	 */
+	public void cancelAll(SGNode target) {
+		int group = target.getTweenGroup();
+		if (group < 0) return;
+		for (int p = 0; p < PROPERTIES; p++) {
+			int slot = groupTweens[group * PROPERTIES + p];
+			if (slot >= 0) removeTween(slotIndices[slot]);
+		}
+	}
+	
+	/**
+	 * Cancels all tweens.
+	 */
+	public void cancelAll() {
+		while (count > 0)
+			removeTween(count - 1);
+		while (groupCount > 0)
+			removeGroup(groupCount - 1);
+	}
+	
+	/**
+	 * @return The number of active tweens, including the tweens that did not start yet.
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * System method that advances all tweens to the given time and writes the tweened values to
+	 * the nodes. The completion controllers of the tweens that completed are applied afterwards.
+	 * This method should only be called from SGApp.
+	 * 
+	 * @param time The current frame time, in app clock time.
+	 */
+	public void advance(long time) {
+		int doneCount = 0;
+		
+		// Iterate backwards, such that the tween that replaces a removed tween was already visited:
+		for (int i = count - 1; i >= 0; i--) {
+			int group = tweenGroups[i];
+			SGNode node = groupNodes[group];
+			if (node.isDisposed()) {
+				removeTween(i);
+				continue;
+			}
+			long elapsed = time - startTimes[i];
+			if (elapsed < 0) continue; // not started yet
+			
+			float t = durations[i] > 0 ? (float) elapsed / durations[i] : 1;
+			boolean done = t >= 1;
+			if (done) t = 1;
+			float from = fromValues[i];
+			int p = properties[i];
+			groupValues[group * PROPERTIES + p] = from + (toValues[i] - from) * ease(easings[i], t);
+			groupMasks[group] |= 1 << p;
+			
+			if (done) {
+				if (completions[i] != null) {
+					if (doneCount == doneTargets.length) growDone();
+					doneTargets[doneCount] = node;
+					doneControllers[doneCount] = completions[i];
+					doneCount++;
+				}
+				removeTween(i);
+			}
+		}
+		
+		// Write back the tweened values, and remove the groups without tweens:
+		for (int group = groupCount - 1; group >= 0; group--) {
+			int mask = groupMasks[group];
+			if (mask != 0) {
+				groupMasks[group] = 0;
+				SGNode node = groupNodes[group];
+				int base = group * PROPERTIES;
+				node.setTransformation(
+						(mask & 1) != 0 ? groupValues[base] : node.getX(),
+						(mask & 2) != 0 ? groupValues[base + 1] : node.getY(),
+						(mask & 4) != 0 ? groupValues[base + 2] : node.getRotation(),
+						(mask & 8) != 0 ? groupValues[base + 3] : node.getScale());
+			}
+			if (groupCounts[group] == 0) removeGroup(group);
+		}
+		
+		for (int i = 0; i < doneCount; i++) {
+			doneControllers[i].apply(doneTargets[i]);
+			doneTargets[i] = null;
+			doneControllers[i] = null;
+		}
+	}
+	
+	/**
+	 * System method that cancels all tweens. This method should only be called from SGApp.
+	 */
+	public void dispose() {
+		cancelAll();
+		disposed = true;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Returns the current value of the indexed property of the given node. */
+	private static float getValue(SGNode node, int property) {
+		switch (property) {
+			case 0:
+				return node.getX();
+			case 1:
+				return node.getY();
+			case 2:
+				return node.getRotation();
+			default:
+				return node.getScale();
+		}
+	}
+	
+	/* Applies the given easing function on the given linear progress. */
+	private static float ease(Easing easing, float t) {
+		switch (easing) {
+			case QUAD_IN:
+				return t * t;
+			case QUAD_OUT:
+				return t * (2 - t);
+			case QUAD_IN_OUT:
+				return t < .5f ? 2 * t * t : -1 + (4 - 2 * t) * t;
+			case CUBIC_IN:
+				return t * t * t;
+			case CUBIC_OUT:
+				t -= 1;
+				return t * t * t + 1;
+			case CUBIC_IN_OUT:
+				if (t < .5f) return 4 * t * t * t;
+				t = 2 * t - 2;
+				return .5f * t * t * t + 1;
+			case SINE_IN_OUT:
+				return (float) (.5 - .5 * Math.cos(Math.PI * t));
+			default:
+				return t;
+		}
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	// Tweens and groups:
+	
+	/* Removes the indexed tween, frees its slot and moves the last tween in its place. */
+	private void removeTween(int i) {
+		int slot = tweenSlots[i];
+		int group = tweenGroups[i];
+		groupTweens[group * PROPERTIES + properties[i]] = -1;
+		groupCounts[group]--;
+		
+		slotIndices[slot] = -1;
+		generations[slot]++;
+		if (generations[slot] == 0) generations[slot] = 1; // never generate a zero handle
+		freeSlots[freeCount++] = slot;
+		
+		int last = --count;
+		if (i != last) {
+			tweenGroups[i] = tweenGroups[last];
+			properties[i] = properties[last];
+			fromValues[i] = fromValues[last];
+			toValues[i] = toValues[last];
+			startTimes[i] = startTimes[last];
+			durations[i] = durations[last];
+			easings[i] = easings[last];
+			completions[i] = completions[last];
+			tweenSlots[i] = tweenSlots[last];
+			slotIndices[tweenSlots[i]] = i;
+		}
+		easings[last] = null;
+		completions[last] = null;
+	}
+	
+	/* Adds a group for the given node and returns its index. */
+	private int addGroup(SGNode node) {
+		if (groupCount == groupNodes.length) growGroups();
+		int group = groupCount++;
+		groupNodes[group] = node;
+		groupMasks[group] = 0;
+		groupCounts[group] = 0;
+		Arrays.fill(groupTweens, group * PROPERTIES, (group + 1) * PROPERTIES, -1);
+		node.setTweenGroup(group);
+		return group;
+	}
+	
+	/* Removes the indexed group, which should not have tweens, and moves the last group in place. */
+	private void removeGroup(int group) {
+		groupNodes[group].setTweenGroup(-1);
+		int last = --groupCount;
+		if (group != last) {
+			SGNode node = groupNodes[last];
+			groupNodes[group] = node;
+			groupMasks[group] = groupMasks[last];
+			groupCounts[group] = groupCounts[last];
+			int base = group * PROPERTIES, lastBase = last * PROPERTIES;
+			for (int p = 0; p < PROPERTIES; p++) {
+				groupValues[base + p] = groupValues[lastBase + p];
+				int slot = groupTweens[lastBase + p];
+				groupTweens[base + p] = slot;
+				if (slot >= 0) tweenGroups[slotIndices[slot]] = group;
+			}
+			node.setTweenGroup(group);
+		}
+		groupNodes[last] = null;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Doubles the capacity of the tween arrays. */
+	private void growTweens() {
+		int capacity = tweenSlots.length * 2;
+		tweenGroups = Arrays.copyOf(tweenGroups, capacity);
+		properties = Arrays.copyOf(properties, capacity);
+		fromValues = Arrays.copyOf(fromValues, capacity);
+		toValues = Arrays.copyOf(toValues, capacity);
+		startTimes = Arrays.copyOf(startTimes, capacity);
+		durations = Arrays.copyOf(durations, capacity);
+		easings = Arrays.copyOf(easings, capacity);
+		completions = Arrays.copyOf(completions, capacity);
+		tweenSlots = Arrays.copyOf(tweenSlots, capacity);
+	}
+	
+	/* Doubles the capacity of the slot arrays. */
+	private void growSlots() {
+		int capacity = slotIndices.length * 2;
+		slotIndices = Arrays.copyOf(slotIndices, capacity);
+		generations = Arrays.copyOf(generations, capacity);
+		freeSlots = Arrays.copyOf(freeSlots, capacity);
+	}
+	
+	/* Doubles the capacity of the group arrays. */
+	private void growGroups() {
+		int capacity = groupNodes.length * 2;
+		groupNodes = Arrays.copyOf(groupNodes, capacity);
+		groupValues = Arrays.copyOf(groupValues, capacity * PROPERTIES);
+		groupMasks = Arrays.copyOf(groupMasks, capacity);
+		groupTweens = Arrays.copyOf(groupTweens, capacity * PROPERTIES);
+		groupCounts = Arrays.copyOf(groupCounts, capacity);
+	}
+	
+	/* Doubles the capacity of the done arrays. */
+	private void growDone() {
+		int capacity = doneTargets.length * 2;
+		doneTargets = Arrays.copyOf(doneTargets, capacity);
+		doneControllers = Arrays.copyOf(doneControllers, capacity);
+	}
+	
+}
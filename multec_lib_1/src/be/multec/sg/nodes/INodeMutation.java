@@ -0,0 +1,19 @@
+package be.multec.sg.nodes;
+
+/**
+ * Interface for a batch of modifications of the children of a container node.
+ * 
+ * @see SGNode#mutate(INodeMutation)
+ * 
+ * @author Wouter Van den Broeck
+ */
+public interface INodeMutation {
+	
+	/**
+	 * Apply the modifications on the given container node.
+	 * 
+	 * @param node The container node on which SGNode.mutate() was called.
+	 */
+	void apply(SGNode node);
+	
+}
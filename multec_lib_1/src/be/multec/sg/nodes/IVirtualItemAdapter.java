@@ -0,0 +1,48 @@
+package be.multec.sg.nodes;
+
+import be.multec.sg.SGApp;
+
+/**
+ * Interface for the data provider of a virtual list or grid. The virtual container only asks for
+ * the items in its viewport and a small margin around it, and reuses the item nodes for other items
+ * when they scroll out of view.
+ * 
+ * @see SGVirtualGrid
+ * @see SGVirtualList
+ * 
+ * @author Wouter Van den Broeck
+ */
+public interface IVirtualItemAdapter {
+	
+	/**
+	 * @return The number of items.
+	 */
+	int getItemCount();
+	
+	/**
+	 * Creates a new node in which items can be shown. The container calls this method only when no
+	 * recycled node is available.
+	 * 
+	 * @param app The scene-graph application object.
+	 * @return The new item node.
+	 */
+	SGNode createItemNode(SGApp app);
+	
+	/**
+	 * Shows the indexed item in the given node, which was created by createItemNode().
+	 * 
+	 * @param node The item node.
+	 * @param index The index of the item.
+	 */
+	void bindItemNode(SGNode node, int index);
+	
+	/**
+	 * Called when the given node no longer shows the indexed item, before the node is recycled.
+	 * Release the resources that were acquired for the item in this method.
+	 * 
+	 * @param node The item node.
+	 * @param index The index of the item that was shown in the node.
+	 */
+	void unbindItemNode(SGNode node, int index);
+	
+}
@@ -0,0 +1,233 @@
+package be.multec.sg.nodes;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+
+import be.multec.sg.SGApp;
+
+/**
+ * A policy that automatically enables the bitmap cache for container nodes with stable and
+ * expensive content, and disables it again when their content turns out to be volatile.
+ * 
+ * For each container node that is drawn, the policy tracks how often it is composited (i.e. drawn
+ * in a frame), in how many frames its content changed (i.e. how often the cache would need to be
+ * re-rasterized) and how long it takes to draw the content. The changes are counted when the
+ * content is invalidated, also when the node is culled, such that a volatile node is not cached
+ * because it was rarely drawn. These statistics are evaluated every EVALUATION_FRAMES frames. A
+ * decision is only applied when it was reached in HYSTERESIS consecutive evaluations, and the
+ * thresholds for enabling and disabling the cache differ, such that nodes do not flip back and
+ * forth.
+ * 
+ * Nodes that were cached manually, nodes in a cached parent and nodes for which
+ * setAutoCacheable(false) was called are left untouched. The decisions are logged with the
+ * SGApp.logger, such that they can be pinned by calling setCached() and setAutoCacheable(false)
+ * on the node.
+ * 
+ * @see SGApp#setAutoCaching(boolean)
+ * @author Wouter Van den Broeck
+ */
+public class SGAutoCachePolicy {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/** The number of frames between two evaluations. */
+	public static int EVALUATION_FRAMES = 60;
+	
+	/** The number of consecutive evaluations that need to reach the same decision. */
+	public static int HYSTERESIS = 2;
+	
+	/** The cache is enabled when the content changes in at most this fraction of the frames. */
+	public static float STABLE_CHANGE_RATIO = .1f;
+	
+	/** The cache is disabled when the content changes in at least this fraction of the frames. */
+	public static float VOLATILE_CHANGE_RATIO = .5f;
+	
+	/** The cache is only enabled when drawing the content takes at least this many milliseconds. */
+	public static float MIN_DRAW_COST = .25f;
+	
+	/** The cache is not enabled for nodes that cover more than this number of pixels. */
+	public static int MAX_CACHE_PIXELS = 2048 * 2048;
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The statistics tracked for a node. */
+	static class NodeStats {
+		
+		/* The tracked node. */
+		final SGNode node;
+		
+		/* The number of frames in which the node was composited in the current period. */
+		int composites = 0;
+		
+		/* The number of frames in which the content of the node changed in the current period. */
+		int changes = 0;
+		
+		/* The frame in which the current period started. */
+		int periodStart;
+		
+		/* The total time spent drawing the content of the node in the current period. */
+		long drawNanos = 0;
+		
+		/* The number of times the content of the node was drawn in the current period. */
+		int draws = 0;
+		
+		/* The number of consecutive evaluations that decided to enable or disable the cache. */
+		int enableVotes = 0;
+		int disableVotes = 0;
+		
+		/* True when the cache was enabled by this policy. */
+		boolean autoCached = false;
+		
+		NodeStats(SGNode node, int frame) {
+			this.node = node;
+			periodStart = frame;
+		}
+		
+		void reset(int frame) {
+			composites = changes = draws = 0;
+			drawNanos = 0;
+			periodStart = frame;
+		}
+		
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The statistics for the tracked nodes. */
+	private final List<NodeStats> tracked = new ArrayList<NodeStats>();
+	
+	/* The number of frames since the previous evaluation. */
+	private int frames = 0;
+	
+	/* The number of frames drawn since this policy was created. */
+	int frame = 0;
+	
+	/* True when the policy is active. */
+	private boolean active = true;
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * System method that is called after each draw traversal. This method should only be called
+	 * from SGApp.
+	 */
+	public void frameDrawn() {
+		frame++;
+		if (++frames < EVALUATION_FRAMES) return;
+		frames = 0;
+		evaluate();
+	}
+	
+	/**
+	 * System method that deactivates this policy. The caches that were enabled by this policy are
+	 * disabled. This method should only be called from SGApp.
+	 */
+	public void deactivate() {
+		active = false;
+		for (NodeStats stats : tracked) {
+			if (stats.autoCached && !stats.node.isDisposed()) stats.node.setCached(false);
+			stats.node.autoCacheStats = null;
+		}
+		tracked.clear();
+	}
+	
+	/**
+	 * @return True when this policy is active.
+	 */
+	public boolean isActive() {
+		return active;
+	}
+	
+	/**
+	 * @return The nodes for which the cache is currently enabled by this policy.
+	 */
+	public List<SGNode> getAutoCachedNodes() {
+		List<SGNode> nodes = new ArrayList<SGNode>();
+		for (NodeStats stats : tracked)
+			if (stats.autoCached) nodes.add(stats.node);
+		return nodes;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Starts tracking the given node. */
+	NodeStats track(SGNode node) {
+		NodeStats stats = new NodeStats(node, frame);
+		// the content of a node that is drawn for the first time is new:
+		stats.changes = 1;
+		tracked.add(stats);
+		return stats;
+	}
+	
+	/* Evaluates the statistics of the tracked nodes and applies the decisions. */
+	private void evaluate() {
+		Iterator<NodeStats> iterator = tracked.iterator();
+		while (iterator.hasNext()) {
+			NodeStats stats = iterator.next();
+			SGNode node = stats.node;
+			if (node.isDisposed() || !node.isAddedToSG() || !node.hasChildren()) {
+				// stop tracking nodes that left the scene-graph or are no longer containers:
+				if (stats.autoCached && !node.isDisposed()) node.setCached(false);
+				node.autoCacheStats = null;
+				iterator.remove();
+				continue;
+			}
+			if (stats.autoCached && !node.isCached()) stats.autoCached = false; // disabled manually
+			if (stats.composites > 0 && node.visible() && node.isAutoCacheable()) evaluate(stats);
+			stats.reset(frame);
+		}
+	}
+	
+	/* Evaluates the statistics of the given node. */
+	private void evaluate(NodeStats stats) {
+		SGNode node = stats.node;
+		float changeRatio = (float) stats.changes / Math.max(1, frame - stats.periodStart);
+		float drawCost = stats.draws == 0 ? 0 : stats.drawNanos / 1e6f / stats.draws;
+		
+		if (stats.autoCached) {
+			stats.enableVotes = 0;
+			if (changeRatio >= VOLATILE_CHANGE_RATIO) stats.disableVotes++;
+			else stats.disableVotes = 0;
+			if (stats.disableVotes >= HYSTERESIS) {
+				stats.disableVotes = 0;
+				stats.autoCached = false;
+				node.setCached(false);
+				log("disabled", node, stats, changeRatio, drawCost);
+			}
+		}
+		else if (!node.isCached() && !node.hasCachedParent()) {
+			stats.disableVotes = 0;
+			boolean stable = changeRatio <= STABLE_CHANGE_RATIO;
+			if (stable && drawCost >= MIN_DRAW_COST && fits(node)) stats.enableVotes++;
+			else stats.enableVotes = 0;
+			if (stats.enableVotes >= HYSTERESIS) {
+				stats.enableVotes = 0;
+				stats.autoCached = true;
+				node.setCached(true);
+				log("enabled", node, stats, changeRatio, drawCost);
+			}
+		}
+	}
+	
+	/* @return True when the given node is small enough to be cached. */
+	private boolean fits(SGNode node) {
+		Rectangle bounds = node.getLocalCompositeBounds();
+		return (long) bounds.width * bounds.height <= MAX_CACHE_PIXELS;
+	}
+	
+	/* Logs a decision. */
+	private void log(String decision, SGNode node, NodeStats stats, float changeRatio,
+			float drawCost) {
+		SGApp.logger.log(Level.INFO, "Auto-cache " + decision + " for " + node + " - changed in "
+				+ stats.changes + "/" + (frame - stats.periodStart) + " frames ("
+				+ Math.round(changeRatio * 100) + "%), draw cost: " + drawCost + " ms.");
+	}
+	
+}
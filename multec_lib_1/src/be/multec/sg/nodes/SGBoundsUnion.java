@@ -0,0 +1,119 @@
+package be.multec.sg.nodes;
+
+import java.awt.Rectangle;
+
+/**
+ * The union of a multiset of rectangles that can be maintained incrementally. Empty rectangles are
+ * ignored. For each of the four edges of the union, the number of rectangles that lie on that edge
+ * is counted. Adding a rectangle is thus an O(1) operation. Removing a rectangle is an O(1)
+ * operation too, unless it was the last rectangle on one of the edges, in which case the union
+ * becomes invalid and needs to be rebuilt by the owner.
+ * 
+ * @author Wouter Van den Broeck
+ */
+final class SGBoundsUnion {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The edges of the union. */
+	private int minX, minY, maxX, maxY;
+	
+	/* The number of rectangles that lie on each edge. */
+	private int minXCount, minYCount, maxXCount, maxYCount;
+	
+	/* The number of non-empty rectangles in the union. */
+	private int count = 0;
+	
+	/* False when an edge was lost and the union needs to be rebuilt. */
+	private boolean valid = true;
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/** Removes all rectangles and makes the union valid again. */
+	void clear() {
+		count = 0;
+		valid = true;
+	}
+	
+	/**
+	 * @return False when the union needs to be rebuilt.
+	 */
+	boolean isValid() {
+		return valid;
+	}
+	
+	/**
+	 * @return True when the union does not contain any non-empty rectangles.
+	 */
+	boolean isEmpty() {
+		return count == 0;
+	}
+	
+	/**
+	 * Adds the given rectangle to the union. Empty rectangles are ignored.
+	 * 
+	 * @param r The rectangle.
+	 */
+	void add(Rectangle r) {
+		if (!valid || r.isEmpty()) return;
+		int x2 = r.x + r.width, y2 = r.y + r.height;
+		if (count++ == 0) {
+			minX = r.x;
+			minY = r.y;
+			maxX = x2;
+			maxY = y2;
+			minXCount = minYCount = maxXCount = maxYCount = 1;
+			return;
+		}
+		if (r.x < minX) {
+			minX = r.x;
+			minXCount = 1;
+		}
+		else if (r.x == minX) minXCount++;
+		if (r.y < minY) {
+			minY = r.y;
+			minYCount = 1;
+		}
+		else if (r.y == minY) minYCount++;
+		if (x2 > maxX) {
+			maxX = x2;
+			maxXCount = 1;
+		}
+		else if (x2 == maxX) maxXCount++;
+		if (y2 > maxY) {
+			maxY = y2;
+			maxYCount = 1;
+		}
+		else if (y2 == maxY) maxYCount++;
+	}
+	
+	/**
+	 * Removes the given rectangle, which should have been added before, from the union. Empty
+	 * rectangles are ignored. The union becomes invalid when the rectangle was the last one on one
+	 * of the edges.
+	 * 
+	 * @param r The rectangle.
+	 */
+	void remove(Rectangle r) {
+		if (!valid || r.isEmpty()) return;
+		if (--count == 0) return;
+		if (r.x == minX && --minXCount == 0) valid = false;
+		if (r.y == minY && --minYCount == 0) valid = false;
+		if (r.x + r.width == maxX && --maxXCount == 0) valid = false;
+		if (r.y + r.height == maxY && --maxYCount == 0) valid = false;
+	}
+	
+	/**
+	 * Sets the union in the given rectangle. The union should be valid and not empty.
+	 * 
+	 * @param target The rectangle in which to set the union.
+	 */
+	void get(Rectangle target) {
+		target.setBounds(minX, minY, maxX - minX, maxY - minY);
+	}
+	
+}
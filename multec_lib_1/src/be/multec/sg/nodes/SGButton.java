@@ -6,6 +6,7 @@ import processing.core.PGraphics;
 import processing.core.PImage;
 import processing.core.PVector;
 import be.multec.sg.SGApp;
+import be.multec.sg.SGAssets;
 import be.multec.sg.eventHandlers.SGMouseEventHandler;
 
 /**
@@ -85,7 +86,7 @@ public class SGButton extends SGRect {
 		
 		this.outColor = outColor;
 		this.overColor = overColor;
-		this.icon = app.loadImage(path);
+		this.icon = SGAssets.getShared().getImage(app, path);
 		showIcon = true;
 		init();
 	}
@@ -115,7 +116,7 @@ public class SGButton extends SGRect {
 	// ---------------------------------------------------------------------------------------------
 	
 	public SGButton setIcon(String path) {
-		this.icon = app.loadImage(path);
+		this.icon = SGAssets.getShared().getImage(app, path);
 		showIcon = true;
 		redraw(); // "SGButton.setIcon(String) [" + this + "]");
 		return this;
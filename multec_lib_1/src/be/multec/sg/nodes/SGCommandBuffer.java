@@ -0,0 +1,399 @@
+package be.multec.sg.nodes;
+
+import java.util.Arrays;
+
+import processing.core.PConstants;
+import processing.core.PFont;
+import processing.core.PGraphics;
+import processing.core.PImage;
+import be.multec.sg.SGTextLayoutCache;
+
+/**
+ * A compact buffer of recorded draw commands. The commands are stored in primitive arrays: an
+ * array with the opcodes and the integer operands, an array with the float operands and an array
+ * with the referenced objects (images, fonts and strings). The buffer is filled by a
+ * SGCommandRecorder and can be replayed on any PGraphics object.
+ * 
+ * @see SGCommandRecorder
+ * @author Wouter Van den Broeck
+ */
+final class SGCommandBuffer {
+	
+	// *********************************************************************************************
+	// Opcodes:
+	// ---------------------------------------------------------------------------------------------
+	
+	static final int PUSH_STYLE = 1;
+	static final int POP_STYLE = 2;
+	static final int PUSH_MATRIX = 3;
+	static final int POP_MATRIX = 4;
+	static final int TRANSLATE = 5;
+	static final int ROTATE = 6;
+	static final int SCALE = 7;
+	static final int SCALE_XY = 8;
+	static final int APPLY_MATRIX = 9;
+	
+	static final int FILL_RGB = 10;
+	static final int FILL_RGB_ALPHA = 11;
+	static final int FILL_GRAY = 12;
+	static final int FILL_GRAY_ALPHA = 13;
+	static final int FILL_XYZ = 14;
+	static final int FILL_XYZ_ALPHA = 15;
+	static final int NO_FILL = 16;
+	
+	static final int STROKE_RGB = 20;
+	static final int STROKE_RGB_ALPHA = 21;
+	static final int STROKE_GRAY = 22;
+	static final int STROKE_GRAY_ALPHA = 23;
+	static final int STROKE_XYZ = 24;
+	static final int STROKE_XYZ_ALPHA = 25;
+	static final int NO_STROKE = 26;
+	static final int STROKE_WEIGHT = 27;
+	static final int STROKE_CAP = 28;
+	static final int STROKE_JOIN = 29;
+	
+	static final int TINT_RGB = 30;
+	static final int TINT_RGB_ALPHA = 31;
+	static final int TINT_GRAY = 32;
+	static final int TINT_GRAY_ALPHA = 33;
+	static final int TINT_XYZ = 34;
+	static final int TINT_XYZ_ALPHA = 35;
+	static final int NO_TINT = 36;
+	
+	static final int COLOR_MODE = 40;
+	static final int COLOR_MODE_MAX = 41;
+	static final int COLOR_MODE_XYZ = 42;
+	static final int COLOR_MODE_XYZA = 43;
+	static final int BLEND_MODE = 44;
+	
+	static final int RECT_MODE = 50;
+	static final int RECT = 51;
+	static final int ELLIPSE_MODE = 52;
+	static final int ELLIPSE = 53;
+	static final int LINE = 54;
+	static final int IMAGE_MODE = 55;
+	static final int IMAGE = 56;
+	
+	static final int BEGIN_SHAPE = 60;
+	static final int END_SHAPE = 61;
+	static final int VERTEX = 62;
+	static final int BEZIER_VERTEX = 63;
+	static final int QUADRATIC_VERTEX = 64;
+	static final int CURVE_VERTEX = 65;
+	static final int BEGIN_CONTOUR = 66;
+	static final int END_CONTOUR = 67;
+	
+	static final int TEXT_FONT = 70;
+	static final int TEXT_FONT_SIZE = 71;
+	static final int TEXT_SIZE = 72;
+	static final int TEXT_ALIGN = 73;
+	static final int TEXT_ALIGN_XY = 74;
+	static final int TEXT_LEADING = 75;
+	static final int TEXT = 76;
+	static final int TEXT_BOX = 77;
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The opcodes, each followed by its integer operands. */
+	private int[] ints = new int[32];
+	private int intCount = 0;
+	
+	/* The float operands. */
+	private float[] floats = new float[64];
+	private int floatCount = 0;
+	
+	/* The referenced objects. */
+	private Object[] objects = new Object[4];
+	private int objectCount = 0;
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/** Removes all commands from this buffer. */
+	void clear() {
+		Arrays.fill(objects, 0, objectCount, null);
+		intCount = floatCount = objectCount = 0;
+	}
+	
+	/**
+	 * @return True when this buffer does not contain any commands.
+	 */
+	boolean isEmpty() {
+		return intCount == 0;
+	}
+	
+	/**
+	 * @return The (estimated) number of bytes used by the recorded commands.
+	 */
+	int getByteSize() {
+		return 4 * (intCount + floatCount + objectCount);
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/** Appends an opcode or an integer operand. */
+	void add(int value) {
+		if (intCount == ints.length) ints = Arrays.copyOf(ints, intCount * 2);
+		ints[intCount++] = value;
+	}
+	
+	/** Appends a float operand. */
+	void add(float value) {
+		if (floatCount == floats.length) floats = Arrays.copyOf(floats, floatCount * 2);
+		floats[floatCount++] = value;
+	}
+	
+	/** Appends an object operand. */
+	void add(Object value) {
+		if (objectCount == objects.length) objects = Arrays.copyOf(objects, objectCount * 2);
+		objects[objectCount++] = value;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Replays the recorded commands on the given canvas.
+	 * 
+	 * @param g The PGraphics canvas on which to draw.
+	 */
+	void replay(PGraphics g) {
+		final int[] i = ints;
+		final float[] f = floats;
+		final Object[] o = objects;
+		int ip = 0, fp = 0, op = 0;
+		while (ip < intCount) {
+			switch (i[ip++]) {
+				case PUSH_STYLE:
+					g.pushStyle();
+					break;
+				case POP_STYLE:
+					g.popStyle();
+					break;
+				case PUSH_MATRIX:
+					g.pushMatrix();
+					break;
+				case POP_MATRIX:
+					g.popMatrix();
+					break;
+				case TRANSLATE:
+					g.translate(f[fp], f[fp + 1]);
+					fp += 2;
+					break;
+				case ROTATE:
+					g.rotate(f[fp++]);
+					break;
+				case SCALE:
+					g.scale(f[fp++]);
+					break;
+				case SCALE_XY:
+					g.scale(f[fp], f[fp + 1]);
+					fp += 2;
+					break;
+				case APPLY_MATRIX:
+					g.applyMatrix(f[fp], f[fp + 1], f[fp + 2], f[fp + 3], f[fp + 4], f[fp + 5]);
+					fp += 6;
+					break;
+				
+				case FILL_RGB:
+					g.fill(i[ip++]);
+					break;
+				case FILL_RGB_ALPHA:
+					g.fill(i[ip++], f[fp++]);
+					break;
+				case FILL_GRAY:
+					g.fill(f[fp++]);
+					break;
+				case FILL_GRAY_ALPHA:
+					g.fill(f[fp], f[fp + 1]);
+					fp += 2;
+					break;
+				case FILL_XYZ:
+					g.fill(f[fp], f[fp + 1], f[fp + 2]);
+					fp += 3;
+					break;
+				case FILL_XYZ_ALPHA:
+					g.fill(f[fp], f[fp + 1], f[fp + 2], f[fp + 3]);
+					fp += 4;
+					break;
+				case NO_FILL:
+					g.noFill();
+					break;
+				
+				case STROKE_RGB:
+					g.stroke(i[ip++]);
+					break;
+				case STROKE_RGB_ALPHA:
+					g.stroke(i[ip++], f[fp++]);
+					break;
+				case STROKE_GRAY:
+					g.stroke(f[fp++]);
+					break;
+				case STROKE_GRAY_ALPHA:
+					g.stroke(f[fp], f[fp + 1]);
+					fp += 2;
+					break;
+				case STROKE_XYZ:
+					g.stroke(f[fp], f[fp + 1], f[fp + 2]);
+					fp += 3;
+					break;
+				case STROKE_XYZ_ALPHA:
+					g.stroke(f[fp], f[fp + 1], f[fp + 2], f[fp + 3]);
+					fp += 4;
+					break;
+				case NO_STROKE:
+					g.noStroke();
+					break;
+				case STROKE_WEIGHT:
+					g.strokeWeight(f[fp++]);
+					break;
+				case STROKE_CAP:
+					g.strokeCap(i[ip++]);
+					break;
+				case STROKE_JOIN:
+					g.strokeJoin(i[ip++]);
+					break;
+				
+				case TINT_RGB:
+					g.tint(i[ip++]);
+					break;
+				case TINT_RGB_ALPHA:
+					g.tint(i[ip++], f[fp++]);
+					break;
+				case TINT_GRAY:
+					g.tint(f[fp++]);
+					break;
+				case TINT_GRAY_ALPHA:
+					g.tint(f[fp], f[fp + 1]);
+					fp += 2;
+					break;
+				case TINT_XYZ:
+					g.tint(f[fp], f[fp + 1], f[fp + 2]);
+					fp += 3;
+					break;
+				case TINT_XYZ_ALPHA:
+					g.tint(f[fp], f[fp + 1], f[fp + 2], f[fp + 3]);
+					fp += 4;
+					break;
+				case NO_TINT:
+					g.noTint();
+					break;
+				
+				case COLOR_MODE:
+					g.colorMode(i[ip++]);
+					break;
+				case COLOR_MODE_MAX:
+					g.colorMode(i[ip++], f[fp++]);
+					break;
+				case COLOR_MODE_XYZ:
+					g.colorMode(i[ip++], f[fp], f[fp + 1], f[fp + 2]);
+					fp += 3;
+					break;
+				case COLOR_MODE_XYZA:
+					g.colorMode(i[ip++], f[fp], f[fp + 1], f[fp + 2], f[fp + 3]);
+					fp += 4;
+					break;
+				case BLEND_MODE:
+					g.blendMode(i[ip++]);
+					break;
+				
+				case RECT_MODE:
+					g.rectMode(i[ip++]);
+					break;
+				case RECT:
+					g.rect(f[fp], f[fp + 1], f[fp + 2], f[fp + 3]);
+					fp += 4;
+					break;
+				case ELLIPSE_MODE:
+					g.ellipseMode(i[ip++]);
+					break;
+				case ELLIPSE:
+					g.ellipse(f[fp], f[fp + 1], f[fp + 2], f[fp + 3]);
+					fp += 4;
+					break;
+				case LINE:
+					g.line(f[fp], f[fp + 1], f[fp + 2], f[fp + 3]);
+					fp += 4;
+					break;
+				case IMAGE_MODE:
+					g.imageMode(i[ip++]);
+					break;
+				case IMAGE:
+					g.image((PImage) o[op++], f[fp], f[fp + 1], f[fp + 2], f[fp + 3], i[ip],
+							i[ip + 1], i[ip + 2], i[ip + 3]);
+					fp += 4;
+					ip += 4;
+					break;
+				
+				case BEGIN_SHAPE:
+					g.beginShape(i[ip++]);
+					break;
+				case END_SHAPE:
+					g.endShape(i[ip++]);
+					break;
+				case VERTEX:
+					g.vertex(f[fp], f[fp + 1]);
+					fp += 2;
+					break;
+				case BEZIER_VERTEX:
+					g.bezierVertex(f[fp], f[fp + 1], f[fp + 2], f[fp + 3], f[fp + 4], f[fp + 5]);
+					fp += 6;
+					break;
+				case QUADRATIC_VERTEX:
+					g.quadraticVertex(f[fp], f[fp + 1], f[fp + 2], f[fp + 3]);
+					fp += 4;
+					break;
+				case CURVE_VERTEX:
+					g.curveVertex(f[fp], f[fp + 1]);
+					fp += 2;
+					break;
+				case BEGIN_CONTOUR:
+					g.beginContour();
+					break;
+				case END_CONTOUR:
+					g.endContour();
+					break;
+				
+				case TEXT_FONT:
+					g.textFont((PFont) o[op++]);
+					break;
+				case TEXT_FONT_SIZE:
+					g.textFont((PFont) o[op++], f[fp++]);
+					break;
+				case TEXT_SIZE:
+					g.textSize(f[fp++]);
+					break;
+				case TEXT_ALIGN:
+					g.textAlign(i[ip++]);
+					break;
+				case TEXT_ALIGN_XY:
+					g.textAlign(i[ip], i[ip + 1]);
+					ip += 2;
+					break;
+				case TEXT_LEADING:
+					g.textLeading(f[fp++]);
+					break;
+				case TEXT:
+					g.text((String) o[op++], f[fp], f[fp + 1]);
+					fp += 2;
+					break;
+				case TEXT_BOX:
+					String str = (String) o[op++];
+					if (g.rectMode == PConstants.CORNER && g.textFont != null && f[fp + 2] >= 0) {
+						// reuse the measured and wrapped lines:
+						SGTextLayoutCache.getShared().getLayout(g, str, f[fp + 2])
+								.draw(g, f[fp], f[fp + 1], f[fp + 2], f[fp + 3]);
+					}
+					else g.text(str, f[fp], f[fp + 1], f[fp + 2], f[fp + 3]);
+					fp += 4;
+					break;
+				
+				default:
+					throw new Error("Unexpected opcode " + i[ip - 1] + " in SGCommandBuffer.");
+			}
+		}
+	}
+	
+}
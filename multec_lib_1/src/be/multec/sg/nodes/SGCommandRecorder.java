@@ -0,0 +1,625 @@
+package be.multec.sg.nodes;
+
+import processing.core.PFont;
+import processing.core.PGraphics;
+import processing.core.PImage;
+import processing.core.PMatrix2D;
+import processing.core.PMatrix3D;
+import processing.core.PShape;
+
+/**
+ * A PGraphics object that does not draw anything, but records the draw commands in a
+ * SGCommandBuffer instead. The commands that are used by the nodes in this library are recorded,
+ * including the 2D matrix and style stacks, the shape vertices emitted by PShape objects and
+ * text. The calls that cannot be replayed faithfully (e.g. 3D commands, clipping, direct pixel
+ * access or calls that depend on the state of the canvas) flag the recording as unsupported, in
+ * which case the node falls back on drawing directly.
+ * 
+ * The recorder does not track the state of the canvas, so methods that query this state (such
+ * as textWidth()) do not return meaningful values.
+ * 
+ * @see SGNode#setRetained(boolean)
+ * @author Wouter Van den Broeck
+ */
+final class SGCommandRecorder extends PGraphics {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The buffer in which the commands are recorded, or null when not recording. */
+	private SGCommandBuffer buffer = null;
+	
+	/* True when an unsupported command was called during the current recording. */
+	private boolean unsupported = false;
+	
+	/* The name of the first unsupported command in the current recording. */
+	private String unsupportedCommand = null;
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Starts recording in the given buffer. The buffer is cleared.
+	 */
+	void begin(SGCommandBuffer buffer) {
+		if (this.buffer != null) throw new Error("The recorder is already recording.");
+		buffer.clear();
+		this.buffer = buffer;
+		unsupported = false;
+		unsupportedCommand = null;
+	}
+	
+	/**
+	 * Ends the current recording. The buffer is cleared when the recording is not supported.
+	 * 
+	 * @return False when an unsupported command was called during the recording.
+	 */
+	boolean end() {
+		if (unsupported) buffer.clear();
+		buffer = null;
+		return !unsupported;
+	}
+	
+	/**
+	 * Flags the current recording as unsupported.
+	 * 
+	 * @param command The name of the unsupported command.
+	 */
+	void unsupported(String command) {
+		if (!unsupported) unsupportedCommand = command;
+		unsupported = true;
+	}
+	
+	/**
+	 * @return The name of the first unsupported command in the latest recording, or null.
+	 */
+	String getUnsupportedCommand() {
+		return unsupportedCommand;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Records an opcode. Commands are ignored after the recording was flagged as unsupported. */
+	private void op(int opcode) {
+		if (!unsupported) buffer.add(opcode);
+	}
+	
+	/* Records an opcode followed by an integer operand. */
+	private void op(int opcode, int value) {
+		if (unsupported) return;
+		buffer.add(opcode);
+		buffer.add(value);
+	}
+	
+	/* Records an opcode and the given float operands. */
+	private void op(int opcode, float... values) {
+		if (unsupported) return;
+		buffer.add(opcode);
+		for (float value : values)
+			buffer.add(value);
+	}
+	
+	// *********************************************************************************************
+	// Recorded commands:
+	// ---------------------------------------------------------------------------------------------
+	// Matrix and style stacks:
+	
+	@Override
+	public void pushStyle() {
+		op(SGCommandBuffer.PUSH_STYLE);
+	}
+	
+	@Override
+	public void popStyle() {
+		op(SGCommandBuffer.POP_STYLE);
+	}
+	
+	@Override
+	public void pushMatrix() {
+		op(SGCommandBuffer.PUSH_MATRIX);
+	}
+	
+	@Override
+	public void popMatrix() {
+		op(SGCommandBuffer.POP_MATRIX);
+	}
+	
+	@Override
+	public void translate(float x, float y) {
+		op(SGCommandBuffer.TRANSLATE, x, y);
+	}
+	
+	@Override
+	public void rotate(float angle) {
+		op(SGCommandBuffer.ROTATE, angle);
+	}
+	
+	@Override
+	public void scale(float s) {
+		op(SGCommandBuffer.SCALE, s);
+	}
+	
+	@Override
+	public void scale(float x, float y) {
+		op(SGCommandBuffer.SCALE_XY, x, y);
+	}
+	
+	@Override
+	public void applyMatrix(float n00, float n01, float n02, float n10, float n11, float n12) {
+		op(SGCommandBuffer.APPLY_MATRIX, n00, n01, n02, n10, n11, n12);
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	// Colors:
+	
+	@Override
+	public void fill(int rgb) {
+		op(SGCommandBuffer.FILL_RGB, rgb);
+	}
+	
+	@Override
+	public void fill(int rgb, float alpha) {
+		op(SGCommandBuffer.FILL_RGB_ALPHA, rgb);
+		if (!unsupported) buffer.add(alpha);
+	}
+	
+	@Override
+	public void fill(float gray) {
+		op(SGCommandBuffer.FILL_GRAY, gray);
+	}
+	
+	@Override
+	public void fill(float gray, float alpha) {
+		op(SGCommandBuffer.FILL_GRAY_ALPHA, gray, alpha);
+	}
+	
+	@Override
+	public void fill(float v1, float v2, float v3) {
+		op(SGCommandBuffer.FILL_XYZ, v1, v2, v3);
+	}
+	
+	@Override
+	public void fill(float v1, float v2, float v3, float alpha) {
+		op(SGCommandBuffer.FILL_XYZ_ALPHA, v1, v2, v3, alpha);
+	}
+	
+	@Override
+	public void noFill() {
+		op(SGCommandBuffer.NO_FILL);
+	}
+	
+	@Override
+	public void stroke(int rgb) {
+		op(SGCommandBuffer.STROKE_RGB, rgb);
+	}
+	
+	@Override
+	public void stroke(int rgb, float alpha) {
+		op(SGCommandBuffer.STROKE_RGB_ALPHA, rgb);
+		if (!unsupported) buffer.add(alpha);
+	}
+	
+	@Override
+	public void stroke(float gray) {
+		op(SGCommandBuffer.STROKE_GRAY, gray);
+	}
+	
+	@Override
+	public void stroke(float gray, float alpha) {
+		op(SGCommandBuffer.STROKE_GRAY_ALPHA, gray, alpha);
+	}
+	
+	@Override
+	public void stroke(float v1, float v2, float v3) {
+		op(SGCommandBuffer.STROKE_XYZ, v1, v2, v3);
+	}
+	
+	@Override
+	public void stroke(float v1, float v2, float v3, float alpha) {
+		op(SGCommandBuffer.STROKE_XYZ_ALPHA, v1, v2, v3, alpha);
+	}
+	
+	@Override
+	public void noStroke() {
+		op(SGCommandBuffer.NO_STROKE);
+	}
+	
+	@Override
+	public void strokeWeight(float weight) {
+		op(SGCommandBuffer.STROKE_WEIGHT, weight);
+	}
+	
+	@Override
+	public void strokeCap(int cap) {
+		op(SGCommandBuffer.STROKE_CAP, cap);
+	}
+	
+	@Override
+	public void strokeJoin(int join) {
+		op(SGCommandBuffer.STROKE_JOIN, join);
+	}
+	
+	@Override
+	public void tint(int rgb) {
+		op(SGCommandBuffer.TINT_RGB, rgb);
+	}
+	
+	@Override
+	public void tint(int rgb, float alpha) {
+		op(SGCommandBuffer.TINT_RGB_ALPHA, rgb);
+		if (!unsupported) buffer.add(alpha);
+	}
+	
+	@Override
+	public void tint(float gray) {
+		op(SGCommandBuffer.TINT_GRAY, gray);
+	}
+	
+	@Override
+	public void tint(float gray, float alpha) {
+		op(SGCommandBuffer.TINT_GRAY_ALPHA, gray, alpha);
+	}
+	
+	@Override
+	public void tint(float v1, float v2, float v3) {
+		op(SGCommandBuffer.TINT_XYZ, v1, v2, v3);
+	}
+	
+	@Override
+	public void tint(float v1, float v2, float v3, float alpha) {
+		op(SGCommandBuffer.TINT_XYZ_ALPHA, v1, v2, v3, alpha);
+	}
+	
+	@Override
+	public void noTint() {
+		op(SGCommandBuffer.NO_TINT);
+	}
+	
+	@Override
+	public void colorMode(int mode) {
+		op(SGCommandBuffer.COLOR_MODE, mode);
+	}
+	
+	@Override
+	public void colorMode(int mode, float max) {
+		op(SGCommandBuffer.COLOR_MODE_MAX, mode);
+		if (!unsupported) buffer.add(max);
+	}
+	
+	@Override
+	public void colorMode(int mode, float max1, float max2, float max3) {
+		op(SGCommandBuffer.COLOR_MODE_XYZ, mode);
+		if (!unsupported) {
+			buffer.add(max1);
+			buffer.add(max2);
+			buffer.add(max3);
+		}
+	}
+	
+	@Override
+	public void colorMode(int mode, float maxX, float maxY, float maxZ, float maxA) {
+		op(SGCommandBuffer.COLOR_MODE_XYZA, mode);
+		if (!unsupported) {
+			buffer.add(maxX);
+			buffer.add(maxY);
+			buffer.add(maxZ);
+			buffer.add(maxA);
+		}
+	}
+	
+	@Override
+	public void blendMode(int mode) {
+		op(SGCommandBuffer.BLEND_MODE, mode);
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	// Primitives and images:
+	
+	@Override
+	public void rectMode(int mode) {
+		op(SGCommandBuffer.RECT_MODE, mode);
+	}
+	
+	@Override
+	public void rect(float a, float b, float c, float d) {
+		op(SGCommandBuffer.RECT, a, b, c, d);
+	}
+	
+	@Override
+	public void ellipseMode(int mode) {
+		op(SGCommandBuffer.ELLIPSE_MODE, mode);
+	}
+	
+	@Override
+	public void ellipse(float a, float b, float c, float d) {
+		op(SGCommandBuffer.ELLIPSE, a, b, c, d);
+	}
+	
+	@Override
+	public void line(float x1, float y1, float x2, float y2) {
+		op(SGCommandBuffer.LINE, x1, y1, x2, y2);
+	}
+	
+	@Override
+	public void imageMode(int mode) {
+		op(SGCommandBuffer.IMAGE_MODE, mode);
+	}
+	
+	@Override
+	public void image(PImage img, float a, float b, float c, float d, int u1, int v1, int u2,
+			int v2) {
+		op(SGCommandBuffer.IMAGE, a, b, c, d);
+		if (unsupported) return;
+		buffer.add(u1);
+		buffer.add(v1);
+		buffer.add(u2);
+		buffer.add(v2);
+		buffer.add(img);
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	// Shapes:
+	
+	@Override
+	public void beginShape(int kind) {
+		op(SGCommandBuffer.BEGIN_SHAPE, kind);
+	}
+	
+	@Override
+	public void endShape(int mode) {
+		op(SGCommandBuffer.END_SHAPE, mode);
+	}
+	
+	@Override
+	public void vertex(float x, float y) {
+		op(SGCommandBuffer.VERTEX, x, y);
+	}
+	
+	@Override
+	public void bezierVertex(float x2, float y2, float x3, float y3, float x4, float y4) {
+		op(SGCommandBuffer.BEZIER_VERTEX, x2, y2, x3, y3, x4, y4);
+	}
+	
+	@Override
+	public void quadraticVertex(float cx, float cy, float x3, float y3) {
+		op(SGCommandBuffer.QUADRATIC_VERTEX, cx, cy, x3, y3);
+	}
+	
+	@Override
+	public void curveVertex(float x, float y) {
+		op(SGCommandBuffer.CURVE_VERTEX, x, y);
+	}
+	
+	@Override
+	public void beginContour() {
+		op(SGCommandBuffer.BEGIN_CONTOUR);
+	}
+	
+	@Override
+	public void endContour() {
+		op(SGCommandBuffer.END_CONTOUR);
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	// Text:
+	
+	@Override
+	public void textFont(PFont which) {
+		op(SGCommandBuffer.TEXT_FONT);
+		if (!unsupported) buffer.add(which);
+	}
+	
+	@Override
+	public void textFont(PFont which, float size) {
+		op(SGCommandBuffer.TEXT_FONT_SIZE, size);
+		if (!unsupported) buffer.add(which);
+	}
+	
+	@Override
+	public void textSize(float size) {
+		op(SGCommandBuffer.TEXT_SIZE, size);
+	}
+	
+	@Override
+	public void textAlign(int alignX) {
+		op(SGCommandBuffer.TEXT_ALIGN, alignX);
+	}
+	
+	@Override
+	public void textAlign(int alignX, int alignY) {
+		op(SGCommandBuffer.TEXT_ALIGN_XY, alignX);
+		if (!unsupported) buffer.add(alignY);
+	}
+	
+	@Override
+	public void textLeading(float leading) {
+		op(SGCommandBuffer.TEXT_LEADING, leading);
+	}
+	
+	@Override
+	public void text(String str, float x, float y) {
+		op(SGCommandBuffer.TEXT, x, y);
+		if (!unsupported) buffer.add(str);
+	}
+	
+	@Override
+	public void text(String str, float x1, float y1, float x2, float y2) {
+		op(SGCommandBuffer.TEXT_BOX, x1, y1, x2, y2);
+		if (!unsupported) buffer.add(str);
+	}
+	
+	// *********************************************************************************************
+	// Unsupported commands:
+	// ---------------------------------------------------------------------------------------------
+	
+	@Override
+	public void shape(PShape shape) {
+		unsupported("shape");
+	}
+	
+	@Override
+	public void shape(PShape shape, float x, float y) {
+		unsupported("shape");
+	}
+	
+	@Override
+	public void shape(PShape shape, float a, float b, float c, float d) {
+		unsupported("shape");
+	}
+	
+	@Override
+	public void shapeMode(int mode) {
+		unsupported("shapeMode");
+	}
+	
+	@Override
+	public void texture(PImage image) {
+		unsupported("texture");
+	}
+	
+	@Override
+	public void vertex(float x, float y, float z) {
+		unsupported("vertex");
+	}
+	
+	@Override
+	public void vertex(float[] v) {
+		unsupported("vertex");
+	}
+	
+	@Override
+	public void vertex(float x, float y, float u, float v) {
+		unsupported("vertex");
+	}
+	
+	@Override
+	public void vertex(float x, float y, float z, float u, float v) {
+		unsupported("vertex");
+	}
+	
+	@Override
+	protected void rectImpl(float x1, float y1, float x2, float y2, float tl, float tr, float br,
+			float bl) {
+		unsupported("rect");
+	}
+	
+	@Override
+	protected void arcImpl(float x, float y, float w, float h, float start, float stop, int mode) {
+		unsupported("arc");
+	}
+	
+	@Override
+	public void box(float w, float h, float d) {
+		unsupported("box");
+	}
+	
+	@Override
+	public void sphere(float r) {
+		unsupported("sphere");
+	}
+	
+	@Override
+	protected void textLineImpl(char buffer[], int start, int stop, float x, float y) {
+		unsupported("text");
+	}
+	
+	@Override
+	protected void textCharImpl(char ch, float x, float y) {
+		unsupported("text");
+	}
+	
+	@Override
+	public void textMode(int mode) {
+		unsupported("textMode");
+	}
+	
+	@Override
+	public void translate(float x, float y, float z) {
+		unsupported("translate");
+	}
+	
+	@Override
+	public void rotateX(float angle) {
+		unsupported("rotateX");
+	}
+	
+	@Override
+	public void rotateY(float angle) {
+		unsupported("rotateY");
+	}
+	
+	@Override
+	public void rotateZ(float angle) {
+		unsupported("rotateZ");
+	}
+	
+	@Override
+	public void rotate(float angle, float x, float y, float z) {
+		unsupported("rotate");
+	}
+	
+	@Override
+	public void scale(float x, float y, float z) {
+		unsupported("scale");
+	}
+	
+	@Override
+	public void shearX(float angle) {
+		unsupported("shearX");
+	}
+	
+	@Override
+	public void shearY(float angle) {
+		unsupported("shearY");
+	}
+	
+	@Override
+	public void applyMatrix(float n00, float n01, float n02, float n03, float n10, float n11,
+			float n12, float n13, float n20, float n21, float n22, float n23, float n30, float n31,
+			float n32, float n33) {
+		unsupported("applyMatrix");
+	}
+	
+	@Override
+	public void resetMatrix() {
+		unsupported("resetMatrix");
+	}
+	
+	@Override
+	public void setMatrix(PMatrix2D source) {
+		unsupported("setMatrix");
+	}
+	
+	@Override
+	public void setMatrix(PMatrix3D source) {
+		unsupported("setMatrix");
+	}
+	
+	@Override
+	protected void clipImpl(float x1, float y1, float x2, float y2) {
+		unsupported("clip");
+	}
+	
+	@Override
+	public void noClip() {
+		unsupported("noClip");
+	}
+	
+	@Override
+	protected void backgroundImpl() {
+		unsupported("background");
+	}
+	
+	@Override
+	public void hint(int which) {
+		unsupported("hint");
+	}
+	
+	@Override
+	public void loadPixels() {
+		unsupported("loadPixels");
+	}
+	
+}
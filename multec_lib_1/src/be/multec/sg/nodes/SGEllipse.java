@@ -43,6 +43,8 @@ public class SGEllipse extends SGFigure {
 		super(app, fillColor);
 		this.diamX = diamX;
 		this.diamY = diamY;
+		// Subclasses may override draw(), so they have to declare it thread-safe themselves:
+		setDrawThreadSafe(getClass() == SGEllipse.class);
 	}
 	
 	/**
@@ -53,6 +55,7 @@ public class SGEllipse extends SGFigure {
 	public SGEllipse(SGApp app, float diam, Color fillColor) {
 		super(app, fillColor);
 		this.diamX = this.diamY = diam;
+		setDrawThreadSafe(getClass() == SGEllipse.class);
 	}
 	
 	/**
@@ -69,6 +72,7 @@ public class SGEllipse extends SGFigure {
 		super(app, fillColor, strokeColor, strokeWeight);
 		this.diamX = diamX;
 		this.diamY = diamY;
+		setDrawThreadSafe(getClass() == SGEllipse.class);
 	}
 	
 	/**
@@ -81,6 +85,7 @@ public class SGEllipse extends SGFigure {
 	public SGEllipse(SGApp app, float diam, Color fillColor, Color strokeColor, int strokeWeight) {
 		super(app, fillColor, strokeColor, strokeWeight);
 		this.diamX = this.diamY = diam;
+		setDrawThreadSafe(getClass() == SGEllipse.class);
 	}
 	
 	// *********************************************************************************************
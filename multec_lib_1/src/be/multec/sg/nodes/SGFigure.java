@@ -1,6 +1,7 @@
 package be.multec.sg.nodes;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 
 import processing.core.PApplet;
 import processing.core.PGraphics;
@@ -238,7 +239,33 @@ abstract public class SGFigure extends SGNode {
 		// println(">> SGFigure.drawNode() - this: " + this);
 		
 		g.pushStyle();
-		
+		applyStyle(g);
+		super.drawNode(g);
+		g.popStyle();
+	}
+	
+	/* @see be.multec.sg.SGNode#drawTile(processing.core.PGraphics, java.awt.Rectangle) */
+	@Override
+	public void drawTile(PGraphics g, Rectangle tileRect) {
+		g.pushStyle();
+		applyStyle(g);
+		super.drawTile(g, tileRect);
+		g.popStyle();
+	}
+	
+	/*
+	 * Figures with another blend mode than BLEND are not drawn on the tiles, since they would be
+	 * blended with the transparent tile instead of with the content below.
+	 * 
+	 * @see be.multec.sg.SGNode#isDrawThreadSafe()
+	 */
+	@Override
+	public boolean isDrawThreadSafe() {
+		return super.isDrawThreadSafe() && blendMode == BLEND;
+	}
+	
+	/* Applies the fill, stroke and blend mode of this figure. */
+	private void applyStyle(PGraphics g) {
 		if (filled) g.fill(fillColor.getRGB(), fillColor.getAlpha());
 		else g.noFill();
 		
@@ -249,10 +276,6 @@ abstract public class SGFigure extends SGNode {
 		else g.noStroke();
 		
 		g.blendMode(blendMode);
-		
-		super.drawNode(g);
-		
-		g.popStyle();
 	}
 	
 }
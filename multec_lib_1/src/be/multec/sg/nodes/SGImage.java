@@ -1,12 +1,11 @@
 package be.multec.sg.nodes;
 
 import java.awt.Rectangle;
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
 
 import processing.core.PGraphics;
 import processing.core.PImage;
 import be.multec.sg.SGApp;
+import be.multec.sg.SGAssets;
 
 /**
  * A node that draws a bitmap image.
@@ -113,11 +112,6 @@ public class SGImage extends SGNode {
 	
 	// ---------------------------------------------------------------------------------------------
 	
-	/* A cache of PImage objects, mapped by their path. */
-	private static HashMap<String, SoftReference<PImage>> images = new HashMap<String, SoftReference<PImage>>();
-	
-	// ---------------------------------------------------------------------------------------------
-	
 	/* The original image set by the user. */
 	private PImage sourceImg;
 	
@@ -284,18 +278,7 @@ public class SGImage extends SGNode {
 	// ---------------------------------------------------------------------------------------------
 	
 	private void initImage(String path) {
-		if (images.containsKey(path)) {
-			sourceImg = images.get(path).get();
-			if (sourceImg == null) {
-				// This happens when the soft-referenced PImage was deleted by the garbage
-				// collector.
-				images.remove(path);
-			}
-		}
-		if (sourceImg == null) {
-			sourceImg = app.loadImage(path);
-			images.put(path, new SoftReference<PImage>(sourceImg));
-		}
+		sourceImg = SGAssets.getShared().getImage(app, path);
 		updateImageParams();
 	}
 	
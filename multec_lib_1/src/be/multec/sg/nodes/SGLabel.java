@@ -7,8 +7,13 @@ import processing.core.PConstants;
 import processing.core.PFont;
 import processing.core.PGraphics;
 import be.multec.languages.IMLStringUpdateHandler;
+import be.multec.languages.Language;
 import be.multec.languages.MLString;
+import be.multec.languages.MLStrings;
 import be.multec.sg.SGApp;
+import be.multec.sg.SGAssets;
+import be.multec.sg.SGLabelAtlas;
+import be.multec.sg.SGTextLayoutCache;
 import be.multec.sg.styles.ILabelStyles;
 
 /**
@@ -203,6 +208,21 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 	/* The blend-mode to use when drawing this label. */
 	private int blendMode = BLEND;
 	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// Sprite mode:
+	
+	/* True when this label is pre-rendered as a sprite. */
+	private boolean sprite = false;
+	
+	/* The region of the label atlas that holds the sprite. */
+	private SGLabelAtlas.Region spriteRegion;
+	
+	/* The bounds of the sprite in the local coordinate system. */
+	private final Rectangle spriteRect = new Rectangle();
+	
+	/* True when the sprite should be rendered again. */
+	private boolean spriteDirty = true;
+	
 	// *********************************************************************************************
 	// Constructors:
 	// ---------------------------------------------------------------------------------------------
@@ -468,7 +488,7 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 		if (styles == null) {
 			this.textColor = DEFAULT_TEXT_COLOR;
 			this.textSize = DEFAULT_TEXT_SIZE;
-			this.font = pa.createFont("sans serif", textSize);
+			this.font = SGAssets.getShared().getFont(pa, "sans serif", textSize);
 			this.padding = DEFAULT_TEXT_PADDING;
 			this.bgColor = DEFAULT_BACKGROUND_COLOR;
 			if (labelMode == null) labelMode = DEFAULT_LABEL_MODE;
@@ -479,7 +499,8 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 			this.textColor = styles.getTextColor();
 			this.textSize = styles.getTextSize();
 			this.font = styles.getFont();
-			if (this.font == null) this.font = pa.createFont("sans serif", textSize);
+			if (this.font == null)
+				this.font = SGAssets.getShared().getFont(pa, "sans serif", textSize);
 			this.padding = styles.getPadding();
 			this.bgColor = styles.getBackgroundColor();
 			if (labelMode == null) labelMode = styles.getLabelMode();
@@ -638,7 +659,8 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 		switch (labelMode) {
 		
 			case SIMPLE:
-				LblWidth = app.textWidth(label) + 2 * padding;
+				LblWidth = SGTextLayoutCache.getShared()
+						.getLayout(app.g, label, Float.POSITIVE_INFINITY).getWidth() + 2 * padding;
 				LblHeight = textHeight + 2 * padding;
 				break;
 			
@@ -676,6 +698,7 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 			mlString = null;
 		}
 		font = null;
+		releaseSprite();
 		
 		super.dispose(traverse);
 	}
@@ -698,7 +721,7 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 	 */
 	public void setLabel(String label) {
 		if (this.label == label) return;
-		name = label;
+		this.label = label;
 		if (mlString != null) {
 			mlString.removeUpdateHandler(this);
 			mlString = null;
@@ -747,6 +770,7 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 	public void setTextColor(Color color) {
 		if (this.textColor.equals(color)) return;
 		this.textColor = color;
+		spriteDirty = true;
 		redraw();
 	}
 	
@@ -894,6 +918,7 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 		if (drawBackground && this.bgColor.equals(backgroundColor)) return this;
 		this.bgColor = backgroundColor;
 		drawBackground = true;
+		spriteDirty = true;
 		redraw();
 		return this;
 	}
@@ -902,6 +927,7 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 	public void clearBackground() {
 		drawBackground = false;
 		bgColor = null;
+		spriteDirty = true;
 		redraw();
 	}
 	
@@ -925,6 +951,46 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 		return this;
 	}
 	
+	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	
+	/**
+	 * @return True when this label is pre-rendered as a sprite.
+	 */
+	public boolean isSprite() {
+		return sprite;
+	}
+	
+	/**
+	 * Sets whether this label is pre-rendered as a sprite. In this mode, the label (including the
+	 * background and the padding) is rendered once in a region of the label atlas of the app, and
+	 * this image is copied in the subsequent frames. The sprite is only rendered again when the
+	 * text, the font, the size, the colors, the modes or the multi-language string change. This
+	 * saves the glyph rendering for static labels, but the copied image is scaled and rotated
+	 * along with the label, so use it for labels that are drawn at their natural size.
+	 * 
+	 * Only labels with an opaque background are pre-rendered. Such a sprite is copied without
+	 * blending when the label is drawn at whole pixels, which is several times faster than drawing
+	 * the glyphs. Blending a translucent sprite costs about as much as drawing the glyphs, so the
+	 * other labels are drawn directly. The background of a sprite is extended to whole pixels, and
+	 * the text is clipped to it.
+	 * 
+	 * The sprite is only used on JAVA2D canvases. The label is drawn directly on other canvases,
+	 * when it is recorded in a retained node, and when the atlas is full.
+	 * 
+	 * @param sprite True to pre-render this label as a sprite.
+	 * 
+	 * @default false
+	 * 
+	 * @see SGApp#getLabelAtlas()
+	 */
+	public void setSprite(boolean sprite) {
+		if (this.sprite == sprite) return;
+		this.sprite = sprite;
+		if (!sprite) releaseSprite();
+		spriteDirty = true;
+		redraw();
+	}
+	
 	// *********************************************************************************************
 	// SGApp methods:
 	// ---------------------------------------------------------------------------------------------
@@ -940,6 +1006,12 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 		
 		if (sizeDirty) updateSizes();
 		
+		if (sprite && isJAVA2D(g) && drawSprite(g)) return; // else draw directly
+		drawLabel(g);
+	}
+	
+	/* Draws the background and the text. */
+	private void drawLabel(PGraphics g) {
 		if (drawBackground) {
 			g.fill(bgColor.getRGB(), bgColor.getAlpha());
 			g.noStroke();
@@ -1000,12 +1072,12 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 				break;
 			
 			case BOX:
-				g.text(label, padding, padding + vOffset, textBoxWidth, textBoxHeight);
+				drawTextBox(g, padding, padding + vOffset);
 				break;
 			
 			case BOX_CENTER:
-				g.text(label, Math.round(-LblWidth * .5f) + padding, Math.round(-LblHeight * .5f)
-						+ padding + vOffset, textBoxWidth, textBoxHeight);
+				drawTextBox(g, Math.round(-LblWidth * .5f) + padding, Math.round(-LblHeight * .5f)
+						+ padding + vOffset);
 				break;
 			
 			default:
@@ -1013,9 +1085,95 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 		}
 	}
 	
+	/*
+	 * Copies the sprite of this label onto the given canvas, after rendering it again when it is
+	 * dirty. Returns false when the background is not opaque or when no region could be allocated
+	 * in the atlas.
+	 */
+	private boolean drawSprite(PGraphics g) {
+		if (!drawBackground || bgColor.getAlpha() < 255) {
+			releaseSprite();
+			return false;
+		}
+		SGLabelAtlas atlas = app.getLabelAtlas();
+		if (spriteDirty || spriteRegion == null) {
+			updateSpriteRect();
+			if (spriteRegion != null && (spriteRegion.getWidth() != spriteRect.width
+					|| spriteRegion.getHeight() != spriteRect.height)) releaseSprite();
+			if (spriteRegion == null) {
+				spriteRegion = atlas.allocate(spriteRect.width, spriteRect.height);
+				if (spriteRegion == null) return false; // the atlas is full
+			}
+			PGraphics page = atlas.beginDraw(spriteRegion);
+			page.translate(-spriteRect.x, -spriteRect.y);
+			// the background covers the whole region, such that the sprite is opaque:
+			page.noStroke();
+			page.fill(bgColor.getRGB());
+			page.rectMode(PConstants.CORNER);
+			page.rect(spriteRect.x, spriteRect.y, spriteRect.width, spriteRect.height);
+			drawLabel(page);
+			atlas.endDraw(spriteRegion);
+			spriteDirty = false;
+		}
+		atlas.draw(g, spriteRegion, spriteRect.x, spriteRect.y, true);
+		return true;
+	}
+	
+	/* Sets the sprite rectangle to the bounds of the label, extended to whole pixels. */
+	private void updateSpriteRect() {
+		float x = 0;
+		float y = 0;
+		switch (labelMode) {
+			
+			case SIMPLE:
+				if (hAlignMode == HAlignMode.CENTER) x = -LblWidth * .5f;
+				else if (hAlignMode == HAlignMode.RIGHT) x = -LblWidth;
+			
+				if (vAlignMode == VAlignMode.CENTER) y = -LblHeight * .5f;
+				else if (vAlignMode == VAlignMode.BOTTOM) y = -LblHeight;
+				break;
+			
+			case BOX:
+				break;
+			
+			case BOX_CENTER:
+				x = Math.round(-LblWidth * .5f);
+				y = Math.round(-LblHeight * .5f);
+				break;
+			
+			default:
+				throw new Error("Unexpected label mode '" + labelMode
+						+ "' in SGLabel.updateSpriteRect().");
+		}
+		int left = (int) Math.floor(x);
+		int top = (int) Math.floor(y);
+		spriteRect.setBounds(left, top, (int) Math.ceil(x + LblWidth) - left,
+				(int) Math.ceil(y + LblHeight) - top);
+	}
+	
+	/* Returns the region of the sprite to the atlas. */
+	private void releaseSprite() {
+		if (spriteRegion == null) return;
+		app.getLabelAtlas().release(spriteRegion);
+		spriteRegion = null;
+	}
+	
+	/*
+	 * Draws the label in the text box at the given position. The lines are only measured and
+	 * wrapped again when their layout is not cached.
+	 */
+	private void drawTextBox(PGraphics g, float x, float y) {
+		// the recorded text box is replayed with the cached layout:
+		if (g instanceof SGCommandRecorder || textBoxWidth < 0)
+			g.text(label, x, y, textBoxWidth, textBoxHeight);
+		else SGTextLayoutCache.getShared().getLayout(g, label, textBoxWidth)
+				.draw(g, x, y, textBoxWidth, textBoxHeight);
+	}
+	
 	/* @see be.multec.sg.SGNode#updateLocalBounds(java.awt.Rectangle) */
 	@Override
 	protected void updateLocalBounds(Rectangle bounds) {
+		if (sizeDirty) updateSizes();
 		
 		bounds.y = 0;
 		switch (labelMode) {
@@ -1071,11 +1229,37 @@ public class SGLabel extends SGNode implements IMLStringUpdateHandler {
 		invalidateLabel();
 	}
 	
+	/**
+	 * System method that measures the text of this label in the given language, when this label
+	 * shows a string of the given multi-language strings, such that the layout of the text is
+	 * cached when the language is switched. This method should only be called from SGApp.
+	 * 
+	 * @param strings The multi-language strings.
+	 * @param language The language to which the strings will be switched.
+	 */
+	public void prepareLanguage(MLStrings strings, Language language) {
+		if (mlString == null || mlString.getStrings() != strings || app.g == null || sizeDirty)
+			return; // the label is measured anyway
+		String text = strings.getString(language, mlString.getStringId());
+		
+		// Measure as updateSizes() and drawTextBox() do:
+		app.textFont(font, textSize);
+		if (labelMode == SGLabelMode.SIMPLE) {
+			SGTextLayoutCache.getShared().getLayout(app.g, text, Float.POSITIVE_INFINITY);
+		}
+		else if (textBoxWidth >= 0) {
+			if (leading > -1) app.textLeading(leading);
+			SGTextLayoutCache.getShared().getLayout(app.g, text, textBoxWidth);
+		}
+	}
+	
 	// *********************************************************************************************
 	// SGApp system methods:
 	// ---------------------------------------------------------------------------------------------
 	
 	private void invalidateLabel() {
+		sizeDirty = true; // the sizes are updated when the bounds are validated
+		spriteDirty = true;
 		invalidateLocalBounds();
 		redraw();
 	}
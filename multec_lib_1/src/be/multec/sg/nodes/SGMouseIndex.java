@@ -0,0 +1,177 @@
+package be.multec.sg.nodes;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A uniform grid over the composite bounds of the mouse-children of a container node. It is used
+ * to quickly find the children that might be under the mouse cursor, such that the mouse-events
+ * do not need to be forwarded to every child in turn.
+ * 
+ * The grid is rebuilt lazily, on the first query after it was invalidated. The container
+ * invalidates the grid whenever the composite bounds of one of its children change or when the
+ * collection of mouse-children changes.
+ * 
+ * @author Wouter Van den Broeck
+ */
+final class SGMouseIndex {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The maximum number of columns and rows in the grid. */
+	private static final int MAX_DIVISIONS = 128;
+	
+	/* The candidates returned for positions outside of the grid. */
+	private static final List<SGNode> NO_NODES = Collections.emptyList();
+	
+	/* True when the grid needs to be rebuilt. */
+	private boolean dirty = true;
+	
+	/* The origin of the grid, in the coordinate system of the container. */
+	private int originX, originY;
+	
+	/* The size of the cells. */
+	private float cellWidth, cellHeight;
+	
+	/* The number of columns and rows. */
+	private int cols = 0, rows = 0;
+	
+	/*
+	 * The nodes that overlap each cell, in the order of the mouse-children (i.e. from bottom to
+	 * top). The lists are not modified after they were built, such that they can safely be
+	 * iterated while the grid is rebuilt.
+	 */
+	private List<SGNode>[] cells;
+	
+	/* Bounds to be reused while building. */
+	private Rectangle[] boundsBuffer = new Rectangle[0];
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/** Flags the grid as dirty such that it will be rebuilt on the next query. */
+	void invalidate() {
+		dirty = true;
+	}
+	
+	/**
+	 * Returns the nodes whose composite bounds might contain the given point. The nodes are
+	 * ordered from bottom to top, so iterate in reverse order to respect the z-order. Do not modify
+	 * the returned list.
+	 * 
+	 * @param x The x-coordinate in the coordinate system of the container.
+	 * @param y The y-coordinate in the coordinate system of the container.
+	 * @param children The current mouse-children of the container, used to rebuild the grid.
+	 * @return The candidate nodes, possibly an empty list.
+	 */
+	List<SGNode> query(float x, float y, List<SGNode> children) {
+		if (dirty) build(children);
+		if (cols == 0) return NO_NODES;
+		int col = (int) Math.floor((x - originX) / cellWidth);
+		int row = (int) Math.floor((y - originY) / cellHeight);
+		if (col < 0 || col >= cols || row < 0 || row >= rows) return NO_NODES;
+		return cells[row * cols + col];
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Rebuilds the grid for the given children. */
+	private void build(List<SGNode> children) {
+		dirty = false;
+		
+		// Collect the bounds of the visible children:
+		SGNode[] nodes = children.toArray(new SGNode[children.size()]);
+		int n = nodes.length;
+		if (boundsBuffer.length < n) {
+			Rectangle[] buffer = new Rectangle[n];
+			System.arraycopy(boundsBuffer, 0, buffer, 0, boundsBuffer.length);
+			for (int i = boundsBuffer.length; i < n; i++)
+				buffer[i] = new Rectangle();
+			boundsBuffer = buffer;
+		}
+		int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE;
+		int x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			Rectangle b = boundsBuffer[i];
+			if (!nodes[i].visible()) b.setBounds(0, 0, 0, 0);
+			else b.setBounds(nodes[i].getCompositeBounds());
+			if (b.isEmpty()) continue;
+			x1 = Math.min(x1, b.x);
+			y1 = Math.min(y1, b.y);
+			x2 = Math.max(x2, b.x + b.width);
+			y2 = Math.max(y2, b.y + b.height);
+			count++;
+		}
+		if (count == 0) {
+			cols = rows = 0;
+			cells = null;
+			return;
+		}
+		
+		// Aim for about one child per cell:
+		int width = x2 - x1;
+		int height = y2 - y1;
+		double side = Math.sqrt((double) width * height / count);
+		cols = Math.max(1, Math.min(MAX_DIVISIONS, (int) Math.ceil(width / side)));
+		rows = Math.max(1, Math.min(MAX_DIVISIONS, (int) Math.ceil(height / side)));
+		originX = x1;
+		originY = y1;
+		cellWidth = (float) width / cols;
+		cellHeight = (float) height / rows;
+		
+		// First count the nodes per cell, then fill the cells:
+		int[] sizes = new int[cols * rows];
+		for (int i = 0; i < n; i++) {
+			Rectangle b = boundsBuffer[i];
+			if (b.isEmpty()) continue;
+			int c1 = colOf(b.x), c2 = colOf(b.x + b.width);
+			int r1 = rowOf(b.y), r2 = rowOf(b.y + b.height);
+			for (int r = r1; r <= r2; r++)
+				for (int c = c1; c <= c2; c++)
+					sizes[r * cols + c]++;
+		}
+		SGNode[][] cellNodes = new SGNode[cols * rows][];
+		for (int i = 0; i < cellNodes.length; i++)
+			cellNodes[i] = new SGNode[sizes[i]];
+		int[] fill = new int[cols * rows];
+		for (int i = 0; i < n; i++) {
+			Rectangle b = boundsBuffer[i];
+			if (b.isEmpty()) continue;
+			int c1 = colOf(b.x), c2 = colOf(b.x + b.width);
+			int r1 = rowOf(b.y), r2 = rowOf(b.y + b.height);
+			for (int r = r1; r <= r2; r++)
+				for (int c = c1; c <= c2; c++) {
+					int cell = r * cols + c;
+					cellNodes[cell][fill[cell]++] = nodes[i];
+				}
+		}
+		cells = newCells(cols * rows);
+		for (int i = 0; i < cells.length; i++)
+			cells[i] = sizes[i] == 0 ? NO_NODES : Arrays.asList(cellNodes[i]);
+	}
+	
+	/* Creates an array of cells, which cannot be created directly with the generic element type. */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static List<SGNode>[] newCells(int length) {
+		return new List[length];
+	}
+	
+	/* @return The column for the given x-coordinate, clamped to the grid. */
+	private int colOf(int x) {
+		int col = (int) Math.floor((x - originX) / cellWidth);
+		return Math.max(0, Math.min(cols - 1, col));
+	}
+	
+	/* @return The row for the given y-coordinate, clamped to the grid. */
+	private int rowOf(int y) {
+		int row = (int) Math.floor((y - originY) / cellHeight);
+		return Math.max(0, Math.min(rows - 1, row));
+	}
+	
+}
@@ -2,9 +2,17 @@ package be.multec.sg.nodes;
 
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
 
 import processing.core.PConstants;
 import processing.core.PGraphics;
@@ -15,9 +23,13 @@ import processing.core.PVector;
 import processing.event.KeyEvent;
 import processing.event.MouseEvent;
 import be.multec.sg.SGApp;
+import be.multec.sg.SGFrameStats;
+import be.multec.sg.SGTileRenderer;
 import be.multec.sg.eventHandlers.SGKeyEventHandler;
 import be.multec.sg.eventHandlers.SGMouseEventHandler;
 import be.multec.sg.nodes.controllers.INodeController;
+import be.multec.sg.nodes.controllers.IThreadSafeNodeController;
+import be.multec.sg.utils.SGDirtyRegions;
 
 /**
  * Base class for nodes in a scene-graph. Each node can act as a container of child-nodes.
@@ -161,6 +173,9 @@ public class SGNode extends SGNodeBase implements PConstants {
 			else removeAllNodes();
 		}
 		
+		clearCache(); // before clearing the app, which provides the surface pool
+		cached = cacheContentDirty = cacheSizeDirty = false;
+		
 		app = null;
 		parent = null;
 		isStage = visible = false;
@@ -170,14 +185,18 @@ public class SGNode extends SGNodeBase implements PConstants {
 		
 		localBounds = null;
 		localBoundsChanged = compositeBoundsChanged = false;
+		boundsUnion = null;
+		localContribution = parentContribution = null;
+		changedChildren = null;
 		
-		updatePending = redrawPending = false;
+		updatePending = redrawPending = redrawPendingBelow = false;
+		damageBounds = null;
 		
-		clearCache();
-		cached = cacheContentDirty = cacheSizeDirty = false;
+		commands = null;
+		retained = commandsDirty = commandsRecorded = false;
 		
-		inverseTMatrix = null;
-		inverseTMatrixDirty = false;
+		globalTMatrix = inverseTMatrix = null;
+		globalTMatrixDirty = false;
 		localTMatrix = null;
 		localTMatrixDirty = false;
 		
@@ -318,6 +337,13 @@ public class SGNode extends SGNodeBase implements PConstants {
 		return disposed;
 	}
 	
+	/**
+	 * @return true when this node is part of the scene-graph
+	 */
+	public boolean isAddedToSG() {
+		return addedToSG;
+	}
+	
 	// *********************************************************************************************
 	// Visibility:
 	// ---------------------------------------------------------------------------------------------
@@ -339,10 +365,13 @@ public class SGNode extends SGNodeBase implements PConstants {
 		if (visible) {
 			// TODO: check if the following is really needed...
 			redrawPending = false; // set to false to make sure that the redraw applies
-			redraw(); // "SGNode.setVisible(true) [" + this + "]");
+			requestRedraw(); // "SGNode.setVisible(true) [" + this + "]");
 		}
-		else if (parent != null) parent.redraw(); // "SGNode.setVisible(false) [" + this + "]");
+		else if (forkedRoot) deferredParentOps |= DEFERRED_REDRAW;
+		else if (parent != null) parent.requestRedraw(); // "SGNode.setVisible(false) [..]");
 		invalidateCompositeBounds();
+		// also when the bounds were already changed, since the contribution to the parent changed:
+		if (parent != null && !forkedRoot) parent.childCompositeBoundsChanged(this);
 	}
 	
 	/** Set the visibility of this node to true. */
@@ -571,6 +600,59 @@ public class SGNode extends SGNodeBase implements PConstants {
 		invalidateCompositeBounds();
 	}
 	
+	// *********************************************************************************************
+	// Combined transformation:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The index of the group of this node in the tween engine, or -1 when it is not tweened. */
+	private int tweenGroup = -1;
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Sets the position, the rotation and the scale of this node at once, such that the
+	 * transformation and the composite bounds are invalidated only once. Setting these properties
+	 * one by one invalidates the transformation matrices of all descendants for each property.
+	 * 
+	 * @param x The horizontal position.
+	 * @param y The vertical position.
+	 * @param rotation The rotation in radians (around the z-axis).
+	 * @param scale The scale.
+	 */
+	public void setTransformation(float x, float y, float rotation, float scale) {
+		if (this.x == x && this.y == y && this.rotation == rotation && this.scale == scale) return;
+		this.x = x;
+		this.y = y;
+		this.rotation = rotation;
+		this.scale = scale;
+		applyTranslate = x != 0 || y != 0;
+		applyRotate = rotation != 0;
+		applyScale = scale != 0;
+		applyTransformation = applyTranslate || applyRotate || applyScale;
+		invalidateTransformation();
+		invalidateCompositeBounds();
+	}
+	
+	/**
+	 * System method that returns the index of the group of this node in the tween engine. This
+	 * method should only be called from SGTweenEngine.
+	 * 
+	 * @return The group index, or -1 when this node is not tweened.
+	 */
+	public int getTweenGroup() {
+		return tweenGroup;
+	}
+	
+	/**
+	 * System method that sets the index of the group of this node in the tween engine. This method
+	 * should only be called from SGTweenEngine.
+	 * 
+	 * @param group The group index, or -1 when this node is no longer tweened.
+	 */
+	public void setTweenGroup(int group) {
+		tweenGroup = group;
+	}
+	
 	// *********************************************************************************************
 	// Scene-graph methods:
 	// ---------------------------------------------------------------------------------------------
@@ -609,22 +691,25 @@ public class SGNode extends SGNodeBase implements PConstants {
 	// Container functionality:
 	// ---------------------------------------------------------------------------------------------
 	
-	/** The list of child nodes in this node. */
-	private final CopyOnWriteArrayList<SGNode> children = new CopyOnWriteArrayList<SGNode>();
+	/**
+	 * The list of child nodes in this node. A mutation replaces the list as a whole, such that the
+	 * other threads see either the old or the new children.
+	 */
+	private volatile CopyOnWriteArrayList<SGNode> children = new CopyOnWriteArrayList<SGNode>();
 	
 	/**
 	 * The list of child nodes in this node to which system-mouse-events should be forwarded.
 	 * 
 	 * Note that forwardSysMouseEvents is true when there is one or more nodes in this collection.
 	 */
-	private final CopyOnWriteArrayList<SGNode> mouseChildren = new CopyOnWriteArrayList<SGNode>();
+	private volatile CopyOnWriteArrayList<SGNode> mouseChildren = new CopyOnWriteArrayList<SGNode>();
 	
 	/**
 	 * The list of child nodes in this node to which system-key-events should be forwarded.
 	 * 
 	 * Note that forwardSysMouseEvents is true when there is one or more nodes in this collection.
 	 */
-	private final CopyOnWriteArrayList<SGNode> keyChildren = new CopyOnWriteArrayList<SGNode>();
+	private volatile CopyOnWriteArrayList<SGNode> keyChildren = new CopyOnWriteArrayList<SGNode>();
 	
 	// ---------------------------------------------------------------------------------------------
 	
@@ -635,7 +720,12 @@ public class SGNode extends SGNodeBase implements PConstants {
 		return children.size() > 0;
 	}
 	
-	/** Get the list of child nodes in this container. */
+	/**
+	 * Get the list of child nodes in this container. Do not keep the returned list, because it is
+	 * replaced when a mutation is applied.
+	 * 
+	 * @see SGNode#mutate(INodeMutation)
+	 */
 	public CopyOnWriteArrayList<SGNode> getChildren() {
 		return children;
 	}
@@ -656,10 +746,20 @@ public class SGNode extends SGNodeBase implements PConstants {
 			throw new Error("SGNode.addNode(SGNode) was" + " called (on " + this
 					+ ") with a child that" + " is already part of the scene-graph - container: .");
 		
+		if (mutationChildren != null) {
+			if (child.parent == this) { throw new Error("The child (" + child
+					+ ") is already in the children list (of " + this + ") [in SGNode.addNode]"); }
+			mutationChildren.add(child);
+			attachChild(child);
+			return child;
+		}
+		
 		if (children.contains(child)) { throw new Error("The child (" + child
 				+ ") is already in the children list (of " + this + ") [in SGNode.addNode]"); }
 		if (children.add(child)) {
 			child.parent = this;
+			child.invalidateGlobalTMatrix();
+			if (child.redrawPending || child.redrawPendingBelow) child.flagRedrawPendingBelow();
 			if (addedToSG) child.onAddedToSG();
 			if (child.wantsSysMouseEvents) forwardMouseEventsTo(child);
 			if (child.wantsSysKeyEvents) forwardKeyEventTo(child);
@@ -672,8 +772,8 @@ public class SGNode extends SGNodeBase implements PConstants {
 				for (SGNode child_2 : children)
 					child_2.addCachedParents(cachedParents);
 			}
-			redraw(); // "SGNode.addNode(SGNode) [" + this + "]");
-			if (!localCompositeBoundsChanged) invalidateLocalCompositeBounds();
+			requestRedraw(); // "SGNode.addNode(SGNode) [" + this + "]");
+			childCompositeBoundsChanged(child);
 		}
 		return child;
 	}
@@ -697,15 +797,25 @@ public class SGNode extends SGNodeBase implements PConstants {
 	
 	/** Remove the given node from this container. */
 	public void removeNode(SGNode child) {
+		if (mutationChildren != null) {
+			if (child.parent != this || !mutationChildren.remove(child))
+				throw new Error("SGNode.removeChild(SGNode) was"
+						+ " called with a child that is not contained by the" + " container ("
+						+ this.toString() + ").");
+			detachChild(child);
+			return;
+		}
 		if (children.remove(child)) {
 			if (addedToSG) child.onRemovedFromSG();
 			child.parent = null;
+			child.invalidateGlobalTMatrix();
+			removeContribution(child);
 			if (child.wantsSysMouseEvents) unforwardMouseEventsTo(child);
 			if (child.wantsSysKeyEvents) unforwardKeyEventsTo(child);
 			if (cached) child.removeCachedParents(cachedParents + 1);
 			else if (cachedParents > 0) child.removeCachedParents(cachedParents);
-			redraw(); // "SGNode.removeNode(SGNode) [" + this + "]");
-			if (!localCompositeBoundsChanged) invalidateLocalCompositeBounds();
+			requestRedraw(); // "SGNode.removeNode(SGNode) [" + this + "]");
+			localCompositeBoundsInvalidated();
 		}
 		else throw new Error("SGNode.removeChild(SGNode) was"
 				+ " called with a child that is not contained by the" + " container ("
@@ -715,15 +825,21 @@ public class SGNode extends SGNodeBase implements PConstants {
 	/** Remove the indexed node from this container. */
 	public void removeNode(int index) {
 		try {
+			if (mutationChildren != null) {
+				detachChild(mutationChildren.remove(index));
+				return;
+			}
 			SGNode child = children.remove(index);
 			if (addedToSG) child.onRemovedFromSG();
 			child.parent = null;
+			child.invalidateGlobalTMatrix();
+			removeContribution(child);
 			if (child.wantsSysMouseEvents) unforwardMouseEventsTo(child);
 			if (child.wantsSysKeyEvents) unforwardKeyEventsTo(child);
 			if (cached) child.removeCachedParents(cachedParents + 1);
 			else if (cachedParents > 0) child.removeCachedParents(cachedParents);
-			redraw(); // "SGNode.removeNode(int) [" + this + "]");
-			if (!localCompositeBoundsChanged) invalidateLocalCompositeBounds();
+			requestRedraw(); // "SGNode.removeNode(int) [" + this + "]");
+			localCompositeBoundsInvalidated();
 		}
 		catch (IndexOutOfBoundsException exc) {
 			throw new Error("SGNode.removeChild(int) was"
@@ -734,17 +850,222 @@ public class SGNode extends SGNodeBase implements PConstants {
 	
 	/** Removes all child-nodes from this container. */
 	public void removeAllNodes() {
+		if (mutationChildren != null) {
+			for (SGNode child : mutationChildren)
+				detachChild(child);
+			mutationChildren.clear();
+			return;
+		}
 		for (SGNode child : children) {
 			if (addedToSG) child.onRemovedFromSG();
 			child.parent = null;
+			child.invalidateGlobalTMatrix();
+			removeContribution(child);
 			if (child.wantsSysMouseEvents) unforwardMouseEventsTo(child);
 			if (child.wantsSysKeyEvents) unforwardKeyEventsTo(child);
 			if (cached) child.removeCachedParents(cachedParents + 1);
 			else if (cachedParents > 0) child.removeCachedParents(cachedParents);
 		}
 		children.clear();
-		redraw(); // "SGNode.removeAllNodes() [" + this + "]");
-		if (!localCompositeBoundsChanged) invalidateLocalCompositeBounds();
+		requestRedraw(); // "SGNode.removeAllNodes() [" + this + "]");
+		invalidateLocalCompositeBounds();
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	// Batched mutations:
+	
+	/*
+	 * The working copy of the children list while a mutation is applied, or null when no mutation
+	 * is being applied.
+	 */
+	private ArrayList<SGNode> mutationChildren = null;
+	
+	/* True when the children were reordered in the mutation that is being applied. */
+	private boolean mutationReordered = false;
+	
+	/**
+	 * Applies the given modifications on the children of this container as a single batch. The
+	 * addNode(), removeNode(), removeAllNodes(), addNodes(), removeNodes() and reorderChildren()
+	 * calls on this container in the given mutation are applied on a working copy of the children
+	 * list. This copy replaces the actual children list once the mutation completes, after which a
+	 * single redraw and bounds invalidation is requested. The getChildren() method still returns
+	 * the unmodified list while the mutation is being applied.
+	 * 
+	 * Use this method when adding or removing many children, e.g. when constructing a large grid of
+	 * nodes. Each call of addNode() outside of a mutation copies the complete children list and
+	 * triggers its own invalidation.
+	 * 
+	 * This method should be called from the animation thread, e.g. in setup() or in an event
+	 * handler.
+	 * 
+	 * @param mutation The modifications to apply.
+	 */
+	public void mutate(INodeMutation mutation) {
+		if (mutationChildren != null) {
+			// nested mutation, simply join the ongoing mutation:
+			mutation.apply(this);
+			return;
+		}
+		mutationChildren = new ArrayList<SGNode>(children);
+		mutationReordered = false;
+		try {
+			mutation.apply(this);
+		}
+		finally {
+			ArrayList<SGNode> result = mutationChildren;
+			mutationChildren = null;
+			commitChildren(result, mutationReordered);
+		}
+	}
+	
+	/**
+	 * Adds the given child-nodes in this container as a single batch.
+	 * 
+	 * @param nodes The nodes to add, in the order in which they should be added.
+	 * 
+	 * @throws Error when one of the given children is already in the scene-graph
+	 * 
+	 * @see SGNode#mutate(INodeMutation)
+	 */
+	public void addNodes(final Collection<? extends SGNode> nodes) {
+		mutate(new INodeMutation() {
+			@Override
+			public void apply(SGNode node) {
+				for (SGNode child : nodes)
+					addNode(child);
+			}
+		});
+	}
+	
+	/**
+	 * Removes the given child-nodes from this container as a single batch.
+	 * 
+	 * @param nodes The nodes to remove.
+	 * 
+	 * @throws Error when one of the given nodes is not a child of this container
+	 * 
+	 * @see SGNode#mutate(INodeMutation)
+	 */
+	public void removeNodes(final Collection<? extends SGNode> nodes) {
+		mutate(new INodeMutation() {
+			@Override
+			public void apply(SGNode node) {
+				Set<SGNode> removed = newNodeSet();
+				for (SGNode child : nodes) {
+					if (child.parent != SGNode.this || !removed.add(child))
+						throw new Error("SGNode.removeNodes(Collection) was"
+								+ " called with a node that is not contained by the"
+								+ " container (" + SGNode.this + "): " + child);
+				}
+				ArrayList<SGNode> remaining = new ArrayList<SGNode>(mutationChildren.size());
+				for (SGNode child : mutationChildren) {
+					if (removed.contains(child)) detachChild(child);
+					else remaining.add(child);
+				}
+				mutationChildren = remaining;
+			}
+		});
+	}
+	
+	/**
+	 * Sets the order of the children of this container. The order determines the z-order in which
+	 * the children are drawn, and the order in which they receive mouse- and key-events.
+	 * 
+	 * @param nodes All children of this container, in the new order.
+	 * 
+	 * @throws Error when the given nodes are not exactly the children of this container
+	 * 
+	 * @see SGNode#mutate(INodeMutation)
+	 */
+	public void reorderChildren(final List<? extends SGNode> nodes) {
+		mutate(new INodeMutation() {
+			@Override
+			public void apply(SGNode node) {
+				Set<SGNode> seen = newNodeSet();
+				for (SGNode child : nodes) {
+					if (child.parent != SGNode.this || !seen.add(child))
+						throw new Error("SGNode.reorderChildren(List) was"
+								+ " called with a node that is not contained by the"
+								+ " container (" + SGNode.this + "): " + child);
+				}
+				if (seen.size() != mutationChildren.size())
+					throw new Error("SGNode.reorderChildren(List) was called without all"
+							+ " children of the container (" + SGNode.this + ").");
+				mutationChildren = new ArrayList<SGNode>(nodes);
+				mutationReordered = true;
+			}
+		});
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* @return A new set of nodes that compares the nodes by identity. */
+	private static Set<SGNode> newNodeSet() {
+		return Collections.newSetFromMap(new IdentityHashMap<SGNode, Boolean>());
+	}
+	
+	/* Attaches the given child that was added to the working copy of the children list. */
+	private void attachChild(SGNode child) {
+		child.parent = this;
+		child.invalidateGlobalTMatrix();
+		if (child.redrawPending || child.redrawPendingBelow) child.flagRedrawPendingBelow();
+		if (addedToSG) child.onAddedToSG();
+		if (cached) child.addCachedParents(cachedParents + 1);
+		else if (cachedParents > 0) child.addCachedParents(cachedParents);
+	}
+	
+	/* Detaches the given child that was removed from the working copy of the children list. */
+	private void detachChild(SGNode child) {
+		if (addedToSG) child.onRemovedFromSG();
+		child.parent = null;
+		child.invalidateGlobalTMatrix();
+		removeContribution(child);
+		if (cached) child.removeCachedParents(cachedParents + 1);
+		else if (cachedParents > 0) child.removeCachedParents(cachedParents);
+	}
+	
+	/*
+	 * Replaces the children list with the result of a mutation, updates the lists of children to
+	 * which events are forwarded, and requests a single redraw and bounds invalidation.
+	 */
+	private void commitChildren(List<SGNode> result, boolean reordered) {
+		// The new list is published in one step, without an intermediate empty list:
+		children = new CopyOnWriteArrayList<SGNode>(result);
+		
+		// The event forwarding order follows the children order when they were reordered,
+		// otherwise the new children are forwarded to after the remaining children:
+		ArrayList<SGNode> mouseResult = new ArrayList<SGNode>();
+		ArrayList<SGNode> keyResult = new ArrayList<SGNode>();
+		Set<SGNode> mouseSet = newNodeSet();
+		Set<SGNode> keySet = newNodeSet();
+		if (!reordered) {
+			for (SGNode child : mouseChildren)
+				if (child.parent == this && mouseSet.add(child)) mouseResult.add(child);
+			for (SGNode child : keyChildren)
+				if (child.parent == this && keySet.add(child)) keyResult.add(child);
+		}
+		boolean childUpdatePending = false;
+		for (SGNode child : result) {
+			if (child.wantsSysMouseEvents && mouseSet.add(child)) mouseResult.add(child);
+			if (child.wantsSysKeyEvents && keySet.add(child)) keyResult.add(child);
+			if (child.updatePending) childUpdatePending = true;
+		}
+		
+		mouseChildren = new CopyOnWriteArrayList<SGNode>(mouseResult);
+		if (forwardSysMouseEvents != !mouseResult.isEmpty()) {
+			forwardSysMouseEvents = !mouseResult.isEmpty();
+			updateMouseFlags();
+		}
+		keyChildren = new CopyOnWriteArrayList<SGNode>(keyResult);
+		if (forwardSysKeyEvents != !keyResult.isEmpty()) {
+			forwardSysKeyEvents = !keyResult.isEmpty();
+			updateKeyFlags();
+		}
+		if (mouseIndex != null) mouseIndex.invalidate();
+		
+		if (childUpdatePending && !updatePending) invalidateNode();
+		requestRedraw(); // "SGNode.commitChildren() [" + this + "]");
+		invalidateLocalCompositeBounds();
 	}
 	
 	// *********************************************************************************************
@@ -836,7 +1157,7 @@ public class SGNode extends SGNodeBase implements PConstants {
 		if (localBoundsChanged) return;
 		// println(">> SGNode[" + this.name + "].invalidateLocalBounds()");
 		localBoundsChanged = true;
-		if (!localCompositeBoundsChanged) invalidateLocalCompositeBounds();
+		localCompositeBoundsInvalidated(); // the local bounds are always added again
 		if (!updatePending) invalidateNode();
 	}
 	
@@ -851,17 +1172,80 @@ public class SGNode extends SGNodeBase implements PConstants {
 	/* True when the memoized localCompositeBounds is invalid. */
 	private boolean localCompositeBoundsDirty = true;
 	
+	/*
+	 * The union of the local bounds of this node and the composite bounds of its visible children,
+	 * from which the localCompositeBounds are derived. It is maintained incrementally, such that a
+	 * change in one child does not require iterating over all children. Created lazily.
+	 */
+	private SGBoundsUnion boundsUnion;
+	
+	/* True when the boundsUnion needs to be rebuilt from all children. */
+	private boolean boundsUnionStale = true;
+	
+	/* The local bounds of this node as last added to the boundsUnion. */
+	private Rectangle localContribution;
+	
+	/* The children whose composite bounds changed since they were last added to the boundsUnion. */
+	private ArrayList<SGNode> changedChildren;
+	
+	/*
+	 * The composite bounds of this node as last added to the boundsUnion of its parent, or empty
+	 * when this node is not part of that union.
+	 */
+	private Rectangle parentContribution;
+	
+	/* True when this node is in the changedChildren list of its parent. */
+	private boolean contributionChanged = false;
+	
 	/**
-	 * Call this method when the the composite bounds of a child of this node changed.
+	 * Call this method when the the composite bounds of a child of this node changed. All children
+	 * are considered when the local composite bounds are computed next.
 	 */
 	final public void invalidateLocalCompositeBounds() {
+		boundsUnionStale = true;
+		localCompositeBoundsInvalidated();
+	}
+	
+	/* Flags the local composite bounds as changed. */
+	private void localCompositeBoundsInvalidated() {
+		if (mouseIndex != null) mouseIndex.invalidate();
+		localCompositeBoundsDirty = true;
 		if (localCompositeBoundsChanged) return;
 		localCompositeBoundsChanged = true;
-		localCompositeBoundsDirty = true;
 		if (!compositeBoundsChanged) invalidateCompositeBounds();
 		if (!updatePending) invalidateNode();
 	}
 	
+	/*
+	 * Called when the composite bounds of the given child changed, or when the child was added.
+	 * Only this child is considered when the local composite bounds are computed next.
+	 */
+	private void childCompositeBoundsChanged(SGNode child) {
+		if (!child.contributionChanged) {
+			child.contributionChanged = true;
+			if (changedChildren == null) changedChildren = new ArrayList<SGNode>();
+			changedChildren.add(child);
+		}
+		localCompositeBoundsInvalidated();
+	}
+	
+	/* Removes the contribution of the given child, which is being removed, from the union. */
+	private void removeContribution(SGNode child) {
+		child.contributionChanged = false; // its entry in changedChildren is skipped
+		if (child.parentContribution == null) return;
+		if (boundsUnion != null) boundsUnion.remove(child.parentContribution);
+		child.parentContribution.setBounds(0, 0, 0, 0);
+	}
+	
+	/* Replaces the contribution of this node in the given union of its parent. */
+	private void updateContribution(SGBoundsUnion union, boolean replace) {
+		if (parentContribution == null) parentContribution = new Rectangle();
+		else if (replace) union.remove(parentContribution);
+		if (visible) parentContribution.setBounds(getCompositeBounds());
+		else parentContribution.setBounds(0, 0, 0, 0);
+		union.add(parentContribution);
+	}
+	
 	/**
 	 * This value is not valid when the transformedBoundsDirty property is true.
 	 * 
@@ -881,23 +1265,78 @@ public class SGNode extends SGNodeBase implements PConstants {
 				System.err.println("Avoid calling getLocalCompositeBounds() on invisible nodes. ["
 						+ this + "]");
 			}
-			else {
+			else if (!hasChildren()) {
 				localCompositeBounds.setBounds(getLocalBounds());
-				// if (trace) println(" - local : " + rectStr(localCompositeBounds));
-				
-				for (SGNode child : children) {
-					if (!child.visible) continue;
-					Rectangle childBounds = child.getCompositeBounds();
-					// if (trace) println(" - adding: " + rectStr(childBounds));
-					addBounds(localCompositeBounds, childBounds);
-				}
+				if (changedChildren != null) changedChildren.clear(); // only removed children
+				boundsUnionStale = true;
 			}
+			else updateBoundsUnion();
 			localCompositeBoundsDirty = false;
 			// if (trace) println(" < result: " + rectStr(localCompositeBounds));
 		}
 		return localCompositeBounds;
 	}
 	
+	/*
+	 * Updates the boundsUnion with the changes since the previous update, and derives the
+	 * localCompositeBounds from it. The union is only rebuilt from all children when it is stale,
+	 * or when a child that defined one of its edges moved inward, shrunk or was removed.
+	 */
+	private void updateBoundsUnion() {
+		if (boundsUnion == null) {
+			boundsUnion = new SGBoundsUnion();
+			localContribution = new Rectangle();
+			boundsUnionStale = true;
+		}
+		
+		boundsUnion.remove(localContribution);
+		localContribution.setBounds(getLocalBounds());
+		boundsUnion.add(localContribution);
+		if (changedChildren != null) {
+			for (int i = 0, n = changedChildren.size(); i < n; i++) {
+				SGNode child = changedChildren.get(i);
+				child.contributionChanged = false;
+				if (child.parent == this) child.updateContribution(boundsUnion, true);
+			}
+			changedChildren.clear();
+		}
+		
+		if (boundsUnionStale || !boundsUnion.isValid()) {
+			boundsUnion.clear();
+			boundsUnion.add(localContribution);
+			for (SGNode child : children) {
+				if (child.parent == this) child.updateContribution(boundsUnion, false);
+			}
+			boundsUnionStale = false;
+		}
+		
+		// When all bounds are empty, the result depends on the order of the children:
+		if (boundsUnion.isEmpty()) computeLocalCompositeBounds(localCompositeBounds);
+		else boundsUnion.get(localCompositeBounds);
+		
+		if (SGApp.DEBUG_MODE) {
+			Rectangle expected = new Rectangle();
+			computeLocalCompositeBounds(expected);
+			if (!expected.equals(localCompositeBounds)) {
+				throw new Error("The incrementally updated local composite bounds "
+						+ rectStr(localCompositeBounds) + " differ from the recomputed bounds "
+						+ rectStr(expected) + " [" + this + "]");
+			}
+		}
+	}
+	
+	/* Computes the local composite bounds by iterating over all visible children. */
+	private void computeLocalCompositeBounds(Rectangle target) {
+		target.setBounds(getLocalBounds());
+		// if (trace) println(" - local : " + rectStr(target));
+		for (SGNode child : children) {
+			if (!child.visible) continue;
+			Rectangle childBounds = child.getCompositeBounds();
+			// if (trace) println(" - adding: " + rectStr(childBounds));
+			addBounds(target, childBounds);
+		}
+	}
+	
 	/*
 	 * Add the source to the target, avoiding the error that occurs
 	 */
@@ -935,9 +1374,8 @@ public class SGNode extends SGNodeBase implements PConstants {
 		
 		compositeBoundsChanged = true;
 		compositeBoundsDirty = true;
-		if (parent != null && !parent.localCompositeBoundsChanged) {
-			parent.invalidateLocalCompositeBounds();
-		}
+		if (forkedRoot) deferredParentOps |= DEFERRED_BOUNDS;
+		else if (parent != null) parent.childCompositeBoundsChanged(this);
 		
 		if (!updatePending) invalidateNode();
 	}
@@ -971,24 +1409,8 @@ public class SGNode extends SGNodeBase implements PConstants {
 				if (applyRotate || applyScale) {
 					// if (trace) println(" - applyRotate || applyScale [" + this + "]");
 					if (localTMatrixDirty) throw new Error("localTMatrix is dirty [" + this + "]");
-					float x1 = localTMatrix.multX(b.x, b.y);
-					float y1 = localTMatrix.multY(b.x, b.y);
-					float x2 = localTMatrix.multX(b.x + b.width, b.y);
-					float y2 = localTMatrix.multY(b.x + b.width, b.y);
-					float x3 = localTMatrix.multX(b.x + b.width, b.y + b.height);
-					float y3 = localTMatrix.multY(b.x + b.width, b.y + b.height);
-					float x4 = localTMatrix.multX(b.x, b.y + b.height);
-					float y4 = localTMatrix.multY(b.x, b.y + b.height);
-					b.x = floor(Math.min(Math.min(x1, x2), Math.min(x3, x4)));
-					b.y = floor(Math.min(Math.min(y1, y2), Math.min(y3, y4)));
-					b.width = ceil(Math.max(Math.max(x1, x2), Math.max(x3, x4))) - b.x;
-					b.height = ceil(Math.max(Math.max(y1, y2), Math.max(y3, y4))) - b.y;
-				}
-				else if (applyTranslate) {
-					// if (trace) println(" - applyTranslate only [" + this + "]");
-					b.x = floor(b.x + x);
-					b.y = floor(b.y + y);
 				}
+				mapToParent(b);
 			}
 			compositeBoundsDirty = false;
 			// if (trace) println(" < result: " + rectStr(compositeBounds));
@@ -996,6 +1418,46 @@ public class SGNode extends SGNodeBase implements PConstants {
 		return compositeBounds;
 	}
 	
+	/*
+	 * Maps the given rectangle from the local coordinate system of this node to the coordinate
+	 * system of its parent. The result is the bounding box of the transformed rectangle.
+	 */
+	private void mapToParent(Rectangle b) {
+		if (applyRotate || applyScale) {
+			float x1 = localTMatrix.multX(b.x, b.y);
+			float y1 = localTMatrix.multY(b.x, b.y);
+			float x2 = localTMatrix.multX(b.x + b.width, b.y);
+			float y2 = localTMatrix.multY(b.x + b.width, b.y);
+			float x3 = localTMatrix.multX(b.x + b.width, b.y + b.height);
+			float y3 = localTMatrix.multY(b.x + b.width, b.y + b.height);
+			float x4 = localTMatrix.multX(b.x, b.y + b.height);
+			float y4 = localTMatrix.multY(b.x, b.y + b.height);
+			b.x = floor(Math.min(Math.min(x1, x2), Math.min(x3, x4)));
+			b.y = floor(Math.min(Math.min(y1, y2), Math.min(y3, y4)));
+			b.width = ceil(Math.max(Math.max(x1, x2), Math.max(x3, x4))) - b.x;
+			b.height = ceil(Math.max(Math.max(y1, y2), Math.max(y3, y4))) - b.y;
+		}
+		else if (applyTranslate) {
+			b.x = floor(b.x + x);
+			b.y = floor(b.y + y);
+		}
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param out The rectangle in which to set the result. A new rectangle is created when null.
+	 * 
+	 * @return The composite bounds of this node mapped to the coordinate system of the stage.
+	 */
+	public Rectangle getStageBounds(Rectangle out) {
+		if (out == null) out = new Rectangle();
+		out.setBounds(getCompositeBounds());
+		for (SGNode p = parent; p != null; p = p.parent)
+			p.mapToParent(out);
+		return out;
+	}
+	
 	// *********************************************************************************************
 	// Update functionality:
 	// ---------------------------------------------------------------------------------------------
@@ -1101,44 +1563,195 @@ public class SGNode extends SGNodeBase implements PConstants {
 		// println(" - compositeBoundsChanged: " + compositeBoundsChanged);
 		// }
 		
-		// apply the controller:
-		if (controller != null) controller.apply(this);
-		if (controller != null) updatePending = true;
-		
-		// update local transformation matrix:
-		if (localTMatrixDirty) {
-			// if (trace) println(" * localTMatrixDirty! [" + this.name + "]");
-			localTMatrix.reset();
-			if (applyTranslate) localTMatrix.translate(x, y);
-			if (applyRotate) localTMatrix.rotate(rotation);
-			if (applyScale) localTMatrix.scale(scale);
-			localTMatrixDirty = false;
-		}
+		updateTransformation();
 		
 		// traverse the children, except for cached nodes:
 		if (hasChildren()) {
-			for (SGNode child : children) {
-				if (child.updatePending && child.updateNode()) updatePending = true;
+			if (app.parallelUpdateEnabled() && children.size() >= SGApp.PARALLEL_UPDATE_THRESHOLD) {
+				if (updateChildrenInParallel()) updatePending = true;
+			}
+			else {
+				for (SGNode child : children) {
+					if (child.updatePending && child.updateNode()) updatePending = true;
+				}
 			}
 		}
 		
-		// Update the local-bounds:
+		validateBounds();
+		
+		return updatePending;
+	}
+	
+	/* Applies the controller and updates the local transformation matrix. */
+	private void updateTransformation() {
+		// apply the controller, sampling its cost when profiling:
+		if (controller != null) {
+			SGFrameStats stats = app.getFrameStats();
+			if (stats != null && stats.isSamplingNodes()) {
+				long start = System.nanoTime();
+				controller.apply(this);
+				stats.addUpdateSample(this, System.nanoTime() - start);
+			}
+			else controller.apply(this);
+		}
+		if (controller != null) updatePending = true;
+		
+		// update local transformation matrix:
+		if (localTMatrixDirty) validateLocalTMatrix();
+	}
+	
+	/* Updates the local-bounds and resets the bounds flags. */
+	private void validateBounds() {
 		if (localBoundsChanged) validateLocalBounds();
 		
 		if (localCompositeBoundsChanged) {
 			// if (trace) println(" * localCompositeBoundsChanged! [" + this.name + "]");
 			localCompositeBoundsChanged = false;
 			if (cached) cacheSizeDirty = true;
+			// the index might have been built before all children were updated:
+			if (mouseIndex != null) mouseIndex.invalidate();
 		}
 		
 		if (compositeBoundsChanged) {
 			// if (trace) println(" * compositeBoundsChanged! [" + this.name + "]");
 			compositeBoundsChanged = false;
 		}
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	// Parallel update:
+	
+	/* Flags for the operations on the parent that are deferred by a forked subtree root. */
+	private static final int DEFERRED_BOUNDS = 1;
+	private static final int DEFERRED_REDRAW = 2;
+	private static final int DEFERRED_AUTO_CACHE = 4;
+	
+	/*
+	 * True while this node is the root of a subtree that is updated on a worker thread. Operations
+	 * on the parent of such a root are deferred until the worker threads are done.
+	 */
+	private boolean forkedRoot = false;
+	
+	/* The operations on the parent that were deferred while this node was a forked root. */
+	private int deferredParentOps = 0;
+	
+	/* True when this node was updated on a worker thread and its bounds still need validation. */
+	private boolean forkedUpdated = false;
+	
+	/*
+	 * Updates the children of this node, updating the subtrees that only contain thread-safe
+	 * controllers in parallel on the update pool of the app.
+	 * 
+	 * @return True when one of the children needs to be updated in the next update loop.
+	 */
+	private boolean updateChildrenInParallel() {
+		boolean pending = false;
+		ArrayList<SGNode> forked = new ArrayList<SGNode>();
+		for (SGNode child : children) {
+			if (child.updatePending && child.isThreadSafeUpdate()) {
+				child.forkedRoot = true;
+				forked.add(child);
+			}
+		}
+		
+		// Apply the controllers and update the matrices on the worker threads:
+		if (forked.size() > 0) {
+			app.getUpdatePool().invoke(new ForkedUpdate(forked, 0, forked.size()));
+		}
+		
+		// Merge the results on this thread, in the order of the children:
+		for (SGNode child : forked) {
+			child.validateForkedBounds();
+			child.applyDeferredParentOps();
+			if (child.updatePending && !child.disposed) pending = true;
+		}
 		
+		// Update the other children on this thread, skipping the forked children:
+		int next = 0;
+		for (SGNode child : children) {
+			if (next < forked.size() && forked.get(next) == child) next++;
+			else if (child.updatePending && child.updateNode()) pending = true;
+		}
+		return pending;
+	}
+	
+	/*
+	 * @return True when the update of this node and its children that need an update only involves
+	 * thread-safe controllers.
+	 */
+	private boolean isThreadSafeUpdate() {
+		if (controller != null && !(controller instanceof IThreadSafeNodeController)) return false;
+		for (SGNode child : children) {
+			if (child.updatePending && !child.isThreadSafeUpdate()) return false;
+		}
+		return true;
+	}
+	
+	/*
+	 * The part of updateNode() that is executed on a worker thread. The bounds are validated later
+	 * on the animation thread, in validateForkedBounds().
+	 */
+	private boolean updateNodeForked() {
+		if (disposed) return false;
+		updatePending = false;
+		forkedUpdated = true;
+		updateTransformation();
+		for (SGNode child : children) {
+			if (child.updatePending && child.updateNodeForked()) updatePending = true;
+		}
 		return updatePending;
 	}
 	
+	/* Validates the bounds of the nodes updated on a worker thread, bottom-up. */
+	private void validateForkedBounds() {
+		if (!forkedUpdated) return;
+		forkedUpdated = false;
+		for (SGNode child : children)
+			child.validateForkedBounds();
+		validateBounds();
+	}
+	
+	/* Applies the operations on the parent that were deferred while this node was a forked root. */
+	private void applyDeferredParentOps() {
+		forkedRoot = false;
+		if (redrawPending || redrawPendingBelow) flagRedrawPendingBelow();
+		int ops = deferredParentOps;
+		deferredParentOps = 0;
+		if ((ops & DEFERRED_BOUNDS) != 0) parent.childCompositeBoundsChanged(this);
+		if ((ops & DEFERRED_REDRAW) != 0 && parent.visible && !parent.redrawPending)
+			parent.requestRedraw();
+		if ((ops & DEFERRED_AUTO_CACHE) != 0) parent.markAutoCacheChanged();
+	}
+	
+	/* Task that updates a range of forked subtree roots, splitting the range when it is large. */
+	@SuppressWarnings("serial")
+	private static class ForkedUpdate extends RecursiveAction {
+		
+		/* The number of roots below which the range is no longer split. */
+		private static final int SPLIT_THRESHOLD = 16;
+		
+		private final List<SGNode> roots;
+		private final int from, to;
+		
+		ForkedUpdate(List<SGNode> roots, int from, int to) {
+			this.roots = roots;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from <= SPLIT_THRESHOLD) {
+				for (int i = from; i < to; i++)
+					roots.get(i).updateNodeForked();
+			}
+			else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ForkedUpdate(roots, from, mid), new ForkedUpdate(roots, mid, to));
+			}
+		}
+	}
+	
 	// *********************************************************************************************
 	// Draw functionality:
 	// ---------------------------------------------------------------------------------------------
@@ -1160,42 +1773,157 @@ public class SGNode extends SGNodeBase implements PConstants {
 	
 	private boolean redrawPending = true;
 	
+	/*
+	 * True when a visible descendant of this node might have a pending redraw. Culled subtrees in
+	 * which this flag is not set are skipped when the pending redraw flags are reset.
+	 */
+	private boolean redrawPendingBelow = false;
+	
 	// public static boolean traceRedraw = false;
 	
 	/**
-	 * Request a redraw of this node.
+	 * Request a redraw of this node. When this node is retained, its draw commands are recorded
+	 * again in the next draw traversal.
 	 * 
 	 * @param caller A string that describes the caller for debugging purposes.
 	 */
 	final public void redraw(String caller) {
 		// if (traceRedraw) println("* REDRAW called for [" + name + "] from [" + caller + "]");
-		if (!visible) return;
-		if (redrawPending) return;
-		redrawPending = true;
-		app.redrawSG();
-		// if (traceRedraw) println("* REDRAW scheduled for [" + name + "] from [" + caller + "]");
-		if (cached) cacheContentDirty = true;
-		if (cachedParents > 0) {
-			if (parent == null) throw new Error("Unexpected");
-			if (parent.visible && !parent.redrawPending) parent.redraw(); // caller);
-		}
+		commandsDirty = true;
+		requestRedraw();
 	}
 	
 	/**
-	 * Request a redraw of this node.
+	 * Request a redraw of this node. When this node is retained, its draw commands are recorded
+	 * again in the next draw traversal.
 	 */
 	final public void redraw() {
+		commandsDirty = true;
+		requestRedraw();
+	}
+	
+	/*
+	 * Requests a redraw of this node without invalidating its recorded draw commands. Use this
+	 * method instead of redraw() when only the transformation or the children of this node changed.
+	 */
+	private void requestRedraw() {
 		// if (traceRedraw)
 		// println("* REDRAW called for [" + name + "], redrawPending: " + redrawPending
 		// + ", visible: " + visible);
 		if (!visible) return;
 		if (redrawPending) return;
 		redrawPending = true;
+		flagRedrawPendingBelow();
+		if (app.autoCachingEnabled()) markAutoCacheChanged();
+		if (app.dirtyRegionsActive()) addDamage();
 		app.redrawSG();
 		if (cached) cacheContentDirty = true;
 		if (cachedParents > 0) {
 			if (parent == null) throw new Error("Unexpected");
-			if (parent.visible && !parent.redrawPending) parent.redraw();
+			if (forkedRoot) deferredParentOps |= DEFERRED_REDRAW;
+			else if (parent.visible && !parent.redrawPending) parent.requestRedraw();
+		}
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	// Dirty-regions:
+	
+	/*
+	 * The stage bounds of this node captured when the pending redraw was requested, i.e. the region
+	 * that this node covered before it was modified. Only used in the dirty-region redraw mode.
+	 */
+	private Rectangle damageBounds;
+	
+	/*
+	 * Captures the current stage bounds of this node and registers this node as damaged in the app.
+	 * The memoized composite bounds are used as-is, because they still describe the region that
+	 * was drawn in the previous frame.
+	 */
+	private void addDamage() {
+		if (damageBounds == null) damageBounds = new Rectangle();
+		if (compositeBounds == null) damageBounds.setBounds(0, 0, 0, 0);
+		else {
+			damageBounds.setBounds(compositeBounds);
+			for (SGNode p = parent; p != null; p = p.parent)
+				p.mapToParent(damageBounds);
+		}
+		app.addDamagedNode(this);
+	}
+	
+	/**
+	 * System method that adds the region covered by this node before and after the pending redraw
+	 * to the given dirty regions. This method should only be called from SGApp.
+	 * 
+	 * @param regions The dirty regions, in the coordinate system of the stage.
+	 * @param temp A rectangle owned by the caller, used to compute the current bounds.
+	 */
+	public void collectDamage(SGDirtyRegions regions, Rectangle temp) {
+		// Nodes outside of the dirty regions are not drawn, so the flag is reset here instead:
+		redrawPending = false;
+		if (damageBounds != null) {
+			regions.add(damageBounds);
+			damageBounds.setBounds(0, 0, 0, 0);
+		}
+		if (addedToSG && visible && !disposed) regions.add(getStageBounds(temp));
+	}
+	
+	/*
+	 * @return True when the stage bounds of the given child intersect with the given rectangle. The
+	 * composite bounds of the child are mapped with the global transformation matrix of this node,
+	 * which is shared by all children.
+	 */
+	private boolean intersectsStage(SGNode child, Rectangle stageRect) {
+		Rectangle b = child.getCompositeBounds();
+		validateGlobalTMatrix();
+		PMatrix2D m = globalTMatrix;
+		float x1 = b.x, y1 = b.y, x2 = b.x + b.width, y2 = b.y + b.height;
+		// The axis-aligned bounds of the transformed rectangle:
+		float ax1 = m.m00 * x1, ax2 = m.m00 * x2, ay1 = m.m01 * y1, ay2 = m.m01 * y2;
+		float minX = Math.min(ax1, ax2) + Math.min(ay1, ay2) + m.m02;
+		if (minX >= stageRect.x + stageRect.width) return false;
+		float maxX = Math.max(ax1, ax2) + Math.max(ay1, ay2) + m.m02;
+		if (maxX <= stageRect.x) return false;
+		float bx1 = m.m10 * x1, bx2 = m.m10 * x2, by1 = m.m11 * y1, by2 = m.m11 * y2;
+		float minY = Math.min(bx1, bx2) + Math.min(by1, by2) + m.m12;
+		if (minY >= stageRect.y + stageRect.height) return false;
+		float maxY = Math.max(bx1, bx2) + Math.max(by1, by2) + m.m12;
+		return maxY > stageRect.y;
+	}
+	
+	/*
+	 * Called instead of drawNode() when this node is outside the cull rect. The pending redraw
+	 * flags are reset in the subtree, as drawNode() would do, such that the redraws requested
+	 * later on are not ignored.
+	 */
+	private void cullNode() {
+		app.nodeCulled();
+		resetRedrawPending();
+	}
+	
+	/*
+	 * Resets the pending redraw flag of this node and of its visible descendants. The subtrees in
+	 * which no redraw is pending are skipped.
+	 */
+	private void resetRedrawPending() {
+		redrawPending = false;
+		if (!redrawPendingBelow) return;
+		redrawPendingBelow = false;
+		if (hasChildren()) {
+			for (SGNode child : children) {
+				if (child.visible) child.resetRedrawPending();
+			}
+		}
+	}
+	
+	/*
+	 * Flags the ancestors of this node as having a descendant with a pending redraw, up to the
+	 * first ancestor that is already flagged. The ancestors of a forked root are flagged when the
+	 * deferred parent operations are applied.
+	 */
+	private void flagRedrawPendingBelow() {
+		for (SGNode node = this; node.parent != null && !node.forkedRoot; node = node.parent) {
+			if (node.parent.redrawPendingBelow) return;
+			node.parent.redrawPendingBelow = true;
 		}
 	}
 	
@@ -1220,28 +1948,43 @@ public class SGNode extends SGNodeBase implements PConstants {
 		
 		redrawPending = false;
 		
+		// Track the statistics for the auto-cache policy:
+		SGAutoCachePolicy.NodeStats stats = null;
+		if (app.autoCachingEnabled() && !isStage && hasChildren()) {
+			if (autoCacheStats == null) autoCacheStats = app.getAutoCachePolicy().track(this);
+			stats = autoCacheStats;
+			stats.composites++;
+		}
+		long drawStart = 0;
+		
 		if (cached) {
 			// if (trace) println(" * cached! [" + this + "]");
 			if (cachedBounds == null) cachedBounds = new Rectangle();
 			if (cache == null) {
 				cacheContentDirty = true;
 				cachedBounds.setBounds(getLocalCompositeBounds());
-				cache = app.createGraphics(cachedBounds.width, cachedBounds.height);
+				cache = app.getSurfacePool().acquire(cachedBounds.width, cachedBounds.height);
 			}
 			else if (cacheSizeDirty) {
 				cacheContentDirty = true;
 				cachedBounds.setBounds(getLocalCompositeBounds());
-				cache = app.createGraphics(cachedBounds.width, cachedBounds.height);
+				// the pool returns the same surface when the size still fits in its bucket:
+				app.getSurfacePool().release(cache);
+				cache = app.getSurfacePool().acquire(cachedBounds.width, cachedBounds.height);
 				cacheSizeDirty = false;
 			}
 			
 			if (cacheContentDirty) {
 				// if (trace) println(" * cacheContentDirty! [" + this + "]");
+				// The cached content should always be complete, so do not cull the children:
+				Rectangle cullRect = app.getDrawCullRect();
+				app.setDrawCullRect(null);
+				if (stats != null) drawStart = System.nanoTime();
 				cache.beginDraw();
 				cache.resetMatrix();
 				cache.translate(-cachedBounds.x, -cachedBounds.y);
 				cache.clear();
-				draw(cache);
+				drawContent(cache);
 				if (hasChildren()) {
 					for (SGNode child : children) {
 						if (child.visible) child.drawNode(cache);
@@ -1249,6 +1992,11 @@ public class SGNode extends SGNodeBase implements PConstants {
 				}
 				cache.resetMatrix();
 				cache.endDraw();
+				app.setDrawCullRect(cullRect);
+				if (stats != null) {
+					stats.drawNanos += System.nanoTime() - drawStart;
+					stats.draws++;
+				}
 			}
 			
 			applyTransformation(g);
@@ -1257,7 +2005,8 @@ public class SGNode extends SGNodeBase implements PConstants {
 		}
 		else {
 			applyTransformation(g);
-			draw(g); // call the draw() method on this node:
+			if (stats != null) drawStart = System.nanoTime();
+			drawContent(g); // call the draw() method on this node, or replay its commands:
 			
 			if (drawBounds) {
 				Rectangle bounds = getLocalCompositeBounds();
@@ -1267,16 +2016,25 @@ public class SGNode extends SGNodeBase implements PConstants {
 				g.rect(bounds.x, bounds.y, bounds.width, bounds.height);
 			}
 			
-			// forward the draw_sys() call to each child:
+			// forward the draw_sys() call to each child, skipping the children outside the cull rect:
 			if (hasChildren()) {
+				Rectangle cullRect = app.getDrawCullRect();
+				boolean pendingBelow = false;
 				for (SGNode child : children) {
-					if (child.visible) child.drawNode(g);
+					if (!child.visible) continue;
+					if (cullRect == null || intersectsStage(child, cullRect)) child.drawNode(g);
+					else child.cullNode();
+					if (child.redrawPending || child.redrawPendingBelow) pendingBelow = true;
 				}
+				redrawPendingBelow = pendingBelow;
+			}
+			if (stats != null) {
+				stats.drawNanos += System.nanoTime() - drawStart;
+				stats.draws++;
 			}
 		}
 		
 		if (applyTransformation) g.popMatrix();
-		inverseTMatrixDirty = false;
 	}
 	
 	protected void applyTransformation(PGraphics g) {
@@ -1292,16 +2050,6 @@ public class SGNode extends SGNodeBase implements PConstants {
 			if (applyRotate) g.rotate(rotation);
 			if (applyScale) g.scale(scale);
 		}
-		
-		// update the locally stored transformation matrix:
-		if (inverseTMatrixDirty) {
-			// if (trace) println("* transformMatrixDirty [" + this + "]");
-			
-			// update the inverse transformation matrix:
-			inverseTMatrix = g.getMatrix();
-			inverseTMatrix.invert();
-			// if (trace) printInverseTMatrix();
-		}
 	}
 	
 	// ---------------------------------------------------------------------------------------------
@@ -1320,26 +2068,175 @@ public class SGNode extends SGNodeBase implements PConstants {
 		redraw();
 	}
 	
+	// ---------------------------------------------------------------------------------------------
+	// Parallel tile drawing:
+	
+	/* True when the draw() method of this node can be called from other threads. */
+	private boolean drawThreadSafe = getClass() == SGNode.class; // plain containers draw nothing
+	
+	/**
+	 * @return True when the draw() method of this node can be called from other threads.
+	 */
+	public boolean isDrawThreadSafe() {
+		return drawThreadSafe;
+	}
+	
+	/**
+	 * Declares whether the draw() method of this node can be called from other threads than the
+	 * animation thread, concurrently with the draw() methods of other nodes. This is the case when
+	 * it only draws on the given PGraphics object and only reads state that is not modified while
+	 * the scene-graph is drawn. Drawing text with fonts created by createFont() and drawing images
+	 * is not thread-safe, because Processing updates caches in these objects while drawing. Only
+	 * the subtrees in which all nodes are thread-safe are drawn in the parallel tile drawing mode.
+	 * Plain SGNode containers, SGRect nodes and SGEllipse nodes are thread-safe, but not instances
+	 * of their subclasses unless these declare it.
+	 * 
+	 * @param threadSafe True when the draw() method of this node is thread-safe.
+	 * 
+	 * @default false
+	 * @see SGApp#setTileDrawing(int)
+	 */
+	public void setDrawThreadSafe(boolean threadSafe) {
+		drawThreadSafe = threadSafe;
+	}
+	
+	/**
+	 * System method that draws this node and its child-nodes like drawNode(), except that the runs
+	 * of consecutive child-nodes that can be drawn in parallel are drawn on the tiles of the given
+	 * renderer. The other child-nodes are drawn on the given canvas in between, such that the
+	 * drawing order is preserved. This method should only be called from SGApp, on the stage.
+	 * 
+	 * @param g The PGraphics canvas on which to draw.
+	 * @param renderer The renderer that draws the runs of child-nodes on the tiles.
+	 */
+	public void drawNodeTiled(PGraphics g, SGTileRenderer renderer) {
+		redrawPending = false;
+		applyTransformation(g);
+		drawContent(g);
+		
+		if (hasChildren()) {
+			validateGlobalTMatrix();
+			Rectangle cullRect = app.getDrawCullRect();
+			int runStart = -1;
+			for (int i = 0, n = children.size(); i < n; i++) {
+				SGNode child = children.get(i);
+				if (!child.visible) continue;
+				if (child.prepareTileDraw()) {
+					if (runStart < 0) runStart = i;
+					continue;
+				}
+				if (runStart >= 0) {
+					renderer.drawChildren(g, this, runStart, i, globalTMatrix);
+					runStart = -1;
+				}
+				if (cullRect == null || intersectsStage(child, cullRect)) child.drawNode(g);
+				else child.cullNode();
+			}
+			if (runStart >= 0)
+				renderer.drawChildren(g, this, runStart, children.size(), globalTMatrix);
+		}
+		
+		if (applyTransformation) g.popMatrix();
+	}
+	
+	/*
+	 * Prepares this node and its visible descendants to be drawn on the tiles. The state that is
+	 * computed lazily in the draw traversal (the transformation matrices, the bounds and the
+	 * recorded commands) is validated and the pending redraw flags are reset, such that drawing the
+	 * tiles does not modify any state.
+	 * 
+	 * @return True when this node and its visible descendants can be drawn on the tiles.
+	 */
+	private boolean prepareTileDraw() {
+		if (!isDrawThreadSafe() || cached) return false;
+		redrawPending = false;
+		getCompositeBounds();
+		if (retained && commandsDirty) {
+			commandsDirty = false;
+			commandsRecorded = recordCommands();
+		}
+		if (hasChildren()) {
+			validateGlobalTMatrix();
+			for (SGNode child : children) {
+				if (child.visible && !child.prepareTileDraw()) return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * System method that draws this node and its visible descendants on a tile, like drawNode()
+	 * but without modifying any state, such that the tiles can be drawn in parallel. This method
+	 * should only be called from SGTileRenderer, after the node was prepared in drawNodeTiled().
+	 * 
+	 * @param g The PGraphics canvas of the tile.
+	 * @param tileRect The bounds of the tile in the coordinate system of the stage.
+	 */
+	public void drawTile(PGraphics g, Rectangle tileRect) {
+		applyTransformation(g);
+		if (retained && commandsRecorded) commands.replay(g);
+		else draw(g);
+		
+		if (drawBounds) {
+			Rectangle bounds = getLocalCompositeBounds();
+			g.noFill();
+			g.stroke(0x99990000);
+			g.strokeWeight(1);
+			g.rect(bounds.x, bounds.y, bounds.width, bounds.height);
+		}
+		
+		if (hasChildren()) drawChildrenTile(g, tileRect, 0, children.size());
+		if (applyTransformation) g.popMatrix();
+	}
+	
+	/**
+	 * System method that draws the given range of child-nodes on a tile, skipping the child-nodes
+	 * outside the tile. This method should only be called from SGTileRenderer.
+	 * 
+	 * @param g The PGraphics canvas of the tile.
+	 * @param tileRect The bounds of the tile in the coordinate system of the stage.
+	 * @param from The index of the first child-node to draw.
+	 * @param to The index after the last child-node to draw.
+	 * @return True when at least one child-node was drawn.
+	 */
+	public boolean drawChildrenTile(PGraphics g, Rectangle tileRect, int from, int to) {
+		boolean drawn = false;
+		for (int i = from; i < to; i++) {
+			SGNode child = children.get(i);
+			if (child.visible && intersectsStage(child, tileRect)) {
+				child.drawTile(g, tileRect);
+				drawn = true;
+			}
+		}
+		return drawn;
+	}
+	
 	// *********************************************************************************************
 	// Transformation matrix functionality:
 	// ---------------------------------------------------------------------------------------------
 	
 	/**
-	 * The locally maintained inverse of the transformation-matrix. It is updated each time the
-	 * translation, rotation of scale was modified and this node is redrawn.
+	 * The global transformation-matrix, which maps coordinates from the coordinate system valid
+	 * inside this node to the top-level application coordinate system. It is the product of the
+	 * local transformation-matrices of this node and of its ancestors.
 	 * 
-	 * This matrix is used to map coordinates -such as mouse coordinates- from the top-level
-	 * application coordinate system to the the coordinate system valid inside this node.
-	 * 
-	 * This matrix is actually updated in the draw-traversal. The value is invalid as long as
-	 * inverseTMatrixDirty is true;
+	 * This matrix is computed lazily, when a coordinate is mapped. The value is invalid as long as
+	 * globalTMatrixDirty is true.
+	 */
+	private PMatrix2D globalTMatrix = new PMatrix2D();
+	
+	/**
+	 * The inverse of the global transformation-matrix. This matrix is used to map coordinates -such
+	 * as mouse coordinates- from the top-level application coordinate system to the the coordinate
+	 * system valid inside this node. It is computed together with the globalTMatrix.
 	 */
-	private PMatrix inverseTMatrix = new PMatrix2D();
+	private PMatrix2D inverseTMatrix = new PMatrix2D();
 	
 	/**
-	 * True when the value of inverseTMatrix is no longer valid.
+	 * True when the values of globalTMatrix and inverseTMatrix are no longer valid. When this flag
+	 * is set, it is also set in all descendants.
 	 */
-	private boolean inverseTMatrixDirty = false;
+	private boolean globalTMatrixDirty = true;
 	
 	// - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
 	
@@ -1359,23 +2256,58 @@ public class SGNode extends SGNodeBase implements PConstants {
 	
 	/**
 	 * Call this method when some aspect of the transformation of this node has changed. It flags
-	 * the locally stored inverse of the transformation matrix as dirty, so that it is updated
-	 * during the next draw-traversal.
+	 * the locally stored transformation matrices as dirty, so that they are updated when they are
+	 * needed next. The local matrices of the descendants remain valid, and their global matrices
+	 * are only flagged up to the descendants that are already dirty. Only this node is redrawn,
+	 * its stage bounds cover the descendants.
 	 */
 	private void invalidateTransformation() {
-		inverseTMatrixDirty = true;
 		localTMatrixDirty = true;
+		invalidateGlobalTMatrix();
+		requestRedraw(); // "SGNode.invalidateTransformation() [" + this + "]");
+		// Do not invalidate the composite-bounds here. Doing so would also invalidate the
+		// composite-bounds in the children of this node, which is not necesssary.
+	}
+	
+	/* Flags the global transformation matrix of this node and its descendants as dirty. */
+	private void invalidateGlobalTMatrix() {
+		if (globalTMatrixDirty) return; // the descendants are already dirty
+		globalTMatrixDirty = true;
 		if (hasChildren()) {
 			for (SGNode child : children) {
-				child.invalidateTransformation();
+				child.invalidateGlobalTMatrix();
 			}
 		}
-		redraw(); // "SGNode.invalidateTransformation() [" + this + "]");
-		// Do not invalidate the composite-bounds here. Doing so would also invalidate the
-		// composite-bounds in the children of this node, which is not necesssary.
+	}
+	
+	/* Recomputes the local transformation matrix. */
+	private void validateLocalTMatrix() {
+		// if (trace) println(" * localTMatrixDirty! [" + this.name + "]");
+		localTMatrix.reset();
+		if (applyTranslate) localTMatrix.translate(x, y);
+		if (applyRotate) localTMatrix.rotate(rotation);
+		if (applyScale) localTMatrix.scale(scale);
+		localTMatrixDirty = false;
+	}
+	
+	/* Recomputes the global transformation matrix and its inverse, when they are dirty. */
+	private void validateGlobalTMatrix() {
+		if (!globalTMatrixDirty) return;
+		if (localTMatrixDirty) validateLocalTMatrix();
+		if (parent != null) {
+			parent.validateGlobalTMatrix();
+			globalTMatrix.set(parent.globalTMatrix);
+			globalTMatrix.apply(localTMatrix);
+		}
+		else globalTMatrix.set(localTMatrix);
+		inverseTMatrix.set(globalTMatrix);
+		// a degenerate matrix (e.g. a zero scale) maps all coordinates to the origin:
+		if (!inverseTMatrix.invert()) inverseTMatrix.set(0, 0, 0, 0, 0, 0);
+		globalTMatrixDirty = false;
 	}
 	
 	protected void printInverseTMatrix() {
+		validateGlobalTMatrix();
 		printMatrix(inverseTMatrix);
 	}
 	
@@ -1395,7 +2327,7 @@ public class SGNode extends SGNodeBase implements PConstants {
 	 * @return The local coordinate to which the given global coordinate maps.
 	 */
 	public PVector globalToLocal(float globalX, float globalY) {
-		return inverseTMatrix.mult(new PVector(globalX, globalY), null);
+		return globalToLocal(globalX, globalY, null);
 	}
 	
 	/**
@@ -1404,7 +2336,103 @@ public class SGNode extends SGNodeBase implements PConstants {
 	 * @return The local coordinate to which the given global coordinate maps.
 	 */
 	public PVector globalToLocal(PVector globalCoord) {
-		return inverseTMatrix.mult(globalCoord, null);
+		return globalToLocal(globalCoord.x, globalCoord.y, null);
+	}
+	
+	/**
+	 * Maps a global coordinate to a local coordinate without allocating a new vector, unless no
+	 * target vector is given.
+	 * 
+	 * @param globalX The x-component of the global coordinate.
+	 * @param globalY The y-component of the global coordinate.
+	 * @param target The vector in which to store the local coordinate, or null.
+	 * 
+	 * @return The target vector, or a new vector when the target is null.
+	 */
+	public PVector globalToLocal(float globalX, float globalY, PVector target) {
+		validateGlobalTMatrix();
+		if (target == null) target = new PVector();
+		target.set(inverseTMatrix.multX(globalX, globalY), inverseTMatrix.multY(globalX, globalY));
+		return target;
+	}
+	
+	/**
+	 * Maps the given number of global coordinates to local coordinates. The coordinates are stored
+	 * as consecutive x,y pairs. The source and target arrays may be the same.
+	 * 
+	 * @param source The global coordinates.
+	 * @param target The array in which to store the local coordinates.
+	 * @param count The number of coordinates (i.e. half the number of values) to map.
+	 */
+	public void globalToLocal(float[] source, float[] target, int count) {
+		validateGlobalTMatrix();
+		mapCoords(inverseTMatrix, source, target, count);
+	}
+	
+	/**
+	 * @param localX The x-component of the local coordinate that should be mapped to a global
+	 *            coordinate.
+	 * @param localY The y-component of the local coordinate that should be mapped to a global
+	 *            coordinate.
+	 * 
+	 * @return The global coordinate to which the given local coordinate maps.
+	 */
+	public PVector localToGlobal(float localX, float localY) {
+		return localToGlobal(localX, localY, null);
+	}
+	
+	/**
+	 * Maps a local coordinate to a global coordinate without allocating a new vector, unless no
+	 * target vector is given.
+	 * 
+	 * @param localX The x-component of the local coordinate.
+	 * @param localY The y-component of the local coordinate.
+	 * @param target The vector in which to store the global coordinate, or null.
+	 * 
+	 * @return The target vector, or a new vector when the target is null.
+	 */
+	public PVector localToGlobal(float localX, float localY, PVector target) {
+		validateGlobalTMatrix();
+		if (target == null) target = new PVector();
+		target.set(globalTMatrix.multX(localX, localY), globalTMatrix.multY(localX, localY));
+		return target;
+	}
+	
+	/**
+	 * Maps the given number of local coordinates to global coordinates. The coordinates are stored
+	 * as consecutive x,y pairs. The source and target arrays may be the same.
+	 * 
+	 * @param source The local coordinates.
+	 * @param target The array in which to store the global coordinates.
+	 * @param count The number of coordinates (i.e. half the number of values) to map.
+	 */
+	public void localToGlobal(float[] source, float[] target, int count) {
+		validateGlobalTMatrix();
+		mapCoords(globalTMatrix, source, target, count);
+	}
+	
+	/**
+	 * Copies the global transformation-matrix of this node, which maps local coordinates to global
+	 * coordinates, in the given matrix.
+	 * 
+	 * @param target The matrix in which to copy the global transformation-matrix, or null.
+	 * 
+	 * @return The target matrix, or a new matrix when the target is null.
+	 */
+	public PMatrix2D getGlobalTMatrix(PMatrix2D target) {
+		validateGlobalTMatrix();
+		if (target == null) target = new PMatrix2D();
+		target.set(globalTMatrix);
+		return target;
+	}
+	
+	/* Maps the given coordinate pairs with the given matrix. */
+	private static void mapCoords(PMatrix2D m, float[] source, float[] target, int count) {
+		for (int i = 0, n = 2 * count; i < n; i += 2) {
+			float x = source[i], y = source[i + 1];
+			target[i] = m.m00 * x + m.m01 * y + m.m02;
+			target[i + 1] = m.m10 * x + m.m11 * y + m.m12;
+		}
 	}
 	
 	// *********************************************************************************************
@@ -1473,6 +2501,61 @@ public class SGNode extends SGNodeBase implements PConstants {
 		setCached(true);
 	}
 	
+	/* @return True when one of the ancestors of this node is cached. */
+	boolean hasCachedParent() {
+		return cachedParents > 0;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	// Auto-caching:
+	
+	/* The statistics tracked by the auto-cache policy, or null when this node is not tracked. */
+	SGAutoCachePolicy.NodeStats autoCacheStats = null;
+	
+	/* The auto-cache frame in which the content of this node last changed, or -1. */
+	private int autoCacheChangeFrame = -1;
+	
+	/* False when the auto-cache policy should not modify the cache setting of this node. */
+	private boolean autoCacheable = true;
+	
+	/**
+	 * @return False when the auto-cache policy should not modify the cache setting of this node.
+	 */
+	public boolean isAutoCacheable() {
+		return autoCacheable;
+	}
+	
+	/**
+	 * Use this method to pin the cache setting of this node when the auto-cache policy is enabled.
+	 * 
+	 * @param autoCacheable False when the auto-cache policy should not modify the cache setting of
+	 *            this node.
+	 * 
+	 * @default true
+	 * @see SGApp#setAutoCaching(boolean)
+	 */
+	public void setAutoCacheable(boolean autoCacheable) {
+		this.autoCacheable = autoCacheable;
+	}
+	
+	/*
+	 * Counts a change of the content of this node and of its ancestors, at most once per frame.
+	 * The change is counted here, where the content is invalidated, and not in the draw traversal,
+	 * such that the changes of nodes that are culled or otherwise not drawn are counted as well.
+	 */
+	private void markAutoCacheChanged() {
+		int frame = app.getAutoCachePolicy().frame;
+		for (SGNode node = this; node != null && node.autoCacheChangeFrame != frame;
+				node = node.parent) {
+			node.autoCacheChangeFrame = frame;
+			if (node.autoCacheStats != null) node.autoCacheStats.changes++;
+			if (node.forkedRoot) {
+				node.deferredParentOps |= DEFERRED_AUTO_CACHE;
+				break;
+			}
+		}
+	}
+	
 	// ---------------------------------------------------------------------------------------------
 	
 	/* Tells this node that is has an (additional) cached parent. */
@@ -1519,12 +2602,132 @@ public class SGNode extends SGNodeBase implements PConstants {
 	// ---------------------------------------------------------------------------------------------
 	
 	private void clearCache() {
-		cache = null; // There is no proper dispose() method on PImage.
+		if (cache != null) app.getSurfacePool().release(cache); // return the surface for reuse
+		cache = null;
 		cachedBounds = null;
 		cacheContentDirty = false;
 		cacheSizeDirty = false;
 	}
 	
+	// *********************************************************************************************
+	// Retained drawing:
+	// ---------------------------------------------------------------------------------------------
+	
+	/*
+	 * The recorders, one per thread, such that the animation threads of several apps can record at
+	 * the same time. Recording only happens in the draw traversal.
+	 */
+	private static final ThreadLocal<SGCommandRecorder> recorders;
+	static {
+		recorders = new ThreadLocal<SGCommandRecorder>() {
+			@Override
+			protected SGCommandRecorder initialValue() {
+				return new SGCommandRecorder();
+			}
+		};
+	}
+	
+	/* True when the draw commands of this node are recorded and replayed. */
+	private boolean retained = false;
+	
+	/* The recorded draw commands. */
+	private SGCommandBuffer commands = null;
+	
+	/* True when the draw commands need to be recorded again. */
+	private boolean commandsDirty = true;
+	
+	/* False when the latest recording contained an unsupported command. */
+	private boolean commandsRecorded = false;
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return True when the draw commands of this node are recorded and replayed.
+	 */
+	public boolean isRetained() {
+		return retained;
+	}
+	
+	/**
+	 * When a node is retained, the commands issued by its draw() method are recorded once in a
+	 * compact command buffer and replayed in the following frames. The commands are only recorded
+	 * again when redraw() is called on this node. Moving, rotating or scaling the node, or
+	 * modifying its children, does not cause the commands to be recorded again. Unlike the bitmap
+	 * cache, the replayed content stays sharp under any transformation.
+	 * 
+	 * This only pays off for nodes whose draw() method does more work than issuing the draw
+	 * commands, e.g. when it computes the geometry or traverses a PShape. The draw() method should
+	 * only depend on state for which redraw() is called when it changes. When the draw() method
+	 * uses a command that cannot be recorded (such as 3D commands, clipping or pixel access), the
+	 * node falls back on calling draw() directly until the next redraw(). Gradients in SVG shapes
+	 * are not recorded.
+	 * 
+	 * @param retained True when the draw commands of this node should be recorded and replayed.
+	 * 
+	 * @default false
+	 */
+	public void setRetained(boolean retained) {
+		if (this.retained == retained) return;
+		this.retained = retained;
+		commands = null;
+		commandsDirty = true;
+		commandsRecorded = false;
+	}
+	
+	/* Draws the content of this node, sampling its cost when the frames are profiled. */
+	private void drawContent(PGraphics g) {
+		SGFrameStats stats = app.getFrameStats();
+		if (stats != null && stats.isSamplingNodes()) {
+			long start = System.nanoTime();
+			drawContentNow(g);
+			stats.addDrawSample(this, System.nanoTime() - start);
+		}
+		else drawContentNow(g);
+	}
+	
+	/*
+	 * Calls the draw() method of this node, or replays the recorded draw commands when this node
+	 * is retained. The commands are recorded first when they are dirty.
+	 */
+	private void drawContentNow(PGraphics g) {
+		if (!retained) {
+			draw(g);
+			return;
+		}
+		if (commandsDirty) {
+			commandsDirty = false;
+			commandsRecorded = recordCommands();
+		}
+		if (commandsRecorded) commands.replay(g);
+		else draw(g);
+	}
+	
+	/*
+	 * Records the commands issued by the draw() method in the command buffer.
+	 * 
+	 * @return False when the draw() method used an unsupported command.
+	 */
+	private boolean recordCommands() {
+		if (commands == null) commands = new SGCommandBuffer();
+		SGCommandRecorder recorder = recorders.get();
+		recorder.begin(commands);
+		boolean recorded;
+		try {
+			draw(recorder);
+		}
+		catch (RuntimeException e) {
+			// e.g. a query of the canvas state, which the recorder does not track
+			recorder.unsupported(e.toString());
+		}
+		finally {
+			recorded = recorder.end(); // also when draw() throws an error
+		}
+		if (recorded) return true;
+		SGApp.logger.log(Level.FINE, "Retained drawing falls back on direct drawing for " + this
+				+ ", unsupported command: " + recorder.getUnsupportedCommand());
+		return false;
+	}
+	
 	// *********************************************************************************************
 	// Contains functionality:
 	// ---------------------------------------------------------------------------------------------
@@ -1726,6 +2929,7 @@ public class SGNode extends SGNodeBase implements PConstants {
 	 * @return The position of the mouse as local coordinates.
 	 */
 	public PVector getMousePosition() {
+		validateGlobalTMatrix();
 		return inverseTMatrix.mult(app.getMouseVector(), tempMouseVector);
 	}
 	
@@ -1754,8 +2958,9 @@ public class SGNode extends SGNodeBase implements PConstants {
 		}
 		if (forwardSysMouseEvents && containsMouse()) {
 			// if (traceMClicked) println(tm + " - forwarded [" + this + "]");
-			for (int i = mouseChildren.size() - 1; i >= 0; i--) {
-				SGNode child = mouseChildren.get(i);
+			List<SGNode> targets = getMouseTargets();
+			for (int i = targets.size() - 1; i >= 0; i--) {
+				SGNode child = targets.get(i);
 				if (!child.visible) continue;
 				child.processMouseClicked(event);
 				if (event.consumed) return;
@@ -1775,8 +2980,9 @@ public class SGNode extends SGNodeBase implements PConstants {
 			return;
 		}
 		if (forwardSysMouseEvents && containsMouse()) {
-			for (int i = mouseChildren.size() - 1; i >= 0; i--) {
-				SGNode child = mouseChildren.get(i);
+			List<SGNode> targets = getMouseTargets();
+			for (int i = targets.size() - 1; i >= 0; i--) {
+				SGNode child = targets.get(i);
 				if (!child.visible) continue;
 				child.processMousePressed(event);
 				if (event.consumed) return;
@@ -1796,8 +3002,9 @@ public class SGNode extends SGNodeBase implements PConstants {
 			return;
 		}
 		if (forwardSysMouseEvents && containsMouse()) {
-			for (int i = mouseChildren.size() - 1; i >= 0; i--) {
-				SGNode child = mouseChildren.get(i);
+			List<SGNode> targets = getMouseTargets();
+			for (int i = targets.size() - 1; i >= 0; i--) {
+				SGNode child = targets.get(i);
 				if (!child.visible) continue;
 				child.processMouseReleased(event);
 				if (event.consumed) return;
@@ -1831,12 +3038,20 @@ public class SGNode extends SGNodeBase implements PConstants {
 			}
 		}
 		else if (forwardSysMouseEvents) {
-			for (int i = mouseChildren.size() - 1; i >= 0; i--) {
-				SGNode child = mouseChildren.get(i);
+			List<SGNode> targets = getMouseTargets();
+			for (int i = targets.size() - 1; i >= 0; i--) {
+				SGNode child = targets.get(i);
 				if (!child.visible) continue;
 				child.processMouseMoved(event, dragged);
 				if (event.consumed) return;
 			}
+			// The children that are not under the mouse were skipped by the index, so dispatch the
+			// mouse-out event here when the mouse left the current over-node in this branch:
+			if (mouseIndex != null && currentOverNode != null && currentOverNode.isDescendantOf(this)) {
+				SGNode node = currentOverNode;
+				currentOverNode = null;
+				node.dispatchMouseOut(node.getMousePosition(), dragged);
+			}
 		}
 	}
 	
@@ -1847,6 +3062,54 @@ public class SGNode extends SGNodeBase implements PConstants {
 		// TODO
 	}
 	
+	// ---------------------------------------------------------------------------------------------
+	// Mouse index:
+	
+	/* The spatial index over the mouse-children, or null when the index is not enabled. */
+	private SGMouseIndex mouseIndex = null;
+	
+	/**
+	 * Enables or disables the spatial index over the children of this container that receive
+	 * system-mouse-events. When enabled, the mouse-events are only forwarded to the children whose
+	 * composite bounds contain the mouse position, instead of to each child in turn. This is
+	 * recommended for containers with many interactive children, such as a map with many tiles.
+	 * The z-order semantics are not affected.
+	 * 
+	 * @param enabled True when the index should be used.
+	 * 
+	 * @default false
+	 */
+	public void setMouseIndexEnabled(boolean enabled) {
+		if (enabled) {
+			if (mouseIndex == null) mouseIndex = new SGMouseIndex();
+		}
+		else mouseIndex = null;
+	}
+	
+	/**
+	 * @return True when the spatial index over the mouse-children is enabled.
+	 */
+	public boolean mouseIndexEnabled() {
+		return mouseIndex != null;
+	}
+	
+	/*
+	 * @return The children to which the current mouse-event should be forwarded, ordered from
+	 * bottom to top.
+	 */
+	private List<SGNode> getMouseTargets() {
+		if (mouseIndex == null) return mouseChildren;
+		PVector mousePos = getMousePosition();
+		return mouseIndex.query(mousePos.x, mousePos.y, mouseChildren);
+	}
+	
+	/* @return True when the given node is an ancestor of this node. */
+	private boolean isDescendantOf(SGNode node) {
+		for (SGNode p = parent; p != null; p = p.parent)
+			if (p == node) return true;
+		return false;
+	}
+	
 	// ---------------------------------------------------------------------------------------------
 	
 	/**
@@ -1857,6 +3120,7 @@ public class SGNode extends SGNodeBase implements PConstants {
 	protected void forwardMouseEventsTo(SGNode child) {
 		if (!mouseChildren.contains(child)) {
 			mouseChildren.add(child);
+			if (mouseIndex != null) mouseIndex.invalidate();
 			if (mouseChildren.size() == 1) {
 				forwardSysMouseEvents = true;
 				updateMouseFlags();
@@ -1871,9 +3135,12 @@ public class SGNode extends SGNodeBase implements PConstants {
 	 * @param node The child-node that no longer wants to receive system-mouse-events.
 	 */
 	protected void unforwardMouseEventsTo(SGNode child) {
-		if (mouseChildren.remove(child) && mouseChildren.size() == 0) {
-			forwardSysMouseEvents = false;
-			updateMouseFlags();
+		if (mouseChildren.remove(child)) {
+			if (mouseIndex != null) mouseIndex.invalidate();
+			if (mouseChildren.size() == 0) {
+				forwardSysMouseEvents = false;
+				updateMouseFlags();
+			}
 		}
 	}
 	
@@ -81,6 +81,8 @@ public class SGRect extends SGFigure {
 		this.rectHeight = height;
 		centerX = width / 2;
 		centerY = height / 2;
+		// Subclasses may override draw(), so they have to declare it thread-safe themselves:
+		setDrawThreadSafe(getClass() == SGRect.class);
 	}
 	
 	/* @see be.multec.sg.SGNode#dispose(boolean) */
@@ -6,6 +6,7 @@ import java.awt.Rectangle;
 import processing.core.PGraphics;
 import processing.core.PShape;
 import be.multec.sg.SGApp;
+import be.multec.sg.SGAssets;
 
 /**
  * A node that draws a vector shape.
@@ -46,6 +47,13 @@ public class SGShape extends SGFigure {
 	/* The shape object. */
 	private PShape shape;
 	
+	/*
+	 * The path of the shape when it is shared through SGAssets, or null otherwise. The styles of a
+	 * shared shape are not toggled, instead this node switches to the variant with or without
+	 * styles.
+	 */
+	private String sharedPath = null;
+	
 	/* The position mode. */
 	private Position position = Position.CORNER;
 	
@@ -93,7 +101,8 @@ public class SGShape extends SGFigure {
 	public SGShape(SGApp app, String path) {
 		super(app);
 		name += "__" + path;
-		shape = app.loadShape(path);
+		sharedPath = path;
+		shape = SGAssets.getShared().getShape(app, path);
 		checkShape(shape);
 	}
 	
@@ -107,7 +116,8 @@ public class SGShape extends SGFigure {
 	public SGShape(SGApp app, String path, Position position) {
 		super(app);
 		name += "__" + path;
-		shape = app.loadShape(path);
+		sharedPath = path;
+		shape = SGAssets.getShared().getShape(app, path);
 		checkShape(shape);
 		this.position = position;
 	}
@@ -117,7 +127,8 @@ public class SGShape extends SGFigure {
 	// ---------------------------------------------------------------------------------------------
 	
 	/**
-	 * @return the shape
+	 * @return the shape, which is shared with other nodes when it was loaded from a file, so it
+	 *         should not be modified in that case.
 	 */
 	public PShape getShape() {
 		return shape;
@@ -129,6 +140,7 @@ public class SGShape extends SGFigure {
 	public void setShape(PShape shape) {
 		checkShape(shape);
 		this.shape = shape;
+		sharedPath = null;
 		redraw(); // SGShape.setShape(PShape) [" + this + "]");
 		invalidateLocalBounds();
 	}
@@ -176,6 +188,7 @@ public class SGShape extends SGFigure {
 	public void useNodeStyles() {
 		if (useNodeStyles) return;
 		useNodeStyles = true;
+		if (sharedPath != null) shape = SGAssets.getShared().getUnstyledShape(app, sharedPath);
 		invalidateLocalBounds();
 		redraw(); // SGShape.useNodeStyles() [" + this + "]");
 	}
@@ -197,6 +210,7 @@ public class SGShape extends SGFigure {
 	public void useShapeStyles() {
 		if (!useNodeStyles) return;
 		useNodeStyles = false;
+		if (sharedPath != null) shape = SGAssets.getShared().getShape(app, sharedPath);
 		invalidateLocalBounds();
 		redraw(); // SGShape.useShapeStyles() [" + this + "]");
 	}
@@ -260,8 +274,10 @@ public class SGShape extends SGFigure {
 	@Override
 	protected void draw(PGraphics g) {
 		
-		if (useNodeStyles) shape.disableStyle();
-		else shape.enableStyle();
+		if (sharedPath == null) { // shared shapes have the right styles
+			if (useNodeStyles) shape.disableStyle();
+			else shape.enableStyle();
+		}
 		
 		if (position == Position.CORNER) {
 			g.pushMatrix();
@@ -0,0 +1,399 @@
+package be.multec.sg.nodes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.multec.sg.SGApp;
+
+/**
+ * A container that shows the items of a data provider in a vertically scrollable grid of cells
+ * with a fixed size. Only the items in the viewport, and in a margin of a few rows above and below
+ * it, are bound to nodes. When items scroll out of this window, their nodes are hidden and reused
+ * for the items that scroll in, such that the number of nodes, and thus the cost of the update and
+ * draw traversals, depends on the size of the viewport rather than on the number of items.
+ * 
+ * The viewport spans the rectangle (0, 0, viewportWidth, viewportHeight) in the local coordinate
+ * system of this node. The items are laid out row by row, from left to right. Note that the item
+ * nodes are not clipped, so the nodes of the partially visible rows may extend beyond the viewport.
+ * The rows in the overscan margin are bound but hidden.
+ * 
+ * Call dataChanged() when the items provided by the adapter changed, or itemChanged() when only a
+ * single item changed.
+ * 
+ * @see IVirtualItemAdapter
+ * @see SGVirtualList
+ * 
+ * @author Wouter Van den Broeck
+ */
+public class SGVirtualGrid extends SGNode {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The data provider. */
+	private IVirtualItemAdapter adapter;
+	
+	/* The number of columns. */
+	private int columns;
+	
+	/* The width of the cells. */
+	private float cellWidth;
+	
+	/* The height of the cells, which is the height of the rows. */
+	private float cellHeight;
+	
+	/* The number of items, as obtained from the adapter in the last call of dataChanged(). */
+	private int itemCount;
+	
+	/* The vertical scroll offset in pixels. */
+	private float scrollOffset = 0;
+	
+	/* The number of rows above and below the viewport for which the items are bound to nodes. */
+	private int overscan = 2;
+	
+	/* The index of the item shown by the first node in activeNodes. */
+	private int firstActiveIndex = 0;
+	
+	/* The nodes that show the items in the active window, in the order of the items. */
+	private ArrayList<SGNode> activeNodes = new ArrayList<SGNode>();
+	
+	/* The list that is swapped with activeNodes when the active window is updated. */
+	private ArrayList<SGNode> nextNodes = new ArrayList<SGNode>();
+	
+	/* The hidden child-nodes that are available for reuse. */
+	private ArrayList<SGNode> pool = new ArrayList<SGNode>();
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param app The scene-graph application object.
+	 * @param adapter The data provider.
+	 * @param columns The number of columns.
+	 * @param cellWidth The width of the cells.
+	 * @param cellHeight The height of the cells.
+	 * @param viewportWidth The width of the viewport.
+	 * @param viewportHeight The height of the viewport.
+	 */
+	public SGVirtualGrid(SGApp app, IVirtualItemAdapter adapter, int columns, float cellWidth,
+			float cellHeight, float viewportWidth, float viewportHeight)
+	{
+		super(app, viewportWidth, viewportHeight);
+		if (adapter == null) throw new Error("The adapter of a virtual grid should not be null.");
+		checkGeometry(columns, cellHeight);
+		this.adapter = adapter;
+		this.columns = columns;
+		this.cellWidth = cellWidth;
+		this.cellHeight = cellHeight;
+		itemCount = adapter.getItemCount();
+		setDrawThreadSafe(true); // a plain container
+		layoutItems();
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Unbinds the items that are shown and disposes this node.
+	 * 
+	 * @see be.multec.sg.nodes.SGNode#dispose(boolean)
+	 */
+	@Override
+	public void dispose(boolean traverse) {
+		if (disposed) return;
+		releaseActiveNodes();
+		activeNodes = nextNodes = pool = null;
+		adapter = null;
+		super.dispose(traverse);
+	}
+	
+	// *********************************************************************************************
+	// Accessors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return The data provider.
+	 */
+	public IVirtualItemAdapter getAdapter() {
+		return adapter;
+	}
+	
+	/**
+	 * @return The number of items, as obtained from the adapter in the last call of dataChanged().
+	 */
+	public int getItemCount() {
+		return itemCount;
+	}
+	
+	/**
+	 * @return The number of columns.
+	 */
+	public int getColumns() {
+		return columns;
+	}
+	
+	/**
+	 * @param columns The number of columns.
+	 */
+	public void setColumns(int columns) {
+		setGeometry(columns, cellWidth, cellHeight, explicitWidth(), explicitHeight());
+	}
+	
+	/**
+	 * @return The width of the cells.
+	 */
+	public float getCellWidth() {
+		return cellWidth;
+	}
+	
+	/**
+	 * @return The height of the cells.
+	 */
+	public float getCellHeight() {
+		return cellHeight;
+	}
+	
+	/**
+	 * @param cellWidth The width of the cells.
+	 * @param cellHeight The height of the cells.
+	 */
+	public void setCellSize(float cellWidth, float cellHeight) {
+		setGeometry(columns, cellWidth, cellHeight, explicitWidth(), explicitHeight());
+	}
+	
+	/**
+	 * @param width The width of the viewport.
+	 * @param height The height of the viewport.
+	 */
+	public void setViewportSize(float width, float height) {
+		setGeometry(columns, cellWidth, cellHeight, width, height);
+	}
+	
+	/**
+	 * @return The number of rows above and below the viewport for which the items are bound.
+	 */
+	public int getOverscan() {
+		return overscan;
+	}
+	
+	/**
+	 * Sets the number of rows above and below the viewport for which the items are bound to nodes
+	 * in advance, such that they do not need to be bound while they scroll into view.
+	 * 
+	 * @param rows The number of rows.
+	 * 
+	 * @default 2
+	 */
+	public void setOverscan(int rows) {
+		if (rows < 0) throw new Error("The overscan should not be negative.");
+		if (overscan == rows) return;
+		overscan = rows;
+		layoutItems();
+	}
+	
+	// *********************************************************************************************
+	// Scrolling:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return The vertical scroll offset in pixels.
+	 */
+	public float getScrollOffset() {
+		return scrollOffset;
+	}
+	
+	/**
+	 * @return The largest possible scroll offset, at which the last row is at the bottom of the
+	 *         viewport.
+	 */
+	public float getMaxScrollOffset() {
+		int rows = (itemCount + columns - 1) / columns;
+		return Math.max(0, rows * cellHeight - explicitHeight());
+	}
+	
+	/**
+	 * Sets the vertical scroll offset. The offset is clamped between 0 and getMaxScrollOffset().
+	 * 
+	 * @param offset The scroll offset in pixels.
+	 */
+	public void setScrollOffset(float offset) {
+		offset = Math.max(0, Math.min(offset, getMaxScrollOffset()));
+		if (scrollOffset == offset) return;
+		scrollOffset = offset;
+		layoutItems();
+	}
+	
+	/**
+	 * Adds the given distance to the vertical scroll offset.
+	 * 
+	 * @param distance The distance in pixels.
+	 */
+	public void scrollBy(float distance) {
+		setScrollOffset(scrollOffset + distance);
+	}
+	
+	/**
+	 * Scrolls the least distance such that the row of the indexed item is completely in view.
+	 * 
+	 * @param index The index of the item.
+	 */
+	public void scrollToItem(int index) {
+		float top = (index / columns) * cellHeight;
+		if (top < scrollOffset) setScrollOffset(top);
+		else if (top + cellHeight > scrollOffset + explicitHeight())
+			setScrollOffset(top + cellHeight - explicitHeight());
+	}
+	
+	// *********************************************************************************************
+	// Items:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Call this method when the items provided by the adapter changed. All item nodes are unbound,
+	 * the number of items is obtained again from the adapter, and the items in the active window
+	 * are bound anew.
+	 */
+	public void dataChanged() {
+		releaseActiveNodes();
+		itemCount = adapter.getItemCount();
+		scrollOffset = Math.max(0, Math.min(scrollOffset, getMaxScrollOffset()));
+		layoutItems();
+	}
+	
+	/**
+	 * Call this method when the indexed item changed, but not the number of items. The item is
+	 * bound anew when it is shown.
+	 * 
+	 * @param index The index of the item.
+	 */
+	public void itemChanged(int index) {
+		SGNode node = getItemNode(index);
+		if (node == null) return;
+		adapter.unbindItemNode(node, index);
+		adapter.bindItemNode(node, index);
+	}
+	
+	/**
+	 * @param index The index of an item.
+	 * @return The node that shows the indexed item, or null when this item is not in the active
+	 *         window, i.e. when it is not in or near the viewport.
+	 */
+	public SGNode getItemNode(int index) {
+		int i = index - firstActiveIndex;
+		if (i < 0 || i >= activeNodes.size()) return null;
+		return activeNodes.get(i);
+	}
+	
+	/**
+	 * Removes and disposes the hidden item nodes that are available for reuse, e.g. after the
+	 * viewport was made smaller.
+	 */
+	public void trimPool() {
+		if (pool.isEmpty()) return;
+		removeNodes(pool);
+		for (SGNode node : pool)
+			node.dispose(true);
+		pool.clear();
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Sets the layout properties and updates the active window once.
+	 * 
+	 * @param columns The number of columns.
+	 * @param cellWidth The width of the cells.
+	 * @param cellHeight The height of the cells.
+	 * @param viewportWidth The width of the viewport.
+	 * @param viewportHeight The height of the viewport.
+	 */
+	protected void setGeometry(int columns, float cellWidth, float cellHeight, float viewportWidth,
+			float viewportHeight)
+	{
+		checkGeometry(columns, cellHeight);
+		if (this.columns == columns && this.cellWidth == cellWidth
+				&& this.cellHeight == cellHeight && explicitWidth() == viewportWidth
+				&& explicitHeight() == viewportHeight) return;
+		this.columns = columns;
+		this.cellWidth = cellWidth;
+		this.cellHeight = cellHeight;
+		explicitSize(viewportWidth, viewportHeight);
+		scrollOffset = Math.max(0, Math.min(scrollOffset, getMaxScrollOffset()));
+		layoutItems();
+	}
+	
+	/* Throws an error when the given layout properties are not valid. */
+	private static void checkGeometry(int columns, float cellHeight) {
+		if (columns < 1) throw new Error("The number of columns should be at least 1.");
+		if (cellHeight <= 0) throw new Error("The cell height should be positive.");
+	}
+	
+	/*
+	 * Determines the items in and near the viewport, recycles the nodes of the items that left this
+	 * window, binds the items that entered it, and positions the nodes.
+	 */
+	private void layoutItems() {
+		float viewportHeight = explicitHeight();
+		int rows = (itemCount + columns - 1) / columns;
+		int firstRow = (int) Math.floor(scrollOffset / cellHeight) - overscan;
+		int endRow = (int) Math.ceil((scrollOffset + viewportHeight) / cellHeight) + overscan;
+		int start = Math.max(0, firstRow) * columns;
+		int end = Math.max(start, Math.min(itemCount, Math.min(rows, endRow) * columns));
+		
+		int oldStart = firstActiveIndex, oldEnd = firstActiveIndex + activeNodes.size();
+		for (int i = oldStart; i < oldEnd; i++) {
+			if (i < start || i >= end) recycleNode(activeNodes.get(i - oldStart), i);
+		}
+		
+		// create the missing nodes in a single batch:
+		int reused = Math.max(0, Math.min(end, oldEnd) - Math.max(start, oldStart));
+		int missing = end - start - reused - pool.size();
+		if (missing > 0) {
+			List<SGNode> nodes = new ArrayList<SGNode>(missing);
+			for (int i = 0; i < missing; i++) {
+				SGNode node = adapter.createItemNode(app);
+				node.visible(false);
+				nodes.add(node);
+			}
+			addNodes(nodes);
+			pool.addAll(nodes);
+		}
+		
+		nextNodes.clear();
+		for (int i = start; i < end; i++) {
+			SGNode node;
+			if (i >= oldStart && i < oldEnd) node = activeNodes.get(i - oldStart);
+			else {
+				node = pool.remove(pool.size() - 1);
+				adapter.bindItemNode(node, i);
+			}
+			float y = (float) ((double) (i / columns) * cellHeight - scrollOffset);
+			node.moveTo((i % columns) * cellWidth, y);
+			node.visible(y < viewportHeight && y + cellHeight > 0);
+			nextNodes.add(node);
+		}
+		
+		ArrayList<SGNode> swap = activeNodes;
+		activeNodes = nextNodes;
+		nextNodes = swap;
+		nextNodes.clear();
+		firstActiveIndex = start;
+	}
+	
+	/* Unbinds and recycles all active nodes. */
+	private void releaseActiveNodes() {
+		for (int i = 0, n = activeNodes.size(); i < n; i++)
+			recycleNode(activeNodes.get(i), firstActiveIndex + i);
+		activeNodes.clear();
+		firstActiveIndex = 0;
+	}
+	
+	/* Unbinds the given node, hides it, and adds it to the pool. */
+	private void recycleNode(SGNode node, int index) {
+		adapter.unbindItemNode(node, index);
+		node.visible(false);
+		pool.add(node);
+	}
+	
+}
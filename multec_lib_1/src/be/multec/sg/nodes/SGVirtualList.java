@@ -0,0 +1,83 @@
+package be.multec.sg.nodes;
+
+import be.multec.sg.SGApp;
+
+/**
+ * A virtual grid with a single column, of which the cells span the width of the viewport. Use this
+ * container for long lists of rows with a fixed height, e.g. catalogue screens. Only the rows in
+ * and near the viewport are bound to nodes, and these nodes are reused as the list scrolls.
+ * 
+ * @see SGVirtualGrid
+ * 
+ * @author Wouter Van den Broeck
+ */
+public class SGVirtualList extends SGVirtualGrid {
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param app The scene-graph application object.
+	 * @param adapter The data provider.
+	 * @param rowHeight The height of the rows.
+	 * @param viewportWidth The width of the viewport, which is also the width of the rows.
+	 * @param viewportHeight The height of the viewport.
+	 */
+	public SGVirtualList(SGApp app, IVirtualItemAdapter adapter, float rowHeight,
+			float viewportWidth, float viewportHeight)
+	{
+		super(app, adapter, 1, viewportWidth, rowHeight, viewportWidth, viewportHeight);
+	}
+	
+	// *********************************************************************************************
+	// Accessors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return The height of the rows.
+	 */
+	public float getRowHeight() {
+		return getCellHeight();
+	}
+	
+	/**
+	 * @param rowHeight The height of the rows.
+	 */
+	public void setRowHeight(float rowHeight) {
+		setGeometry(1, explicitWidth(), rowHeight, explicitWidth(), explicitHeight());
+	}
+	
+	/**
+	 * Sets the size of the viewport. The width of the rows follows the width of the viewport.
+	 * 
+	 * @see be.multec.sg.nodes.SGVirtualGrid#setViewportSize(float, float)
+	 */
+	@Override
+	public void setViewportSize(float width, float height) {
+		setGeometry(1, width, getCellHeight(), width, height);
+	}
+	
+	/**
+	 * A list always has a single column.
+	 * 
+	 * @see be.multec.sg.nodes.SGVirtualGrid#setColumns(int)
+	 */
+	@Override
+	public void setColumns(int columns) {
+		if (columns != 1) throw new Error("A virtual list has a single column.");
+	}
+	
+	/**
+	 * The width of the rows follows the width of the viewport.
+	 * 
+	 * @see be.multec.sg.nodes.SGVirtualGrid#setCellSize(float, float)
+	 */
+	@Override
+	public void setCellSize(float cellWidth, float cellHeight) {
+		if (cellWidth != explicitWidth())
+			throw new Error("The width of the rows in a virtual list is the viewport width.");
+		setRowHeight(cellHeight);
+	}
+	
+}
@@ -0,0 +1,13 @@
+package be.multec.sg.nodes.controllers;
+
+/**
+ * Marker interface for node controllers that can safely be applied on a worker thread when the
+ * parallel update mode is enabled. The apply method of such a controller should only read and
+ * modify the properties (e.g. position, rotation, scale, visibility) of the node on which it is
+ * applied, and should not add or remove nodes, nor read the bounds of other nodes.
+ * 
+ * @see be.multec.sg.SGApp#setParallelUpdate(boolean)
+ * 
+ * @author Wouter Van den Broeck
+ */
+public interface IThreadSafeNodeController extends INodeController {}
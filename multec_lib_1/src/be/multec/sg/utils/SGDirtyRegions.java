@@ -0,0 +1,194 @@
+package be.multec.sg.utils;
+
+import java.awt.Rectangle;
+
+/**
+ * A small set of damage rectangles in the coordinate system of the stage. Rectangles that overlap
+ * or touch are merged when they are added. When the maximum number of rectangles is reached, the
+ * added rectangle is merged with the rectangle for which the increase of the area is the smallest.
+ * 
+ * This class is used by SGApp for the dirty-region redraw mode.
+ * 
+ * @author Wouter Van den Broeck
+ */
+public class SGDirtyRegions {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The rectangles. Only the first <em>count</em> elements are valid. */
+	private final Rectangle[] rects;
+	
+	/* The number of valid rectangles. */
+	private int count = 0;
+	
+	/* The rectangle to which all added rectangles are clipped. Ignored when null. */
+	private Rectangle clip = null;
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param maxRects The maximum number of separate rectangles.
+	 */
+	public SGDirtyRegions(int maxRects) {
+		if (maxRects < 1) throw new Error("The maximum number of rectangles should be at least 1.");
+		rects = new Rectangle[maxRects];
+		for (int i = 0; i < maxRects; i++)
+			rects[i] = new Rectangle();
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param clip The rectangle to which all added rectangles are clipped, or null.
+	 */
+	public void setClip(Rectangle clip) {
+		this.clip = clip;
+	}
+	
+	/** Removes all rectangles. */
+	public void clear() {
+		count = 0;
+	}
+	
+	/**
+	 * @return True when there are no rectangles.
+	 */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+	
+	/**
+	 * @return The number of rectangles.
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * @param index
+	 * @return The indexed rectangle. Do not modify the returned object.
+	 */
+	public Rectangle get(int index) {
+		if (index >= count) throw new IndexOutOfBoundsException("index: " + index);
+		return rects[index];
+	}
+	
+	/**
+	 * @return The total area covered by the rectangles. The rectangles never overlap, so this is
+	 *         the number of pixels covered.
+	 */
+	public long getArea() {
+		long area = 0;
+		for (int i = 0; i < count; i++)
+			area += (long) rects[i].width * rects[i].height;
+		return area;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Adds the given rectangle. Empty rectangles are ignored.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 */
+	public void add(int x, int y, int width, int height) {
+		if (width <= 0 || height <= 0) return;
+		
+		int x1 = x;
+		int y1 = y;
+		int x2 = x + width;
+		int y2 = y + height;
+		if (clip != null) {
+			x1 = Math.max(x1, clip.x);
+			y1 = Math.max(y1, clip.y);
+			x2 = Math.min(x2, clip.x + clip.width);
+			y2 = Math.min(y2, clip.y + clip.height);
+			if (x2 <= x1 || y2 <= y1) return;
+		}
+		
+		// Merge with touching or overlapping rectangles, repeat until no longer possible:
+		boolean merged = true;
+		while (merged) {
+			merged = false;
+			for (int i = 0; i < count; i++) {
+				Rectangle r = rects[i];
+				if (x1 <= r.x + r.width && r.x <= x2 && y1 <= r.y + r.height && r.y <= y2) {
+					x1 = Math.min(x1, r.x);
+					y1 = Math.min(y1, r.y);
+					x2 = Math.max(x2, r.x + r.width);
+					y2 = Math.max(y2, r.y + r.height);
+					removeAt(i);
+					merged = true;
+					break;
+				}
+			}
+		}
+		
+		if (count < rects.length) {
+			rects[count++].setBounds(x1, y1, x2 - x1, y2 - y1);
+			return;
+		}
+		
+		// Merge with the rectangle for which the area increase is minimal:
+		int best = 0;
+		long bestIncrease = Long.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			Rectangle r = rects[i];
+			long ux1 = Math.min(x1, r.x);
+			long uy1 = Math.min(y1, r.y);
+			long ux2 = Math.max(x2, r.x + r.width);
+			long uy2 = Math.max(y2, r.y + r.height);
+			long increase = (ux2 - ux1) * (uy2 - uy1) - (long) r.width * r.height;
+			if (increase < bestIncrease) {
+				bestIncrease = increase;
+				best = i;
+			}
+		}
+		Rectangle r = rects[best];
+		x1 = Math.min(x1, r.x);
+		y1 = Math.min(y1, r.y);
+		x2 = Math.max(x2, r.x + r.width);
+		y2 = Math.max(y2, r.y + r.height);
+		removeAt(best);
+		add(x1, y1, x2 - x1, y2 - y1); // the union might now touch other rectangles
+	}
+	
+	/**
+	 * Adds the given rectangle. Empty rectangles are ignored.
+	 * 
+	 * @param rect
+	 */
+	public void add(Rectangle rect) {
+		add(rect.x, rect.y, rect.width, rect.height);
+	}
+	
+	/**
+	 * @param rect A rectangle.
+	 * @return True when the given rectangle intersects with at least one of the rectangles.
+	 */
+	public boolean intersects(Rectangle rect) {
+		for (int i = 0; i < count; i++)
+			if (rects[i].intersects(rect)) return true;
+		return false;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Removes the indexed rectangle, keeping the rectangle objects for reuse. */
+	private void removeAt(int index) {
+		Rectangle removed = rects[index];
+		count--;
+		rects[index] = rects[count];
+		rects[count] = removed;
+	}
+	
+}
@@ -0,0 +1,122 @@
+package be.multec.sg.utils;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent samples of a measurement in a fixed-size window, such that percentiles
+ * (e.g. the median, p95 and p99) can be computed over the recent history. Adding a sample does not
+ * allocate any objects. The samples are only sorted when a percentile is requested after new
+ * samples were added.
+ * 
+ * This class is thread-safe.
+ * 
+ * @author Wouter Van den Broeck
+ */
+public class SGRollingHistogram {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The samples, used as a ring buffer. */
+	private final long[] samples;
+	
+	/* The number of valid samples. */
+	private int count = 0;
+	
+	/* The index at which the next sample is stored. */
+	private int next = 0;
+	
+	/* The sum of the valid samples. */
+	private long sum = 0;
+	
+	/* The sorted copy of the valid samples. */
+	private final long[] sorted;
+	
+	/* True when the sorted copy is outdated. */
+	private boolean sortedDirty = false;
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param window The number of most recent samples that are kept.
+	 */
+	public SGRollingHistogram(int window) {
+		if (window < 1) throw new Error("The window should contain at least 1 sample.");
+		samples = new long[window];
+		sorted = new long[window];
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Adds a sample. The oldest sample is dropped when the window is full.
+	 * 
+	 * @param value The sample.
+	 */
+	public synchronized void add(long value) {
+		if (count == samples.length) sum -= samples[next];
+		else count++;
+		samples[next] = value;
+		sum += value;
+		next = (next + 1) % samples.length;
+		sortedDirty = true;
+	}
+	
+	/** Removes all samples. */
+	public synchronized void clear() {
+		count = next = 0;
+		sum = 0;
+		sortedDirty = false;
+	}
+	
+	/**
+	 * @return The number of samples in the window.
+	 */
+	public synchronized int getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return The maximum number of samples in the window.
+	 */
+	public int getWindow() {
+		return samples.length;
+	}
+	
+	/**
+	 * Returns the given percentile of the samples in the window, using the nearest-rank method.
+	 * 
+	 * @param percentile The percentile, between 0 and 100.
+	 * @return The percentile, or 0 when there are no samples.
+	 */
+	public synchronized long getPercentile(float percentile) {
+		if (count == 0) return 0;
+		if (sortedDirty) {
+			System.arraycopy(samples, 0, sorted, 0, count);
+			Arrays.sort(sorted, 0, count);
+			sortedDirty = false;
+		}
+		int rank = (int) Math.ceil(percentile / 100 * count);
+		return sorted[Math.max(0, Math.min(count - 1, rank - 1))];
+	}
+	
+	/**
+	 * @return The mean of the samples in the window, or 0 when there are no samples.
+	 */
+	public synchronized double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+	
+	/**
+	 * @return The largest sample in the window, or 0 when there are no samples.
+	 */
+	public long getMax() {
+		return getPercentile(100);
+	}
+	
+}
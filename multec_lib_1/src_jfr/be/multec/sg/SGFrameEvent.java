@@ -0,0 +1,70 @@
+package be.multec.sg;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The Flight Recorder event emitted for each profiled frame. This class is in a separate source
+ * folder because compiling it requires a JDK 11 or later, while the rest of the library does not.
+ * Compile it against the classes of the library and put it on the same classpath.
+ * SGFrameStats only loads it, through its Emitter, when the JVM provides the jdk.jfr API.
+ * 
+ * @see SGFrameStats
+ * @author Wouter Van den Broeck
+ */
+@Name("be.multec.sg.Frame")
+@Label("Scene-Graph Frame")
+@Description("The durations of the phases of a frame of a scene-graph app.")
+@Category("Multec Scene-Graph")
+@StackTrace(false)
+class SGFrameEvent extends Event {
+	
+	@Label("Frame")
+	long frame;
+	
+	@Label("Scheduled Controllers")
+	@Timespan(Timespan.NANOSECONDS)
+	long scheduled;
+	
+	@Label("Update Traversal")
+	@Timespan(Timespan.NANOSECONDS)
+	long update;
+	
+	@Label("Draw Traversal")
+	@Timespan(Timespan.NANOSECONDS)
+	long draw;
+	
+	@Label("Enqueued Updates")
+	@Timespan(Timespan.NANOSECONDS)
+	long enqueued;
+	
+	@Label("Repainted Pixels")
+	long repaintedPixels;
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Emits the frames as events of this class, looked up by name by SGFrameStats. */
+	static final class Emitter implements SGFrameStats.FrameEventEmitter {
+		
+		@Override
+		public void emit(long frame, long scheduled, long update, long draw, long enqueued,
+				long repaintedPixels) {
+			SGFrameEvent event = new SGFrameEvent();
+			if (!event.isEnabled()) return;
+			event.frame = frame;
+			event.scheduled = scheduled;
+			event.update = update;
+			event.draw = draw;
+			event.enqueued = enqueued;
+			event.repaintedPixels = repaintedPixels;
+			event.commit();
+		}
+		
+	}
+	
+}
@@ -0,0 +1,95 @@
+package benchmarks;
+
+import be.multec.sg.SGApp;
+import be.multec.sg.nodes.SGNode;
+
+/**
+ * Base class for the scene-graph micro-benchmarks that are run by the SGBenchmarkRunner. A
+ * benchmark builds its fixture in setup(), below the root node that is added to the stage of the
+ * app. The runner then calls run() repeatedly, first to warm up the JIT compiler and then to
+ * measure the time per operation.
+ * 
+ * @see SGBenchmarkRunner
+ * @author Wouter Van den Broeck
+ */
+public abstract class SGBenchmark {
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The name of this benchmark. */
+	private final String name;
+	
+	/** The app in which the benchmark runs. */
+	protected SGApp app;
+	
+	/** The node in which the fixture of the benchmark is built. */
+	protected SGNode root;
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param name The name of this benchmark.
+	 */
+	public SGBenchmark(String name) {
+		this.name = name;
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return The name of this benchmark.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Builds the fixture of this benchmark. Overriding methods should call this method first.
+	 * 
+	 * @param app The app in which the benchmark runs.
+	 */
+	public void setup(SGApp app) {
+		this.app = app;
+		root = new SGNode(app);
+		app.addNode(root);
+	}
+	
+	/**
+	 * Executes the benchmarked code once.
+	 * 
+	 * @return A value that depends on the work done, such that the JIT compiler cannot eliminate
+	 *         it.
+	 */
+	public abstract int run();
+	
+	/**
+	 * @return The number of operations performed by each call of run().
+	 */
+	public int getOperationsPerRun() {
+		return 1;
+	}
+	
+	/**
+	 * Removes the fixture of this benchmark. Overriding methods should call this method last.
+	 */
+	public void teardown() {
+		app.getStage().removeNode(root);
+		root.dispose(true);
+		root = null;
+		app = null;
+	}
+	
+	/**
+	 * Applies the pending updates of the stage, as the update traversal of the app would.
+	 */
+	protected void updateStage() {
+		if (app.getStage().updatePending()) app.getStage().updateNode();
+	}
+	
+}
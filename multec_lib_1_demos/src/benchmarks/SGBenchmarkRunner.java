@@ -0,0 +1,149 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.awt.HeadlessException;
+import java.util.List;
+
+import be.multec.sg.SGOffscreenApp;
+
+/**
+ * Runs the scene-graph micro-benchmarks and prints the results on the console. Each benchmark is
+ * first run repeatedly during WARMUP_ITERATIONS iterations of ITERATION_MILLIS milliseconds, such
+ * that the JIT compiler can optimize the code, and then during MEASURED_ITERATIONS iterations. The
+ * mean time per operation and its standard deviation over the measured iterations are reported.
+ * 
+ * The benchmarks run in an offscreen app, so no window is opened. A Processing applet is an AWT
+ * component though, which cannot be constructed when the JVM runs in headless mode. So the runner
+ * still needs a display, and on a Linux box without one, a virtual frame buffer:
+ * 
+ * <pre>
+ * xvfb-run java -cp ... benchmarks.SGBenchmarkRunner [name-filter]
+ * </pre>
+ * 
+ * When a filter is given, only the benchmarks whose name contains it are run.
+ * 
+ * @see SceneGraphBenchmarks
+ * @author Wouter Van den Broeck
+ */
+public class SGBenchmarkRunner extends SGOffscreenApp {
+	
+	// *********************************************************************************************
+	// Main method:
+	// ---------------------------------------------------------------------------------------------
+	
+	public static void main(String[] args) {
+		SGBenchmarkRunner runner;
+		try {
+			runner = new SGBenchmarkRunner(args.length > 0 ? args[0] : null);
+		}
+		catch (HeadlessException e) {
+			System.err.println("The benchmarks need a display, also when no window is opened.");
+			System.err.println("Usage: [xvfb-run] java -cp ... benchmarks.SGBenchmarkRunner"
+					+ " [name-filter]");
+			System.exit(1);
+			return;
+		}
+		runner.start(600, 400, 25, new Color(0xFFFFFF));
+		runner.renderFrame(); // the first frame completes the setup of the app
+		runner.runBenchmarks();
+		runner.dispose();
+		System.exit(0);
+	}
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/** The number of unmeasured warmup iterations per benchmark. */
+	public static int WARMUP_ITERATIONS = 5;
+	
+	/** The number of measured iterations per benchmark. */
+	public static int MEASURED_ITERATIONS = 10;
+	
+	/** The duration of an iteration in milliseconds. */
+	public static int ITERATION_MILLIS = 500;
+	
+	/* Only the benchmarks whose name contains this filter are run, or all when null. */
+	private final String filter;
+	
+	/*
+	 * Accumulates the values returned by the benchmarks, such that the JIT compiler cannot
+	 * eliminate the benchmarked code.
+	 */
+	private volatile int sink = 0;
+	
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @param filter Only the benchmarks whose name contains this filter are run, or all when null.
+	 */
+	public SGBenchmarkRunner(String filter) {
+		this.filter = filter;
+	}
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* @see processing.core.PApplet#setup() */
+	@Override
+	public void setup() {}
+	
+	/* Runs the benchmarks that pass the filter and prints the results. */
+	private void runBenchmarks() {
+		List<SGBenchmark> benchmarks = SceneGraphBenchmarks.createAll();
+		println("benchmark\tns/op\t\t+/-");
+		for (SGBenchmark benchmark : benchmarks) {
+			if (filter != null && !benchmark.getName().contains(filter)) continue;
+			println(measure(benchmark));
+		}
+		println("(sink: " + sink + ")");
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Runs the given benchmark and returns the result line. */
+	private String measure(SGBenchmark benchmark) {
+		benchmark.setup(this);
+		try {
+			for (int i = 0; i < WARMUP_ITERATIONS; i++)
+				iterate(benchmark);
+			
+			double[] results = new double[MEASURED_ITERATIONS];
+			double mean = 0;
+			for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+				results[i] = iterate(benchmark);
+				mean += results[i];
+			}
+			mean /= MEASURED_ITERATIONS;
+			double variance = 0;
+			for (double result : results)
+				variance += (result - mean) * (result - mean);
+			double stdDev = Math.sqrt(variance / Math.max(1, MEASURED_ITERATIONS - 1));
+			
+			return benchmark.getName() + "\t" + String.format("%.1f\t\t%.1f", mean, stdDev);
+		}
+		finally {
+			benchmark.teardown();
+		}
+	}
+	
+	/* Runs the given benchmark during one iteration and returns the mean time per operation. */
+	private double iterate(SGBenchmark benchmark) {
+		long end = System.nanoTime() + ITERATION_MILLIS * 1000000L;
+		long operations = 0;
+		long start = System.nanoTime(), now;
+		int value = 0;
+		do {
+			value += benchmark.run();
+			operations += benchmark.getOperationsPerRun();
+			now = System.nanoTime();
+		}
+		while (now < end);
+		sink += value;
+		return (double) (now - start) / operations;
+	}
+	
+}
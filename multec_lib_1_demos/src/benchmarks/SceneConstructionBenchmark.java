@@ -0,0 +1,111 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.multec.sg.SGWindow;
+import be.multec.sg.nodes.SGLabel;
+import be.multec.sg.nodes.SGNode;
+import be.multec.sg.nodes.SGRect;
+
+/**
+ * Measures the time needed to construct a grid of nodes in a container that is part of the
+ * scene-graph, for an increasing number of nodes. The nodes are added one by one with addNode(),
+ * and as a single batch with addNodes(). The results are printed on the console and shown in the
+ * window.
+ * 
+ * @author Wouter Van den Broeck
+ */
+public class SceneConstructionBenchmark extends SGWindow {
+	
+	// *********************************************************************************************
+	// Main method:
+	// ---------------------------------------------------------------------------------------------
+	
+	public static void main(String[] args) {
+		new SceneConstructionBenchmark().open("Scene Construction Benchmark", 50, 30, 600, 300,
+				new Color(0xFFFFFF));
+	}
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The node counts for which the construction time is measured. */
+	private static final int[] NODE_COUNTS = { 500, 1000, 2000, 4000, 8000 };
+	
+	/* The number of measured runs per node count. The best run is reported. */
+	private static final int RUNS = 5;
+	
+	/* The number of unmeasured warmup runs per node count. */
+	private static final int WARMUP_RUNS = 2;
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* @see processing.core.PApplet#setup() */
+	@Override
+	public void setup() {
+		StringBuilder report = new StringBuilder();
+		report.append("nodes\taddNode (ms)\taddNodes (ms)\n");
+		for (int count : NODE_COUNTS) {
+			double single = measure(count, false);
+			double batch = measure(count, true);
+			report.append(count + "\t" + nf((float) single, 1, 2) + "\t\t" + nf((float) batch, 1, 2)
+					+ "\n");
+		}
+		println(report);
+		
+		SGLabel label = new SGLabel(this, report.toString());
+		addNode(label, 20, 30);
+	}
+	
+	/* @see be.multec.sg.SGWindow#windowClosed() */
+	@Override
+	protected void windowClosed() {
+		System.exit(0);
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/*
+	 * Returns the best time in milliseconds needed to add the given number of nodes in a container
+	 * on the stage.
+	 */
+	private double measure(int count, boolean batch) {
+		double best = Double.MAX_VALUE;
+		for (int run = 0; run < WARMUP_RUNS + RUNS; run++) {
+			SGNode container = new SGNode(this);
+			addNode(container);
+			
+			List<SGNode> nodes = createGrid(count);
+			long start = System.nanoTime();
+			if (batch) container.addNodes(nodes);
+			else {
+				for (SGNode node : nodes)
+					container.addNode(node);
+			}
+			long duration = System.nanoTime() - start;
+			
+			removeNode(container);
+			container.dispose(true);
+			if (run >= WARMUP_RUNS) best = Math.min(best, duration / 1e6);
+		}
+		return best;
+	}
+	
+	/* Creates the given number of tiles, positioned in a grid. */
+	private List<SGNode> createGrid(int count) {
+		List<SGNode> nodes = new ArrayList<SGNode>(count);
+		int cols = (int) Math.ceil(Math.sqrt(count));
+		for (int i = 0; i < count; i++) {
+			SGRect tile = new SGRect(this, 8, 8, new Color(0xFFCC00));
+			tile.moveTo((i % cols) * 10, (i / cols) * 10);
+			nodes.add(tile);
+		}
+		return nodes;
+	}
+	
+}
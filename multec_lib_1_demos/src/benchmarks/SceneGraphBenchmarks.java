@@ -0,0 +1,644 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PVector;
+import processing.data.XML;
+import processing.event.MouseEvent;
+import be.multec.languages.Language;
+import be.multec.languages.MLString;
+import be.multec.languages.MLStringTable;
+import be.multec.languages.MLStrings;
+import be.multec.sg.SGApp;
+import be.multec.sg.SGTileRenderer;
+import be.multec.sg.SGTweenEngine;
+import be.multec.sg.SGTweenEngine.Easing;
+import be.multec.sg.SGTweenEngine.Property;
+import be.multec.sg.eventHandlers.SGMouseEventHandler;
+import be.multec.sg.nodes.SGLabel;
+import be.multec.sg.nodes.SGNode;
+import be.multec.sg.nodes.SGRect;
+import be.multec.sg.nodes.controllers.NodeController;
+
+/**
+ * The micro-benchmarks of the core operations of the scene-graph: adding and removing nodes, the
+ * invalidation chain, the update traversal over deep and wide trees, the draw traversal with and
+ * without caching or tiles, mouse hit-testing, the relayout and wrapping of labels, tweening and
+ * the registration of multi-language strings.
+ * 
+ * @see SGBenchmarkRunner
+ * @author Wouter Van den Broeck
+ */
+public class SceneGraphBenchmarks {
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * @return New instances of all benchmarks in this class.
+	 */
+	public static List<SGBenchmark> createAll() {
+		List<SGBenchmark> benchmarks = new ArrayList<SGBenchmark>();
+		benchmarks.add(new AddRemoveNodes(10000));
+		benchmarks.add(new InvalidationChain(64));
+		benchmarks.add(new UpdateTraversal(1, 1000));
+		benchmarks.add(new UpdateTraversal(10000, 1));
+		benchmarks.add(new DrawTraversal(10000, false));
+		benchmarks.add(new DrawTraversal(10000, true));
+		benchmarks.add(new TiledDrawTraversal(10000, 1));
+		benchmarks.add(new TiledDrawTraversal(10000, Runtime.getRuntime().availableProcessors()));
+		benchmarks.add(new MouseHitTest(10000, false));
+		benchmarks.add(new MouseHitTest(10000, true));
+		benchmarks.add(new LabelRelayout(1000));
+		benchmarks.add(new BoxLabelDraw(200, false, false));
+		benchmarks.add(new BoxLabelDraw(200, true, false));
+		benchmarks.add(new BoxLabelDraw(200, true, true));
+		benchmarks.add(new Tweening(5000, false));
+		benchmarks.add(new Tweening(5000, true));
+		benchmarks.add(new MLStringRegistration(100000));
+		return benchmarks;
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/* Creates the given number of tiles in a grid in the given container. */
+	private static List<SGNode> createGrid(SGApp app, SGNode container, int count) {
+		List<SGNode> tiles = new ArrayList<SGNode>(count);
+		int cols = (int) Math.ceil(Math.sqrt(count));
+		for (int i = 0; i < count; i++) {
+			SGRect tile = new SGRect(app, 4, 4, new Color(0xFFCC00));
+			tile.moveTo((i % cols) * 5, (i / cols) * 5);
+			tiles.add(tile);
+		}
+		container.addNodes(tiles);
+		return tiles;
+	}
+	
+	/* The controller that moves the node one pixel back and forth in each update traversal. */
+	private static class Jitter extends NodeController {
+		
+		private boolean flip = false;
+		
+		@Override
+		public void apply(SGNode node) {
+			flip = !flip;
+			node.move(flip ? 1 : -1, 0);
+		}
+		
+	}
+	
+	// *********************************************************************************************
+	// Benchmarks:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Adds the given number of nodes one by one to a container on the stage, and then removes them
+	 * one by one in reverse order.
+	 */
+	public static class AddRemoveNodes extends SGBenchmark {
+		
+		private final int count;
+		private SGNode[] nodes;
+		
+		public AddRemoveNodes(int count) {
+			super("addRemoveNodes[" + count + "]");
+			this.count = count;
+		}
+		
+		@Override
+		public void setup(SGApp app) {
+			super.setup(app);
+			nodes = new SGNode[count];
+			for (int i = 0; i < count; i++)
+				nodes[i] = new SGRect(app, 4, 4, new Color(0xFFCC00));
+		}
+		
+		@Override
+		public int run() {
+			for (int i = 0; i < count; i++)
+				root.addNode(nodes[i]);
+			int added = root.getChildren().size();
+			for (int i = count - 1; i >= 0; i--)
+				root.removeNode(nodes[i]);
+			return added;
+		}
+		
+		@Override
+		public int getOperationsPerRun() {
+			return 2 * count;
+		}
+		
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Invalidates the leaf of a chain of nested nodes of the given depth, and then applies the
+	 * resulting update traversal from the stage down to the leaf.
+	 */
+	public static class InvalidationChain extends SGBenchmark {
+		
+		private final int depth;
+		private SGNode leaf;
+		
+		public InvalidationChain(int depth) {
+			super("invalidationChain[depth=" + depth + "]");
+			this.depth = depth;
+		}
+		
+		@Override
+		public void setup(SGApp app) {
+			super.setup(app);
+			leaf = root;
+			for (int i = 0; i < depth; i++)
+				leaf = leaf.addNode(new SGNode(app));
+			updateStage();
+		}
+		
+		@Override
+		public int run() {
+			leaf.invalidateNode();
+			updateStage();
+			return leaf.updatePending() ? 0 : 1;
+		}
+		
+		@Override
+		public void teardown() {
+			leaf = null;
+			super.teardown();
+		}
+		
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Applies the update traversal to a forest of the given number of chains of the given depth,
+	 * in which each leaf has a controller that moves it. A single chain of depth 1000 gives a deep
+	 * tree, while 10000 chains of depth 1 give a wide tree.
+	 */
+	public static class UpdateTraversal extends SGBenchmark {
+		
+		private final int width;
+		private final int depth;
+		
+		public UpdateTraversal(int width, int depth) {
+			super("updateTraversal[" + (width > depth ? "wide" : "deep") + ", " + width + "x"
+					+ depth + "]");
+			this.width = width;
+			this.depth = depth;
+		}
+		
+		@Override
+		public void setup(SGApp app) {
+			super.setup(app);
+			for (int i = 0; i < width; i++) {
+				SGNode node = root;
+				for (int j = 0; j < depth; j++)
+					node = node.addNode(new SGRect(app, 4, 4, new Color(0xFFCC00)));
+				node.setController(new Jitter());
+			}
+			updateStage();
+		}
+		
+		@Override
+		public int run() {
+			updateStage();
+			return root.getChildren().size();
+		}
+		
+		@Override
+		public int getOperationsPerRun() {
+			return width * depth;
+		}
+		
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Draws a grid of the given number of tiles into an offscreen JAVA2D graphics object, with the
+	 * container of the tiles cached or not.
+	 */
+	public static class DrawTraversal extends SGBenchmark {
+		
+		private final int count;
+		private final boolean cached;
+		private PGraphics pg;
+		
+		public DrawTraversal(int count, boolean cached) {
+			super("drawTraversal[" + (cached ? "cached" : "uncached") + ", " + count + "]");
+			this.count = count;
+			this.cached = cached;
+		}
+		
+		@Override
+		public void setup(SGApp app) {
+			super.setup(app);
+			createGrid(app, root, count);
+			root.setCached(cached);
+			updateStage();
+			pg = app.createGraphics(app.width, app.height);
+		}
+		
+		@Override
+		public int run() {
+			pg.beginDraw();
+			pg.background(255);
+			root.drawNode(pg);
+			pg.endDraw();
+			return pg.width;
+		}
+		
+		@Override
+		public void teardown() {
+			pg.dispose();
+			pg = null;
+			super.teardown();
+		}
+		
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Draws the stage with a grid of the given number of tiles into an offscreen JAVA2D graphics
+	 * object, split into the given number of tiles that are drawn in parallel, or sequentially
+	 * when the number of tiles is 1.
+	 */
+	public static class TiledDrawTraversal extends SGBenchmark {
+		
+		private final int count;
+		private final int tiles;
+		private SGTileRenderer renderer;
+		private PGraphics pg;
+		
+		public TiledDrawTraversal(int count, int tiles) {
+			super("tiledDrawTraversal[" + tiles + " tiles, " + count + "]");
+			this.count = count;
+			this.tiles = tiles;
+		}
+		
+		@Override
+		public void setup(SGApp app) {
+			super.setup(app);
+			createGrid(app, root, count);
+			updateStage();
+			if (tiles > 1) renderer = new SGTileRenderer(app, tiles);
+			pg = app.createGraphics(app.width, app.height);
+		}
+		
+		@Override
+		public int run() {
+			pg.beginDraw();
+			pg.background(255);
+			if (renderer != null) app.getStage().drawNodeTiled(pg, renderer);
+			else app.getStage().drawNode(pg);
+			pg.endDraw();
+			return pg.width;
+		}
+		
+		@Override
+		public void teardown() {
+			if (renderer != null) renderer.dispose();
+			renderer = null;
+			pg.dispose();
+			pg = null;
+			super.teardown();
+		}
+		
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Dispatches mouse-move events over a grid of the given number of interactive tiles, with the
+	 * mouse index enabled or not. The mouse alternates between two tiles, such that each event
+	 * results in a mouse-out and a mouse-over.
+	 */
+	public static class MouseHitTest extends SGBenchmark {
+		
+		private final int count;
+		private final boolean indexed;
+		private MouseEvent[] events;
+		private int hits = 0;
+		
+		public MouseHitTest(int count, boolean indexed) {
+			super("mouseHitTest[" + (indexed ? "indexed" : "linear") + ", " + count + "]");
+			this.count = count;
+			this.indexed = indexed;
+		}
+		
+		@Override
+		public void setup(SGApp app) {
+			super.setup(app);
+			SGMouseEventHandler handler = new SGMouseEventHandler() {
+				@Override
+				public void mouseOver(SGNode node, PVector mousePosition, boolean dragged) {
+					hits++;
+				}
+			};
+			for (SGNode tile : createGrid(app, root, count))
+				tile.addMouseEventHandler(handler);
+			root.setMouseIndexEnabled(indexed);
+			updateStage();
+			
+			events = new MouseEvent[] {
+					new MouseEvent(null, 0, MouseEvent.MOVE, 0, 2, 2, PConstants.LEFT, 0),
+					new MouseEvent(null, 0, MouseEvent.MOVE, 0, 7, 7, PConstants.LEFT, 0) };
+		}
+		
+		@Override
+		public int run() {
+			for (MouseEvent event : events) {
+				app.mouseX = event.getX();
+				app.mouseY = event.getY();
+				app.mouseEvent(event);
+			}
+			return hits;
+		}
+		
+		@Override
+		public int getOperationsPerRun() {
+			return events.length;
+		}
+		
+		@Override
+		public void teardown() {
+			events = null;
+			super.teardown();
+		}
+		
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Changes the padding of the given number of labels, which requires their sizes to be
+	 * recomputed, and then applies the update traversal.
+	 */
+	public static class LabelRelayout extends SGBenchmark {
+		
+		private final int count;
+		private SGLabel[] labels;
+		private boolean flip = false;
+		
+		public LabelRelayout(int count) {
+			super("labelRelayout[" + count + "]");
+			this.count = count;
+		}
+		
+		@Override
+		public void setup(SGApp app) {
+			super.setup(app);
+			labels = new SGLabel[count];
+			for (int i = 0; i < count; i++) {
+				labels[i] = new SGLabel(app, "Label " + i);
+				root.addNode(labels[i], 0, i * 20);
+			}
+			updateStage();
+		}
+		
+		@Override
+		public int run() {
+			flip = !flip;
+			for (SGLabel label : labels)
+				label.setPadding(flip ? 2 : 0);
+			updateStage();
+			return labels[0].getLocalBounds().width;
+		}
+		
+		@Override
+		public int getOperationsPerRun() {
+			return count;
+		}
+		
+		@Override
+		public void teardown() {
+			labels = null;
+			super.teardown();
+		}
+		
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Draws the given number of static labels in which a paragraph is wrapped in a text box, into
+	 * an offscreen JAVA2D graphics object, with or without an opaque background. The wrapped lines
+	 * are cached in the text layout cache. In sprite mode, the labels (which need a background for
+	 * it) are pre-rendered in the label atlas and copied.
+	 */
+	public static class BoxLabelDraw extends SGBenchmark {
+		
+		private static final String TEXT = "The quick brown fox jumps over the lazy dog, while "
+				+ "the five boxing wizards jump quickly and the jay, pig, fox, zebra and my wolves "
+				+ "quack.";
+		
+		private final int count;
+		private final boolean background;
+		private final boolean sprite;
+		private PGraphics pg;
+		private int maxPages;
+		
+		public BoxLabelDraw(int count, boolean background, boolean sprite) {
+			super("boxLabelDraw[" + count + (background ? ", background" : "")
+					+ (sprite ? ", sprite" : "") + "]");
+			this.count = count;
+			this.background = background;
+			this.sprite = sprite;
+		}
+		
+		@Override
+		public void setup(SGApp app) {
+			super.setup(app);
+			// make room for all sprites in the atlas:
+			maxPages = app.getLabelAtlas().getMaxPages();
+			app.getLabelAtlas().setMaxPages(Math.max(maxPages, count / 30 + 1));
+			for (int i = 0; i < count; i++) {
+				SGLabel label = new SGLabel(app, i + ". " + TEXT, 180, 120);
+				if (background) label.setBackground(new Color(0xDDEEFF));
+				label.setSprite(sprite);
+				root.addNode(label, (i % 4) * 200, 0);
+			}
+			updateStage();
+			pg = app.createGraphics(app.width, app.height);
+		}
+		
+		@Override
+		public int run() {
+			pg.beginDraw();
+			pg.background(255);
+			root.drawNode(pg);
+			pg.endDraw();
+			return pg.width;
+		}
+		
+		@Override
+		public int getOperationsPerRun() {
+			return count;
+		}
+		
+		@Override
+		public void teardown() {
+			pg.dispose();
+			pg = null;
+			app.getLabelAtlas().setMaxPages(maxPages);
+			super.teardown();
+		}
+		
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Animates the position of the given number of nodes during one frame, either with a
+	 * controller per node or with the tween engine, and then applies the update traversal.
+	 */
+	public static class Tweening extends SGBenchmark {
+		
+		/* The duration of the tweens, long enough to never complete during the benchmark. */
+		private static final int DURATION = 1000000000;
+		
+		private final int count;
+		private final boolean engine;
+		private SGTweenEngine tweenEngine;
+		private long time;
+		
+		public Tweening(int count, boolean engine) {
+			super("tweening[" + (engine ? "engine" : "controllers") + ", " + count + "]");
+			this.count = count;
+			this.engine = engine;
+		}
+		
+		@Override
+		public void setup(SGApp app) {
+			super.setup(app);
+			time = app.clockMillis();
+			tweenEngine = app.getTweenEngine();
+			final long start = time;
+			for (SGNode node : createGrid(app, root, count)) {
+				final float x = node.getX(), y = node.getY();
+				if (engine) {
+					tweenEngine.tween(node, Property.X, x, x + 100, 0, DURATION, Easing.LINEAR,
+							null);
+					tweenEngine.tween(node, Property.Y, y, y + 100, 0, DURATION,
+							Easing.QUAD_IN_OUT, null);
+				}
+				else node.setController(new NodeController() {
+					@Override
+					public void apply(SGNode node) {
+						float t = (float) (time - start) / DURATION;
+						node.moveTo(x + 100 * t, y + 100 * (t < .5f ? 2 * t * t : -1 + (4 - 2 * t)
+								* t));
+					}
+				});
+			}
+			updateStage();
+		}
+		
+		@Override
+		public int run() {
+			time += 16;
+			if (engine) tweenEngine.advance(time);
+			updateStage();
+			return tweenEngine.size();
+		}
+		
+		@Override
+		public int getOperationsPerRun() {
+			return count;
+		}
+		
+		@Override
+		public void teardown() {
+			tweenEngine.cancelAll();
+			tweenEngine = null;
+			super.teardown();
+		}
+		
+	}
+	
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Creates the given number of multi-language strings, switches the language back and forth and
+	 * disposes the strings. The strings are tracked in the weak registry of the MLStrings manager
+	 * and looked up in a compiled string table.
+	 */
+	public static class MLStringRegistration extends SGBenchmark {
+		
+		private static final Language[] LANGUAGES = { Language.EN, Language.ES };
+		private static final int ID_COUNT = 100;
+		
+		private final int count;
+		private final String[] ids = new String[ID_COUNT];
+		private File tableFile;
+		private MLStrings strings;
+		private MLString[] mlStrings;
+		
+		public MLStringRegistration(int count) {
+			super("mlStringRegistration[" + count + "]");
+			this.count = count;
+		}
+		
+		@Override
+		public void setup(SGApp app) {
+			super.setup(app);
+			XML xml = new XML("texts");
+			for (int i = 0; i < ID_COUNT; i++) {
+				ids[i] = "string_" + i;
+				XML stringEl = xml.addChild("string");
+				stringEl.setString("id", ids[i]);
+				stringEl.addChild("en").setContent("String " + i);
+				stringEl.addChild("es").setContent("Cadena " + i);
+			}
+			try {
+				tableFile = File.createTempFile("mlStringRegistration", ".mlst");
+			}
+			catch (IOException e) {
+				throw new Error("Failed to create the string table file. " + e, e);
+			}
+			MLStringTable.compile(xml, new String[] { "en", "es" }, tableFile);
+			strings = new MLStrings(LANGUAGES, new MLStringTable(tableFile));
+			mlStrings = new MLString[count];
+		}
+		
+		@Override
+		public int run() {
+			for (int i = 0; i < count; i++)
+				mlStrings[i] = strings.newMLString(ids[i % ID_COUNT]);
+			strings.setCurrentLanguage(LANGUAGES[1]);
+			strings.setCurrentLanguage(LANGUAGES[0]);
+			int length = 0;
+			for (int i = 0; i < count; i++) {
+				length += mlStrings[i].toString().length();
+				mlStrings[i].dispose();
+				mlStrings[i] = null;
+			}
+			return length;
+		}
+		
+		@Override
+		public int getOperationsPerRun() {
+			return count;
+		}
+		
+		@Override
+		public void teardown() {
+			strings = null;
+			mlStrings = null;
+			tableFile.delete();
+			super.teardown();
+		}
+		
+	}
+	
+}
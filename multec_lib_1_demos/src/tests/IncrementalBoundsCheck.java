@@ -0,0 +1,190 @@
+package tests;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import be.multec.sg.SGOffscreenApp;
+import be.multec.sg.nodes.SGNode;
+import be.multec.sg.nodes.SGRect;
+
+/**
+ * A headless randomized check of the incremental maintenance of the composite bounds. Rects are
+ * added to, removed from, moved between, moved within and resized in a tree of nested containers,
+ * and containers and rects are hidden and shown, at random. After each batch of modifications a
+ * frame is rendered, and the local composite bounds of each visible container are compared with
+ * the bounds recomputed here from scratch. Unlike IncrementalBoundsDemo, this check does not rely
+ * on the debug mode, and it needs no window.
+ *
+ * The optional argument is the seed of the random generator.
+ *
+ * @author Wouter Van den Broeck
+ */
+public class IncrementalBoundsCheck extends SGOffscreenApp {
+
+	// *********************************************************************************************
+	// Main method:
+	// ---------------------------------------------------------------------------------------------
+
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		IncrementalBoundsCheck app = new IncrementalBoundsCheck(seed);
+		app.start(800, 600, 25, new Color(0xFFFFFF));
+		int failures = app.check();
+		app.dispose();
+		System.out.println(failures == 0 ? "IncrementalBoundsCheck passed (seed " + seed + ")."
+				: "IncrementalBoundsCheck failed: " + failures + " mismatches (seed " + seed + ").");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+
+	/* The number of containers, nested at random. */
+	private static final int CONTAINERS = 12;
+
+	/* The number of rects initially added. */
+	private static final int RECTS = 300;
+
+	/* The number of batches of modifications, each followed by a frame. */
+	private static final int BATCHES = 2000;
+
+	/* The maximum number of modifications per batch. */
+	private static final int MODIFICATIONS = 20;
+
+	private final Random random;
+
+	/* The containers, the first one of which is on the stage. */
+	private final List<SGNode> containers = new ArrayList<SGNode>();
+
+	/* The rects in the containers. */
+	private final List<SGRect> rects = new ArrayList<SGRect>();
+
+	// *********************************************************************************************
+	// Constructors:
+	// ---------------------------------------------------------------------------------------------
+
+	/**
+	 * @param seed The seed of the random generator.
+	 */
+	public IncrementalBoundsCheck(long seed) {
+		random = new Random(seed);
+	}
+
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+
+	/* @see processing.core.PApplet#setup() */
+	@Override
+	public void setup() {
+		SGNode root = new SGNode(this);
+		addNode(root, 50, 50);
+		containers.add(root);
+		for (int i = 1; i < CONTAINERS; i++) {
+			SGNode container = new SGNode(this);
+			randomContainer().addNode(container, random.nextInt(200) - 50, random.nextInt(200) - 50);
+			containers.add(container);
+		}
+		for (int i = 0; i < RECTS; i++)
+			addRect();
+	}
+
+	/* Applies the batches of modifications and returns the number of mismatches. */
+	private int check() {
+		int failures = 0;
+		for (int batch = 0; batch < BATCHES; batch++) {
+			int modifications = 1 + random.nextInt(MODIFICATIONS);
+			for (int i = 0; i < modifications; i++)
+				modify();
+			renderFrame();
+			for (SGNode container : containers) {
+				if (!isShown(container)) continue;
+				Rectangle expected = recompute(container);
+				Rectangle actual = container.getLocalCompositeBounds();
+				if (expected.equals(actual)) continue;
+				if (failures++ < 10) System.out.println("Batch " + batch + ": the bounds of "
+						+ container + " are " + actual + " instead of " + expected + ".");
+			}
+		}
+		return failures;
+	}
+
+	/* Applies a random modification. */
+	private void modify() {
+		int action = random.nextInt(8);
+		if (action == 0 || rects.isEmpty()) {
+			addRect();
+			return;
+		}
+		SGRect rect = rects.get(random.nextInt(rects.size()));
+		switch (action) {
+			case 1:
+				rect.getParent().removeNode(rect);
+				rects.remove(rect);
+				break;
+			case 2: // move the rect to another container
+				rect.getParent().removeNode(rect);
+				randomContainer().addNode(rect, random.nextInt(400), random.nextInt(300));
+				break;
+			case 3:
+				rect.moveTo(random.nextInt(400), random.nextInt(300));
+				break;
+			case 4:
+				if (random.nextBoolean()) rect.setWidth(1 + random.nextInt(40));
+				else rect.setHeight(1 + random.nextInt(40));
+				break;
+			case 5:
+				rect.visible(!rect.visible());
+				break;
+			case 6: // move a nested container
+				SGNode container = containers.get(1 + random.nextInt(CONTAINERS - 1));
+				container.moveTo(random.nextInt(200) - 50, random.nextInt(200) - 50);
+				break;
+			default: // hide or show a nested container
+				container = containers.get(1 + random.nextInt(CONTAINERS - 1));
+				container.visible(!container.visible());
+		}
+	}
+
+	/* Adds a rect of random size to a random container. */
+	private void addRect() {
+		SGRect rect = new SGRect(this, 1 + random.nextInt(40), 1 + random.nextInt(40), new Color(
+				0xFFCC00));
+		randomContainer().addNode(rect, random.nextInt(400), random.nextInt(300));
+		rects.add(rect);
+	}
+
+	/* Returns a random container. */
+	private SGNode randomContainer() {
+		return containers.get(random.nextInt(containers.size()));
+	}
+
+	/* Returns true when the given node and all its ancestors are visible. */
+	private boolean isShown(SGNode node) {
+		for (; node != null; node = node.getParent()) {
+			if (!node.visible()) return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Recomputes the local composite bounds of the given node from its local bounds and the
+	 * recomputed bounds of its visible children. The nodes are only translated, over whole pixels.
+	 */
+	private Rectangle recompute(SGNode node) {
+		Rectangle bounds = new Rectangle(node.getLocalBounds());
+		for (SGNode child : node.getChildren()) {
+			if (!child.visible()) continue;
+			Rectangle childBounds = recompute(child);
+			childBounds.translate((int) child.getX(), (int) child.getY());
+			if (bounds.isEmpty()) bounds.setBounds(childBounds);
+			else if (!childBounds.isEmpty()) bounds.add(childBounds);
+		}
+		return bounds;
+	}
+
+}
@@ -0,0 +1,128 @@
+package tests;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import processing.core.PGraphics;
+import be.multec.sg.SGApp;
+import be.multec.sg.SGWindow;
+import be.multec.sg.nodes.SGNode;
+import be.multec.sg.nodes.SGRect;
+import be.multec.sg.nodes.controllers.NodeController;
+
+/**
+ * A test of the incremental maintenance of the composite bounds. In each frame, some markers in a
+ * container are moved, hidden, shown, added or removed at random. The debug mode is enabled, in
+ * which the incrementally updated bounds are compared with the bounds recomputed over all
+ * children, and an error is thrown when they differ. The composite bounds of the container are
+ * outlined in red.
+ * 
+ * @author Wouter Van den Broeck
+ */
+public class IncrementalBoundsDemo extends SGWindow {
+	
+	// *********************************************************************************************
+	// Main method:
+	// ---------------------------------------------------------------------------------------------
+	
+	public static void main(String[] args) {
+		SGApp.DEBUG_MODE = true;
+		new IncrementalBoundsDemo().open("IncrementalBoundsDemo", 50, 30, 800, 600, new Color(
+				0xFFFFFF));
+	}
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The number of markers initially added. */
+	private static final int MARKERS = 2000;
+	
+	/* The number of random modifications per frame. */
+	private static final int MODIFICATIONS = 20;
+	
+	private final Random random = new Random(1);
+	
+	private SGNode container;
+	
+	private List<SGNode> markers = new ArrayList<SGNode>();
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* @see processing.core.PApplet#setup() */
+	@Override
+	public void setup() {
+		container = new SGNode(this);
+		for (int i = 0; i < MARKERS; i++)
+			addMarker();
+		addNode(new Outline(this, container), 100, 100);
+		
+		container.setController(new NodeController() {
+			@Override
+			public void apply(SGNode node) {
+				for (int i = 0; i < MODIFICATIONS; i++)
+					modify();
+			}
+		});
+	}
+	
+	/* Applies a random modification. */
+	private void modify() {
+		int action = random.nextInt(10);
+		if (action == 0 || markers.isEmpty()) addMarker();
+		else {
+			SGNode marker = markers.get(random.nextInt(markers.size()));
+			if (action == 1) {
+				container.removeNode(marker);
+				markers.remove(marker);
+			}
+			else if (action == 2) marker.visible(!marker.visible());
+			else marker.moveTo(random.nextInt(600), random.nextInt(400));
+		}
+	}
+	
+	/* Adds a marker at a random position. */
+	private void addMarker() {
+		SGRect marker = new SGRect(this, 4, 4, new Color(0xFFCC00));
+		container.addNode(marker, random.nextInt(600), random.nextInt(400));
+		markers.add(marker);
+	}
+	
+	// *********************************************************************************************
+	// Classes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * A node that draws a rect around the composite bounds of its child.
+	 */
+	class Outline extends SGNode {
+		
+		public Outline(SGApp app, SGNode node) {
+			super(app);
+			addNode(node);
+			setController(new NodeController() {
+				@Override
+				public void apply(SGNode node) {
+					node.redraw();
+				}
+			});
+		}
+		
+		/* @see be.multec.sg.nodes.SGNode#draw(processing.core.PGraphics) */
+		@Override
+		protected void draw(PGraphics g) {
+			Rectangle bounds = getLocalCompositeBounds();
+			g.noFill();
+			g.stroke(0xFFBE0000);
+			g.strokeWeight(1);
+			g.rect(bounds.x - 1, bounds.y - 1, bounds.width + 1, bounds.height + 1);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,82 @@
+package tests;
+
+import java.awt.Color;
+import java.util.Random;
+
+import be.multec.sg.SGWindow;
+import be.multec.sg.nodes.SGLabel;
+import be.multec.sg.nodes.SGRect;
+
+/**
+ * A test of the posting of scene-graph modifications from other threads. A number of feed threads
+ * simulate a data feed. Each of them updates a label and moves a marker at a high rate, by posting
+ * the modifications to the app instead of applying them directly.
+ *
+ * @author Wouter Van den Broeck
+ */
+public class PostDemo extends SGWindow {
+
+	// *********************************************************************************************
+	// Main method:
+	// ---------------------------------------------------------------------------------------------
+
+	public static void main(String[] args) {
+		new PostDemo().open("PostDemo", 50, 30, 800, 600, new Color(0xFFFFFF));
+	}
+
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+
+	/* The number of feed threads. */
+	private static final int FEEDS = 4;
+
+	/* The interval between two updates of a feed in milliseconds. */
+	private static final int INTERVAL = 2;
+
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+
+	/* @see processing.core.PApplet#setup() */
+	@Override
+	public void setup() {
+		for (int i = 0; i < FEEDS; i++) {
+			SGLabel label = new SGLabel(this, "feed " + i);
+			addNode(label, 50, 50 + i * 120);
+			SGRect marker = new SGRect(this, 10, 10, new Color(0xFFCC00));
+			addNode(marker, 50, 90 + i * 120);
+			startFeed(i, label, marker);
+		}
+	}
+
+	/* Starts a feed thread that updates the given nodes. */
+	private void startFeed(final int feed, final SGLabel label, final SGRect marker) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Random random = new Random(feed);
+				for (int count = 1; !Thread.interrupted(); count++) {
+					final String text = "feed " + feed + ": " + count;
+					final float x = 50 + random.nextInt(700);
+					post(new Runnable() {
+						@Override
+						public void run() {
+							label.setLabel(text);
+							marker.moveTo(x, marker.getY());
+						}
+					});
+					try {
+						Thread.sleep(INTERVAL);
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}, "feed " + feed);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+}
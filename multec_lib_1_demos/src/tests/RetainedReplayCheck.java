@@ -0,0 +1,176 @@
+package tests;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import be.multec.sg.SGApp;
+import be.multec.sg.SGOffscreenApp;
+import be.multec.sg.nodes.SGEllipse;
+import be.multec.sg.nodes.SGLabel;
+import be.multec.sg.nodes.SGNode;
+import be.multec.sg.nodes.SGRect;
+
+/**
+ * A headless check of retained drawing. The same scene is rendered once with direct drawing and
+ * then with all nodes retained, first while the draw commands are recorded and then while they
+ * are replayed. The check fails when the pixels of the three frames are not identical, or when a
+ * node falls back on direct drawing while its commands should be replayed.
+ *
+ * @author Wouter Van den Broeck
+ */
+public class RetainedReplayCheck extends SGOffscreenApp {
+
+	// *********************************************************************************************
+	// Main method:
+	// ---------------------------------------------------------------------------------------------
+
+	public static void main(String[] args) {
+		RetainedReplayCheck app = new RetainedReplayCheck();
+		app.start(400, 300, 25, new Color(0xFFFFFF));
+		int failures = app.check();
+		app.dispose();
+		System.out.println(failures == 0 ? "RetainedReplayCheck passed."
+				: "RetainedReplayCheck failed: " + failures + " failures.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+
+	/* The nodes that are drawn directly and retained in turn. */
+	private final ArrayList<SGNode> nodes = new ArrayList<SGNode>();
+
+	/* A figure, which should not be drawn directly while its commands are replayed. */
+	private Figure figure;
+
+	// *********************************************************************************************
+	// Components:
+	// ---------------------------------------------------------------------------------------------
+
+	/* A node that draws with a variety of commands, including style and matrix changes. */
+	private class Figure extends SGNode {
+
+		/* The number of times draw() was called. */
+		int draws = 0;
+
+		public Figure(SGApp app) {
+			super(app);
+		}
+
+		/* @see be.multec.sg.SGNode#draw() */
+		@Override
+		protected void draw(PGraphics g) {
+			g.fill(0xFF3366CC);
+			g.stroke(0xFF000000);
+			g.strokeWeight(2);
+			g.beginShape();
+			g.vertex(0, 0);
+			g.vertex(60, 0);
+			g.bezierVertex(80, 20, 80, 40, 60, 60);
+			g.vertex(0, 60);
+			g.endShape(PConstants.CLOSE);
+
+			g.pushMatrix();
+			g.translate(30, 30);
+			g.rotate(PConstants.QUARTER_PI);
+			g.noStroke();
+			g.fill(0x80FFCC00);
+			g.rect(-10, -10, 20, 20);
+			g.popMatrix();
+
+			g.noFill();
+			g.stroke(0xFFAA0000);
+			g.strokeWeight(1);
+			g.ellipse(30, 70, 40, 20);
+			g.beginShape();
+			g.vertex(0, 80);
+			g.quadraticVertex(30, 70, 60, 80);
+			g.endShape();
+			draws++;
+		}
+
+		/* @see be.multec.sg.SGNode#updateLocalBounds(java.awt.Rectangle) */
+		@Override
+		protected void updateLocalBounds(Rectangle localBounds) {
+			localBounds.setBounds(-2, -2, 85, 85);
+		}
+
+	}
+
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+
+	/* @see processing.core.PApplet#setup() */
+	@Override
+	public void setup() {
+		figure = new Figure(this);
+		addNode(figure, 20, 20);
+		nodes.add(figure);
+
+		// A retained parent with a retained child, which is drawn on top of the parent's commands:
+		SGRect parent = new SGRect(this, 120, 80, new Color(0xDDEEFF), new Color(0x336699), 3);
+		addNode(parent, 140, 20);
+		nodes.add(parent);
+		Figure child = new Figure(this);
+		parent.addNode(child, 10, 5);
+		child.rotate(0.2f);
+		nodes.add(child);
+
+		SGEllipse ellipse = new SGEllipse(this, 70, 40, new Color(0x99CC33), new Color(0x000000), 2);
+		addNode(ellipse, 60, 170);
+		nodes.add(ellipse);
+
+		SGLabel label = new SGLabel(this, "Retained drawing");
+		addNode(label, 150, 160);
+		nodes.add(label);
+
+		SGLabel scaled = new SGLabel(this, "scaled");
+		addNode(scaled, 150, 200);
+		scaled.scale(1.5f);
+		nodes.add(scaled);
+	}
+
+	/* Renders the direct, recorded and replayed frames and returns the number of failures. */
+	private int check() {
+		renderFrame();
+		int[] direct = getPixels(null);
+
+		for (SGNode node : nodes)
+			node.setRetained(true);
+		redrawAll();
+		renderFrame();
+		int[] recorded = getPixels(null);
+
+		int draws = figure.draws;
+		redrawAll();
+		renderFrame();
+		int[] replayed = getPixels(null);
+
+		int failures = 0;
+		if (figure.draws != draws) {
+			System.out.println("The figure was drawn directly instead of replayed.");
+			failures++;
+		}
+		failures += compare("recorded", direct, recorded);
+		failures += compare("replayed", direct, replayed);
+		return failures;
+	}
+
+	/* Reports the pixels in which the given frame differs from the direct frame. */
+	private int compare(String frame, int[] direct, int[] pixels) {
+		int mismatches = 0;
+		for (int i = 0; i < direct.length; i++) {
+			if (direct[i] == pixels[i]) continue;
+			if (mismatches++ < 10) System.out.println(frame + " frame differs at ("
+					+ (i % width) + ", " + (i / width) + "): "
+					+ Integer.toHexString(direct[i]) + " vs " + Integer.toHexString(pixels[i]));
+		}
+		return mismatches;
+	}
+
+}
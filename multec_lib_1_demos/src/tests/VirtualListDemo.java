@@ -0,0 +1,140 @@
+package tests;
+
+import java.awt.Color;
+
+import processing.core.PVector;
+import be.multec.sg.SGApp;
+import be.multec.sg.SGWindow;
+import be.multec.sg.eventHandlers.SGMouseEventHandler;
+import be.multec.sg.nodes.IVirtualItemAdapter;
+import be.multec.sg.nodes.SGLabel;
+import be.multec.sg.nodes.SGNode;
+import be.multec.sg.nodes.SGRect;
+import be.multec.sg.nodes.SGVirtualGrid;
+import be.multec.sg.nodes.SGVirtualList;
+import be.multec.sg.nodes.controllers.NodeController;
+
+/**
+ * A demo of the virtual list and grid containers. The list shows 100000 rows and the grid 100000
+ * tiles, but only a few dozen nodes are created for each. The list scrolls automatically, the grid
+ * is scrolled by dragging the mouse vertically over it. The number of item nodes is printed on the
+ * console every second.
+ * 
+ * @author Wouter Van den Broeck
+ */
+public class VirtualListDemo extends SGWindow {
+	
+	// *********************************************************************************************
+	// Main method:
+	// ---------------------------------------------------------------------------------------------
+	
+	public static void main(String[] args) {
+		new VirtualListDemo().open("VirtualListDemo", 50, 30, 800, 600, new Color(0xFFFFFF));
+	}
+	
+	// *********************************************************************************************
+	// Attributes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* The number of items in the list and in the grid. */
+	private static final int ITEMS = 100000;
+	
+	private SGVirtualList list;
+	
+	private SGVirtualGrid grid;
+	
+	/* The y-coordinate of the mouse in the previous drag event on the grid. */
+	private float dragY = -1;
+	
+	// *********************************************************************************************
+	// Methods:
+	// ---------------------------------------------------------------------------------------------
+	
+	/* @see processing.core.PApplet#setup() */
+	@Override
+	public void setup() {
+		list = new SGVirtualList(this, new RowAdapter(), 24, 300, 500);
+		addNode(list, 50, 50);
+		list.setController(new NodeController() {
+			@Override
+			public void apply(SGNode node) {
+				if (list.getScrollOffset() >= list.getMaxScrollOffset()) list.setScrollOffset(0);
+				else list.scrollBy(3);
+			}
+		});
+		
+		grid = new SGVirtualGrid(this, new TileAdapter(), 5, 70, 70, 350, 500);
+		addNode(grid, 400, 50);
+		grid.addMouseEventHandler(new SGMouseEventHandler() {
+			@Override
+			public void mouseMoved(SGNode node, PVector mousePosition, boolean dragged) {
+				if (dragged && dragY >= 0) grid.scrollBy(dragY - mousePosition.y);
+				dragY = dragged ? mousePosition.y : -1;
+			}
+		});
+	}
+	
+	/* @see be.multec.sg.SGApp#draw() */
+	@Override
+	public void draw() {
+		super.draw();
+		if (frameCount % 60 == 0)
+			println("item nodes - list: " + list.getChildren().size() + ", grid: "
+					+ grid.getChildren().size());
+	}
+	
+	// *********************************************************************************************
+	// Classes:
+	// ---------------------------------------------------------------------------------------------
+	
+	/**
+	 * Provides the rows of the list, which are labels.
+	 */
+	class RowAdapter implements IVirtualItemAdapter {
+		
+		@Override
+		public int getItemCount() {
+			return ITEMS;
+		}
+		
+		@Override
+		public SGNode createItemNode(SGApp app) {
+			return new SGLabel(app, "");
+		}
+		
+		@Override
+		public void bindItemNode(SGNode node, int index) {
+			((SGLabel) node).setLabel("Row " + index);
+		}
+		
+		@Override
+		public void unbindItemNode(SGNode node, int index) {}
+		
+	}
+	
+	/**
+	 * Provides the tiles of the grid, which are rectangles of which the color depends on the index.
+	 */
+	class TileAdapter implements IVirtualItemAdapter {
+		
+		@Override
+		public int getItemCount() {
+			return ITEMS;
+		}
+		
+		@Override
+		public SGNode createItemNode(SGApp app) {
+			return new SGRect(app, 64, 64);
+		}
+		
+		@Override
+		public void bindItemNode(SGNode node, int index) {
+			((SGRect) node).fill(Color.getHSBColor((index % 100) / 100f, 0.6f, 0.9f));
+		}
+		
+		@Override
+		public void unbindItemNode(SGNode node, int index) {}
+		
+	}
+	
+}